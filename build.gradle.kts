@@ -10,6 +10,25 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+    create("loadtest") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation: Configuration by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+
+val loadtestImplementation: Configuration by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+
 dependencies {
     implementation("com.zaxxer:HikariCP:7.0.2")
     implementation("com.impossibl.pgjdbc-ng:pgjdbc-ng:0.8.9")
@@ -19,14 +38,52 @@ dependencies {
     implementation("net.dv8tion:JDA:6.0.0") {
         exclude("opus-java")
     }
+
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 application {
     mainClass.set("org.maplestar.syrup.Main")
+    // ImageUtils uses the Vector API if it's available, and falls back to plain loops without this
+    applicationDefaultJvmArgs = listOf("--add-modules", "jdk.incubator.vector")
 }
 
 tasks {
     compileJava {
         options.encoding = "UTF-8"
+        options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+    }
+
+    named<JavaCompile>("compileJmhJava") {
+        options.encoding = "UTF-8"
+    }
+
+    named<JavaCompile>("compileLoadtestJava") {
+        options.encoding = "UTF-8"
+    }
+
+    // Runs the benchmarks in src/jmh, e.g. "gradle jmh -Pjmh.includes=LevelData" to only run matching ones
+    register<JavaExec>("jmh") {
+        description = "Runs the JMH benchmarks with the GC profiler for allocation rates."
+        group = "verification"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.openjdk.jmh.Main")
+        jvmArgs("--add-modules", "jdk.incubator.vector")
+
+        val resultFile = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+        args("-prof", "gc", "-rf", "json", "-rff", resultFile.path)
+        (project.findProperty("jmh.includes") as String?)?.let { args(it) }
+        doFirst { resultFile.parentFile.mkdirs() }
+    }
+
+    // Replays synthetic traffic against a local database, e.g. "gradle loadTest --args='--guilds=50 --message-rate=500'"
+    register<JavaExec>("loadTest") {
+        description = "Runs the load test against the database configured in .env.loadtest."
+        group = "verification"
+        classpath = sourceSets["loadtest"].runtimeClasspath
+        mainClass.set("org.maplestar.syrup.loadtest.LoadTest")
+        workingDir = projectDir
+        jvmArgs("-Djava.awt.headless=true", "--add-modules", "jdk.incubator.vector")
     }
 }
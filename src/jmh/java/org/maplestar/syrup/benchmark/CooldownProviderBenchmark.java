@@ -0,0 +1,51 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.utils.CooldownProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the XP cooldown check of {@link CooldownProvider} with a realistic number of active users.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CooldownProviderBenchmark {
+    private static final int SAMPLES = 1024;
+
+    @Param({"1000", "100000"})
+    public int activeUsers;
+
+    private CooldownProvider<Long> cooldownProvider;
+    private final Long[] userIDs = new Long[SAMPLES];
+    private int index;
+
+    @Setup
+    public void setup() {
+        cooldownProvider = CooldownProvider.withDuration(Duration.ofSeconds(10));
+
+        var random = ThreadLocalRandom.current();
+        for (long userID = 0; userID < activeUsers; userID++) {
+            cooldownProvider.applyCooldown(userID);
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            userIDs[i] = random.nextLong(0, activeUsers * 2L);
+        }
+    }
+
+    @Benchmark
+    public boolean checkAndApply() {
+        index = (index + 1) & (SAMPLES - 1);
+        var userID = userIDs[index];
+        if (cooldownProvider.isOnCooldown(userID)) return true;
+
+        cooldownProvider.applyCooldown(userID);
+        return false;
+    }
+}
@@ -0,0 +1,26 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.utils.DurationUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing the human-readable durations of /remindme, see {@link DurationUtils}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationUtilsBenchmark {
+    @Param({"30s", "5d 12h", "1y 2w 3d 4h 5m 6s"})
+    public String durationString;
+
+    @Benchmark
+    public Duration durationStringToMillis() {
+        return DurationUtils.durationStringToMillis(durationString);
+    }
+}
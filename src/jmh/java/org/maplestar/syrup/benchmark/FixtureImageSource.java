@@ -0,0 +1,28 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.utils.ImageSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Image source that serves the bundled fixture images instead of downloading them from Discord.
+ * Banner and guild icon URLs are mapped to their fixture, everything else is treated as an avatar.
+ */
+public class FixtureImageSource implements ImageSource {
+    @Override
+    public BufferedImage loadImage(String url) throws IOException {
+        if (url.contains("/banners/")) return loadFixture("banner.png");
+        if (url.contains("/icons/")) return loadFixture("guild.png");
+        return loadFixture("avatar.png");
+    }
+
+    private static BufferedImage loadFixture(String name) throws IOException {
+        try (InputStream inputStream = FixtureImageSource.class.getResourceAsStream("/fixtures/" + name)) {
+            if (inputStream == null) throw new IOException("Missing fixture " + name);
+            return ImageIO.read(inputStream);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.data.rank.LeaderboardSnapshot;
+import org.maplestar.syrup.data.rank.LevelData;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.utils.LeaderboardDataToCSVUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the CSV export and import of entire leaderboards, see {@link LeaderboardDataToCSVUtils}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeaderboardCSVBenchmark {
+    @Param({"1000", "50000"})
+    public int users;
+
+    private List<RankingData> leaderboard;
+    private LeaderboardSnapshot snapshot;
+    private File csvFile;
+
+    @Setup
+    public void setup() throws IOException {
+        var random = ThreadLocalRandom.current();
+        leaderboard = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            long userID = random.nextLong(100_000_000_000_000_000L, 1_500_000_000_000_000_000L);
+            leaderboard.add(new RankingData(userID, 0, LevelData.ZERO.setXP(random.nextInt(0, 2_000_000))));
+        }
+
+        snapshot = LeaderboardSnapshot.of(leaderboard);
+
+        csvFile = File.createTempFile("leaderboard", ".txt");
+        Files.write(csvFile.toPath(), LeaderboardDataToCSVUtils.createCSVFileFromData(leaderboard));
+    }
+
+    @TearDown
+    public void tearDown() {
+        csvFile.delete();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return LeaderboardDataToCSVUtils.createCSVFileFromData(leaderboard);
+    }
+
+    @Benchmark
+    public byte[] encodeSnapshot() {
+        return LeaderboardDataToCSVUtils.createCSVFileFromData(snapshot);
+    }
+
+    @Benchmark
+    public List<RankingData> decode() {
+        return LeaderboardDataToCSVUtils.createDataFromCSVFile(csvFile);
+    }
+}
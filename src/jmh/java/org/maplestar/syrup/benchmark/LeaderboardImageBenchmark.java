@@ -0,0 +1,78 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.data.rank.LevelData;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.utils.ImageSource;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.ImageUtils.LeaderboardEntry;
+import org.maplestar.syrup.utils.RenderQuality;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the /leaderboard image and its parts, split into drawing the image and encoding it as PNG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaderboardImageBenchmark {
+    @Param({"FULL", "REDUCED"})
+    public RenderQuality quality;
+
+    private ImageSource imageSource;
+    private BufferedImage guildAvatar;
+    private LeaderboardEntry you;
+    private List<LeaderboardEntry> entries;
+    private BufferedImage composedImage;
+
+    @Setup
+    public void setup() throws IOException {
+        imageSource = new FixtureImageSource();
+        ImageUtils.setImageSource(imageSource);
+
+        guildAvatar = imageSource.loadImage("https://cdn.discordapp.com/icons/1/g.png?size=256");
+        var avatarUrl = "https://cdn.discordapp.com/avatars/1/a.png?size=256";
+
+        // a full page: 10 users, ranks 11 to 20
+        entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            var rankingData = new RankingData(1000 + i, 11 + i, LevelData.ZERO.setXP(2_000_000 - i * 50_000L));
+            entries.add(new LeaderboardEntry(rankingData, "Syrup User " + (11 + i), avatarUrl));
+        }
+        you = new LeaderboardEntry(entries.get(3).rankingData(), "You", avatarUrl);
+        composedImage = compose();
+    }
+
+    @Benchmark
+    public BufferedImage compose() throws IOException {
+        return ImageUtils.renderLeaderboardImage("Maple's Syrup Factory", guildAvatar, you, entries, 2, 37, quality, imageSource);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return ImageUtils.encodePNG(composedImage);
+    }
+
+    @Benchmark
+    public byte[] full() throws IOException {
+        return ImageUtils.encodePNG(compose());
+    }
+
+    @Benchmark
+    public BufferedImage leaderboardRankImage() {
+        return ImageUtils.generateLeaderboardRankImage(you.rankingData(), you.name(), true);
+    }
+
+    @Benchmark
+    public BufferedImage rankNumberImage() {
+        return ImageUtils.generateRankNumberImage(you.rankingData().rank());
+    }
+}
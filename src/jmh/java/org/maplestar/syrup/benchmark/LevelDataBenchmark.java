@@ -0,0 +1,55 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.data.rank.LevelData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the level calculations of {@link LevelData}, which are run for every message that grants XP.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelDataBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final LevelData[] levelData = new LevelData[SAMPLES];
+    private final long[] xp = new long[SAMPLES];
+    private int index;
+
+    @Setup
+    public void setup() {
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < SAMPLES; i++) {
+            xp[i] = random.nextLong(0, LevelData.MAX.xp());
+            levelData[i] = LevelData.ZERO.setXP(xp[i]);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (SAMPLES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public LevelData addXP() {
+        return levelData[next()].addXP(23);
+    }
+
+    @Benchmark
+    public LevelData setXP() {
+        int i = next();
+        return levelData[i].setXP(xp[i]);
+    }
+
+    @Benchmark
+    public int xpToLevel() {
+        int i = next();
+        return levelData[i].xpToLevel(xp[i]);
+    }
+}
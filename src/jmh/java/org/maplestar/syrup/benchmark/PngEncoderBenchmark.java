@@ -0,0 +1,65 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.data.rank.LevelData;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.utils.ImageSource;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.PngEncoder;
+import org.maplestar.syrup.utils.RenderQuality;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding the /rank image with the different encoder settings, on one thread and in parallel strips.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngEncoderBenchmark {
+    @Param({"1", "4", "6"})
+    public int compressionLevel;
+
+    @Param({"NONE", "PAETH", "ADAPTIVE"})
+    public PngEncoder.Filter filter;
+
+    @Param({"false", "true"})
+    public boolean quantize;
+
+    private BufferedImage image;
+    private PngEncoder encoder;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        ImageSource imageSource = new FixtureImageSource();
+        var avatar = imageSource.loadImage("https://cdn.discordapp.com/avatars/1/a.png?size=256");
+        var banner = imageSource.loadImage("https://cdn.discordapp.com/banners/1/b.png?size=1024");
+        var rankingData = new RankingData(1, 42, LevelData.ZERO.setXP(1_234_567));
+        image = ImageUtils.renderRankImage("maple syrup enjoyer", avatar, banner, new Color(102, 121, 189), rankingData, null, RenderQuality.FULL);
+        encoder = new PngEncoder(compressionLevel, filter, quantize);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return encoder.encode(image);
+    }
+
+    @Benchmark
+    public byte[] encodeParallel() throws IOException {
+        return encoder.encode(image, pool);
+    }
+}
@@ -0,0 +1,64 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.data.rank.LevelData;
+import org.maplestar.syrup.data.rank.RankPosition;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.utils.ImageSource;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQuality;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the /rank image, split into drawing the image and encoding it as PNG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RankImageBenchmark {
+    @Param({"true", "false"})
+    public boolean hasBanner;
+
+    @Param({"FULL", "REDUCED"})
+    public RenderQuality quality;
+
+    private BufferedImage avatar;
+    private BufferedImage banner;
+    private RankingData rankingData;
+    private RankPosition rankPosition;
+    private BufferedImage composedImage;
+
+    @Setup
+    public void setup() throws IOException {
+        ImageSource imageSource = new FixtureImageSource();
+        ImageUtils.setImageSource(imageSource);
+
+        avatar = imageSource.loadImage("https://cdn.discordapp.com/avatars/1/a.png?size=256");
+        banner = hasBanner ? imageSource.loadImage("https://cdn.discordapp.com/banners/1/b.png?size=1024") : null;
+        rankingData = new RankingData(1, 42, LevelData.ZERO.setXP(1_234_567));
+        rankPosition = new RankPosition(95.8, 41, 3_210);
+        composedImage = compose();
+    }
+
+    @Benchmark
+    public BufferedImage compose() {
+        return ImageUtils.renderRankImage("maple syrup enjoyer", avatar, banner, new Color(102, 121, 189), rankingData, rankPosition, quality);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return ImageUtils.encodePNG(composedImage);
+    }
+
+    @Benchmark
+    public byte[] full() throws IOException {
+        return ImageUtils.encodePNG(compose());
+    }
+}
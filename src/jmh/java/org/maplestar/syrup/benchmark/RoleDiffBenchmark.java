@@ -0,0 +1,62 @@
+package org.maplestar.syrup.benchmark;
+
+import org.maplestar.syrup.data.levelrole.LevelRoleData;
+import org.maplestar.syrup.data.levelrole.RoleDiff;
+import org.maplestar.syrup.listener.LevelChangeListener;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the level role calculations of {@link LevelChangeListener}, which are run for every level-up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleDiffBenchmark {
+    @Param({"5", "50"})
+    public int levelRoles;
+
+    @Param({"true", "false"})
+    public boolean removeOldRoles;
+
+    private List<LevelRoleData> roles;
+    private List<Long> memberRoleIDs;
+
+    @Setup
+    public void setup() {
+        roles = new ArrayList<>();
+        for (int i = 0; i < levelRoles; i++) {
+            roles.add(new LevelRoleData(1_000_000L + i, i * 5));
+        }
+
+        // the member has the roles up to level 20 and some unrelated ones
+        memberRoleIDs = new ArrayList<>();
+        roles.stream()
+                .filter(levelRole -> levelRole.level() <= 20)
+                .forEach(levelRole -> memberRoleIDs.add(levelRole.roleID()));
+        for (int i = 0; i < 10; i++) {
+            memberRoleIDs.add(2_000_000L + i);
+        }
+    }
+
+    @Benchmark
+    public RoleDiff levelUp() {
+        return LevelChangeListener.computeRoleDiff(roles, removeOldRoles, memberRoleIDs, 20, 21);
+    }
+
+    @Benchmark
+    public RoleDiff levelUpToNewRole() {
+        return LevelChangeListener.computeRoleDiff(roles, removeOldRoles, memberRoleIDs, 24, 25);
+    }
+
+    @Benchmark
+    public RoleDiff fullSync() {
+        return LevelChangeListener.computeTargetRoleDiff(roles, removeOldRoles, memberRoleIDs, 20);
+    }
+}
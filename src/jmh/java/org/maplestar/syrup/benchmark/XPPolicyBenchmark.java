@@ -0,0 +1,74 @@
+package org.maplestar.syrup.benchmark;
+
+import net.dv8tion.jda.api.entities.ISnowflake;
+import org.maplestar.syrup.data.xppolicy.XPBoost;
+import org.maplestar.syrup.data.xppolicy.XPPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks evaluating an {@link XPPolicy} for a message, which happens for every message that grants XP.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XPPolicyBenchmark {
+    private static final int SAMPLES = 1024;
+
+    @Param({"0", "50"})
+    public int multipliers;
+
+    private XPPolicy policy;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final long[] channelIDs = new long[SAMPLES];
+    private final List<List<ISnowflake>> memberRoles = new ArrayList<>();
+    private long now;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Map<Long, Double> channelMultipliers = new HashMap<>();
+        Map<Long, Double> roleMultipliers = new HashMap<>();
+        for (long i = 0; i < multipliers; i++) {
+            channelMultipliers.put(i, 1.5);
+            roleMultipliers.put(1000 + i, 1.0 + i / 10.0);
+        }
+
+        var start = Instant.now();
+        var boosts = List.of(
+                new XPBoost(1, start.minus(Duration.ofHours(1)), start.plus(Duration.ofDays(2)), 2),
+                new XPBoost(2, start.plus(Duration.ofDays(7)), start.plus(Duration.ofDays(9)), 2)
+        );
+        policy = new XPPolicy(15, 30, Duration.ofSeconds(10), channelMultipliers, roleMultipliers, boosts);
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < SAMPLES; i++) {
+            channelIDs[i] = random.nextLong(0, 100);
+
+            List<ISnowflake> roles = new ArrayList<>();
+            int roleCount = random.nextInt(0, 8);
+            for (int j = 0; j < roleCount; j++) {
+                long roleID = 1000 + random.nextLong(0, 100);
+                roles.add(() -> roleID);
+            }
+            memberRoles.add(roles);
+        }
+    }
+
+    @Benchmark
+    public int rollXP() {
+        index = (index + 1) & (SAMPLES - 1);
+        return policy.rollXP(random, channelIDs[index], memberRoles.get(index), now);
+    }
+}
@@ -0,0 +1,86 @@
+package org.maplestar.syrup.loadtest;
+
+import org.maplestar.syrup.config.Config;
+import org.maplestar.syrup.data.DatabaseManager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Database manager that counts the statements executed on its connections, attributed to the kind of event being handled.
+ * A data manager may run several statements on one connection, so every execution is counted rather than the connections.
+ * Statements executed outside of an event handler, e.g. by executors, are attributed to {@value BACKGROUND}.
+ */
+final class CountingDatabaseManager extends DatabaseManager {
+    static final String BACKGROUND = "background";
+
+    private final ThreadLocal<String> currentEvent = new ThreadLocal<>();
+    private final Map<String, LongAdder> statementCounts = new ConcurrentHashMap<>();
+
+    CountingDatabaseManager(Config config) {
+        super(config);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        var connection = super.getConnection();
+        return (Connection) Proxy.newProxyInstance(CountingDatabaseManager.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    var result = invoke(connection, method, args);
+                    return result instanceof Statement statement ? countExecutions(statement) : result;
+                });
+    }
+
+    private Statement countExecutions(Statement statement) {
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        return (Statement) Proxy.newProxyInstance(CountingDatabaseManager.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("execute")) {
+                        var event = currentEvent.get();
+                        statementCounts.computeIfAbsent(event == null ? BACKGROUND : event, key -> new LongAdder()).increment();
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Attributes the statements executed by the current thread to the event until {@link CountingDatabaseManager#endEvent()}.
+     *
+     * @param event the kind of event
+     */
+    void beginEvent(String event) {
+        currentEvent.set(event);
+    }
+
+    void endEvent() {
+        currentEvent.remove();
+    }
+
+    long getStatementCount(String event) {
+        var count = statementCounts.get(event);
+        return count == null ? 0 : count.sum();
+    }
+
+    void resetCounts() {
+        statementCounts.clear();
+    }
+}
@@ -0,0 +1,239 @@
+package org.maplestar.syrup.loadtest;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.channel.ChannelType;
+import net.dv8tion.jda.api.entities.channel.unions.GuildMessageChannelUnion;
+import net.dv8tion.jda.api.entities.channel.unions.MessageChannelUnion;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.interactions.commands.SlashCommandInteraction;
+import net.dv8tion.jda.api.requests.restaction.CacheRestAction;
+import net.dv8tion.jda.api.requests.restaction.WebhookMessageEditAction;
+import net.dv8tion.jda.api.requests.restaction.interactions.ReplyCallbackAction;
+
+import java.lang.reflect.InvocationHandler;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A synthetic Discord with numbered guilds, each with its own users and a few text channels.
+ * Hands out stubbed entities and events, which are cached so that equal IDs result in identical objects, like JDA's cache.
+ * <p>
+ * All IDs are below {@value ID_LIMIT}, which as snowflakes date back to before Discord existed,
+ * so the data can't be confused with real guilds.
+ */
+final class FakeDiscord {
+    static final long ID_LIMIT = 1L << 40;
+    static final long GUILD_ID_BASE = 1L << 32;
+    static final long USER_ID_BASE = 2L << 32;
+    static final long ROLE_ID_BASE = 3L << 32;
+    static final long NEW_USER_ID_BASE = 4L << 32;
+    static final int CHANNELS_PER_GUILD = 5;
+
+    private final int usersPerGuild;
+    private final JDA jda;
+    private final AtomicLong responseNumber = new AtomicLong();
+    private final AtomicLong nextMessageID = new AtomicLong(1);
+    private final AtomicLong nextJoinID = new AtomicLong();
+    private final Map<Long, Guild> guilds = new ConcurrentHashMap<>();
+    private final Map<Long, User> users = new ConcurrentHashMap<>();
+    private final Map<MemberKey, Member> members = new ConcurrentHashMap<>();
+    private final Map<Long, MessageChannelUnion> channels = new ConcurrentHashMap<>();
+
+    FakeDiscord(int usersPerGuild) {
+        this.usersPerGuild = usersPerGuild;
+
+        Map<String, InvocationHandler> answers = new HashMap<>();
+        answers.put("retrieveUserById", (proxy, method, args) -> Stubs.restAction(CacheRestAction.class, user(toLong(args[0]))));
+        answers.put("getGuildById", (proxy, method, args) -> guilds.get(toLong(args[0])));
+        this.jda = Stubs.stub(JDA.class, answers);
+    }
+
+    static long guildID(int guildIndex) {
+        // one step in the timestamp part of the snowflake, so guilds are spread across shards like real ones
+        return GUILD_ID_BASE + ((long) guildIndex << 22);
+    }
+
+    long userID(int guildIndex, int userRank) {
+        return USER_ID_BASE + (long) guildIndex * usersPerGuild + userRank;
+    }
+
+    Guild guild(int guildIndex) {
+        return guilds.computeIfAbsent(guildID(guildIndex), id -> {
+            Map<String, InvocationHandler> answers = new HashMap<>();
+            answers.put("getIdLong", (proxy, method, args) -> id);
+            answers.put("getId", (proxy, method, args) -> Long.toString(id));
+            answers.put("getName", (proxy, method, args) -> "Load Test Guild " + guildIndex);
+            answers.put("getIconUrl", (proxy, method, args) -> "https://cdn.discordapp.com/icons/" + id + "/icon.png");
+            answers.put("getJDA", (proxy, method, args) -> jda);
+            answers.put("getRoleById", (proxy, method, args) -> null);
+            answers.put("getMemberById", (proxy, method, args) -> member((Guild) proxy, toLong(args[0])));
+            answers.put("retrieveMemberById", (proxy, method, args) ->
+                    Stubs.restAction(CacheRestAction.class, member((Guild) proxy, toLong(args[0]))));
+            answers.put("retrieveMembersByIds", (proxy, method, args) -> Stubs.task(members((Guild) proxy, args)));
+            return Stubs.stub(Guild.class, answers);
+        });
+    }
+
+    User user(long userID) {
+        return users.computeIfAbsent(userID, id -> {
+            Map<String, InvocationHandler> answers = new HashMap<>();
+            answers.put("getIdLong", (proxy, method, args) -> id);
+            answers.put("getId", (proxy, method, args) -> Long.toString(id));
+            answers.put("getName", (proxy, method, args) -> "user" + id);
+            answers.put("getEffectiveName", (proxy, method, args) -> "Load Test User " + (id - USER_ID_BASE));
+            answers.put("getEffectiveAvatarUrl", (proxy, method, args) -> "https://cdn.discordapp.com/avatars/" + id + "/avatar.png");
+            answers.put("isBot", (proxy, method, args) -> false);
+            answers.put("getJDA", (proxy, method, args) -> jda);
+            answers.put("retrieveProfile", (proxy, method, args) ->
+                    Stubs.restAction(CacheRestAction.class, new User.Profile(id, null, 0x6679BD)));
+            return Stubs.stub(User.class, answers);
+        });
+    }
+
+    Member member(Guild guild, long userID) {
+        return members.computeIfAbsent(new MemberKey(guild.getIdLong(), userID), key -> {
+            var user = user(userID);
+
+            Map<String, InvocationHandler> answers = new HashMap<>();
+            answers.put("getIdLong", (proxy, method, args) -> userID);
+            answers.put("getId", (proxy, method, args) -> Long.toString(userID));
+            answers.put("getUser", (proxy, method, args) -> user);
+            answers.put("getGuild", (proxy, method, args) -> guild);
+            answers.put("getJDA", (proxy, method, args) -> jda);
+            answers.put("getEffectiveName", (proxy, method, args) -> user.getEffectiveName());
+            answers.put("getEffectiveAvatarUrl", (proxy, method, args) -> user.getEffectiveAvatarUrl());
+            answers.put("getRoles", (proxy, method, args) -> List.of());
+            return Stubs.stub(Member.class, answers);
+        });
+    }
+
+    MessageChannelUnion channel(Guild guild, int channelIndex) {
+        long channelID = guild.getIdLong() + channelIndex + 1;
+        return channels.computeIfAbsent(channelID, id -> {
+            Map<String, InvocationHandler> answers = new HashMap<>();
+            answers.put("getIdLong", (proxy, method, args) -> id);
+            answers.put("getId", (proxy, method, args) -> Long.toString(id));
+            answers.put("getName", (proxy, method, args) -> "channel-" + channelIndex);
+            answers.put("getType", (proxy, method, args) -> ChannelType.TEXT);
+            answers.put("getGuild", (proxy, method, args) -> guild);
+            answers.put("getJDA", (proxy, method, args) -> jda);
+            // JDA casts the channel of guild messages to GuildChannel internally
+            return Stubs.stub(MessageChannelUnion.class, answers, GuildMessageChannelUnion.class);
+        });
+    }
+
+    MessageReceivedEvent messageEvent(int guildIndex, int userRank, int channelIndex) {
+        var guild = guild(guildIndex);
+        var member = member(guild, userID(guildIndex, userRank));
+        var channel = channel(guild, channelIndex);
+        long messageID = nextMessageID.getAndIncrement();
+
+        Map<String, InvocationHandler> answers = new HashMap<>();
+        answers.put("getIdLong", (proxy, method, args) -> messageID);
+        answers.put("getChannel", (proxy, method, args) -> channel);
+        answers.put("getGuild", (proxy, method, args) -> guild);
+        answers.put("getAuthor", (proxy, method, args) -> member.getUser());
+        answers.put("getMember", (proxy, method, args) -> member);
+        answers.put("isFromGuild", (proxy, method, args) -> true);
+        answers.put("isWebhookMessage", (proxy, method, args) -> false);
+        answers.put("getContentRaw", (proxy, method, args) -> "hello syrup");
+        return new MessageReceivedEvent(jda, responseNumber.incrementAndGet(), Stubs.stub(Message.class, answers));
+    }
+
+    /**
+     * Creates a slash command event without options.
+     *
+     * @param guildIndex the guild
+     * @param userRank the user running the command
+     * @param commandName the name of the command
+     * @param onReply called once the command edits or sends its reply
+     * @return the event
+     */
+    SlashCommandInteractionEvent slashCommandEvent(int guildIndex, int userRank, String commandName, Runnable onReply) {
+        var guild = guild(guildIndex);
+        var member = member(guild, userID(guildIndex, userRank));
+        var channel = channel(guild, 0);
+
+        Map<String, InvocationHandler> hookAnswers = new HashMap<>();
+        InvocationHandler reply = (proxy, method, args) -> Stubs.restAction(WebhookMessageEditAction.class, null, onReply);
+        for (var name : List.of("editOriginal", "editOriginalAttachments", "editOriginalEmbeds", "editOriginalComponents",
+                "editOriginalFormat", "sendMessage", "sendMessageEmbeds", "sendFiles")) {
+            hookAnswers.put(name, reply);
+        }
+        var hook = Stubs.stub(InteractionHook.class, hookAnswers);
+
+        Map<String, InvocationHandler> answers = new HashMap<>();
+        answers.put("getName", (proxy, method, args) -> commandName);
+        answers.put("getSubcommandName", (proxy, method, args) -> null);
+        answers.put("getSubcommandGroup", (proxy, method, args) -> null);
+        answers.put("getOptions", (proxy, method, args) -> List.of());
+        answers.put("getUser", (proxy, method, args) -> member.getUser());
+        answers.put("getMember", (proxy, method, args) -> member);
+        answers.put("getGuild", (proxy, method, args) -> guild);
+        answers.put("getChannel", (proxy, method, args) -> channel);
+        answers.put("getMessageChannel", (proxy, method, args) -> channel);
+        answers.put("isFromGuild", (proxy, method, args) -> true);
+        answers.put("getJDA", (proxy, method, args) -> jda);
+        answers.put("getHook", (proxy, method, args) -> hook);
+        answers.put("deferReply", (proxy, method, args) -> Stubs.restAction(ReplyCallbackAction.class, hook));
+        answers.put("reply", (proxy, method, args) -> Stubs.restAction(ReplyCallbackAction.class, hook, onReply));
+        answers.put("replyEmbeds", (proxy, method, args) -> Stubs.restAction(ReplyCallbackAction.class, hook, onReply));
+        var interaction = Stubs.stub(SlashCommandInteraction.class, answers);
+        return new SlashCommandInteractionEvent(jda, responseNumber.incrementAndGet(), interaction);
+    }
+
+    /**
+     * Creates a join event for a new user that hasn't been on the guild before.
+     *
+     * @param guildIndex the guild
+     * @return the event
+     */
+    GuildMemberJoinEvent joinEvent(int guildIndex) {
+        var guild = guild(guildIndex);
+        long userID = NEW_USER_ID_BASE + nextJoinID.getAndIncrement();
+        return new GuildMemberJoinEvent(jda, responseNumber.incrementAndGet(), member(guild, userID));
+    }
+
+    /**
+     * Creates a join event for a user that has been on the guild before and may have a level.
+     *
+     * @param guildIndex the guild
+     * @param userRank the user
+     * @return the event
+     */
+    GuildMemberJoinEvent rejoinEvent(int guildIndex, int userRank) {
+        var guild = guild(guildIndex);
+        return new GuildMemberJoinEvent(jda, responseNumber.incrementAndGet(), member(guild, userID(guildIndex, userRank)));
+    }
+
+    private List<Member> members(Guild guild, Object[] args) {
+        List<Member> result = new ArrayList<>();
+        for (var arg : args) {
+            if (arg instanceof Collection<?> userIDs) {
+                userIDs.forEach(userID -> result.add(member(guild, toLong(userID))));
+            } else if (arg instanceof long[] userIDs) {
+                for (long userID : userIDs) result.add(member(guild, userID));
+            }
+        }
+        return result;
+    }
+
+    private static long toLong(Object id) {
+        return id instanceof String string ? Long.parseLong(string) : (Long) id;
+    }
+
+    private record MemberKey(long guildID, long userID) {
+    }
+}
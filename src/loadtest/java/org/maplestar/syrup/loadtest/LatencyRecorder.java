@@ -0,0 +1,57 @@
+package org.maplestar.syrup.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies of one kind of event to compute percentiles at the end of the run.
+ */
+final class LatencyRecorder {
+    private long[] latencies = new long[1024];
+    private int count;
+    private int failures;
+
+    /**
+     * Records the latency of a handled event.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    synchronized void record(long nanos) {
+        if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+        latencies[count++] = nanos;
+    }
+
+    /**
+     * Records an event whose handler threw an exception.
+     */
+    synchronized void recordFailure() {
+        failures++;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized int failures() {
+        return failures;
+    }
+
+    synchronized void reset() {
+        count = 0;
+        failures = 0;
+    }
+
+    /**
+     * Returns the latency at the percentile, using the nearest-rank method.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in milliseconds, or 0 if nothing was recorded
+     */
+    synchronized double percentileMillis(double percentile) {
+        if (count == 0) return 0;
+
+        var sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.clamp(rank - 1, 0, count - 1)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,340 @@
+package org.maplestar.syrup.loadtest;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import org.maplestar.syrup.commands.LeaderboardCommand;
+import org.maplestar.syrup.commands.RankCommand;
+import org.maplestar.syrup.commands.internal.CommandManager;
+import org.maplestar.syrup.config.Config;
+import org.maplestar.syrup.data.block.BlockDataManager;
+import org.maplestar.syrup.data.levelrole.LevelRoleDataManager;
+import org.maplestar.syrup.data.rank.LevelData;
+import org.maplestar.syrup.data.rank.LevelDataManager;
+import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.data.xpblock.XPBlockDataManager;
+import org.maplestar.syrup.data.xppolicy.XPPolicyDataManager;
+import org.maplestar.syrup.executors.RankPrerenderExecutor;
+import org.maplestar.syrup.executors.RoleSyncExecutor;
+import org.maplestar.syrup.listener.ExpGainListener;
+import org.maplestar.syrup.listener.GuildMemberJoinListener;
+import org.maplestar.syrup.listener.LevelChangeListener;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQualityController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Load test that replays synthetic message, slash command and join traffic against the bot's listeners.
+ * <p>
+ * Discord is replaced by stubs (see {@link FakeDiscord}), while the database is real, e.g. the one from compose-dev.yml.
+ * Events are generated at fixed rates, independent of how fast they're handled, and their latency is measured from
+ * the time they were due, so queueing delays on the simulated shards are included.
+ * For slash commands, the latency lasts until the reply is sent.
+ * <p>
+ * Run it via "gradle loadTest --args='--guilds=50 --message-rate=500'", see {@link LoadTestOptions#USAGE}.
+ */
+public final class LoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+    private static final long TICK_MILLIS = 10;
+    private static final List<Integer> LEVEL_ROLE_LEVELS = List.of(1, 5, 10, 20, 30, 40, 50, 75, 100, 150);
+    private static final String MESSAGE = "message";
+    private static final String JOIN = "join";
+    private static final List<String> COMMANDS = List.of("rank", "rank", "rank", "leaderboard");
+    private static final BufferedImage AVATAR = createImage(256, 256, new Color(240, 170, 90), new Color(90, 60, 160));
+    private static final BufferedImage GUILD_ICON = createImage(256, 256, new Color(60, 180, 200), new Color(250, 240, 230));
+
+    private final LoadTestOptions options;
+    private final CountingDatabaseManager databaseManager;
+    private final FakeDiscord discord;
+    private final ZipfSampler guildSampler;
+    private final ZipfSampler userSampler;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ExecutorService[] shardThreads;
+    private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+    private final CommandManager commandManager;
+    private final EventListener expGainListener;
+    private final EventListener joinListener;
+    private volatile boolean measuring;
+
+    private LoadTest(LoadTestOptions options) {
+        this.options = options;
+        this.databaseManager = new CountingDatabaseManager(Config.load(options.envFile()));
+        this.discord = new FakeDiscord(options.usersPerGuild());
+        this.guildSampler = new ZipfSampler(options.guilds(), options.guildSkew());
+        this.userSampler = new ZipfSampler(options.usersPerGuild(), options.userSkew());
+
+        this.shardThreads = new ExecutorService[options.shards()];
+        for (int i = 0; i < shardThreads.length; i++) {
+            shardThreads[i] = Executors.newSingleThreadExecutor();
+        }
+        for (var kind : List.of(MESSAGE, "/rank", "/leaderboard", JOIN)) {
+            recorders.put(kind, new LatencyRecorder());
+        }
+
+        // same wiring as Main, minus the parts that need a gateway connection
+        var levelDataManager = new LevelDataManager(databaseManager);
+        var levelRoleDataManager = new LevelRoleDataManager(databaseManager);
+        var guildSettingsManager = new GuildSettingsManager(databaseManager);
+        var roleSyncExecutor = new RoleSyncExecutor(levelRoleDataManager, guildSettingsManager);
+        var leaderboardCache = levelDataManager.leaderboardCache();
+        var renderQualityController = new RenderQualityController();
+        var rankPrerenderExecutor = new RankPrerenderExecutor(levelDataManager, guildSettingsManager, leaderboardCache, renderQualityController);
+        var levelChangeListener = new LevelChangeListener(roleSyncExecutor, rankPrerenderExecutor);
+
+        this.commandManager = new CommandManager();
+        commandManager.registerCommand(new RankCommand(levelDataManager, guildSettingsManager, renderQualityController,
+                rankPrerenderExecutor));
+        commandManager.registerCommand(new LeaderboardCommand(levelDataManager, guildSettingsManager, leaderboardCache, renderQualityController));
+        this.expGainListener = new ExpGainListener(levelDataManager, new BlockDataManager(databaseManager),
+                new XPBlockDataManager(databaseManager), new XPPolicyDataManager(databaseManager), levelChangeListener);
+        this.joinListener = new GuildMemberJoinListener(guildSettingsManager, levelDataManager, roleSyncExecutor);
+
+        ImageUtils.setImageSource(url -> url.contains("/icons/") ? GUILD_ICON : AVATAR);
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args the options, see {@link LoadTestOptions#USAGE}
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        var loadTest = new LoadTest(options);
+        loadTest.seed();
+        loadTest.run();
+        System.exit(0);
+    }
+
+    /**
+     * Replaces the data of previous runs with settings, level roles and ranks matching the user distribution.
+     */
+    private void seed() throws SQLException {
+        logger.info("Seeding {} guilds with {} users each", options.guilds(), options.usersPerGuild());
+
+        try (var connection = databaseManager.getConnection()) {
+            for (var table : List.of("Ranks", "GuildSettings", "LevelRoles", "BlockedChannels", "BlockedUsers")) {
+                try (var statement = connection.prepareStatement("DELETE FROM " + table + " WHERE guild_id >= 0 AND guild_id < ?")) {
+                    statement.setLong(1, FakeDiscord.ID_LIMIT);
+                    statement.executeUpdate();
+                }
+            }
+
+            try (var settings = connection.prepareStatement("INSERT INTO GuildSettings (guild_id, remove_old_roles, add_on_join, leaderboard_staleness_seconds) VALUES (?, true, true, ?)");
+                 var levelRoles = connection.prepareStatement("INSERT INTO LevelRoles (guild_id, role_id, level) VALUES (?, ?, ?)");
+                 var ranks = connection.prepareStatement("INSERT INTO Ranks (guild_id, user_id, level, xp) VALUES (?, ?, ?, ?)")) {
+                for (int guildIndex = 0; guildIndex < options.guilds(); guildIndex++) {
+                    long guildID = FakeDiscord.guildID(guildIndex);
+                    settings.setLong(1, guildID);
+                    settings.setLong(2, options.leaderboardStaleness().toSeconds());
+                    settings.addBatch();
+
+                    for (int i = 0; i < LEVEL_ROLE_LEVELS.size(); i++) {
+                        levelRoles.setLong(1, guildID);
+                        levelRoles.setLong(2, FakeDiscord.ROLE_ID_BASE + (long) guildIndex * LEVEL_ROLE_LEVELS.size() + i);
+                        levelRoles.setInt(3, LEVEL_ROLE_LEVELS.get(i));
+                        levelRoles.addBatch();
+                    }
+
+                    // the guild's history: 50 messages per user on average, 23 XP each, distributed like the live traffic
+                    long historicMessages = 50L * options.usersPerGuild();
+                    for (int userRank = 0; userRank < options.usersPerGuild(); userRank++) {
+                        long xp = Math.round(historicMessages * userSampler.probability(userRank)) * 23;
+                        if (xp == 0) continue;
+
+                        var levelData = LevelData.ZERO.setXP(xp);
+                        ranks.setLong(1, guildID);
+                        ranks.setLong(2, discord.userID(guildIndex, userRank));
+                        ranks.setInt(3, levelData.level());
+                        ranks.setLong(4, levelData.xp());
+                        ranks.addBatch();
+                    }
+                    ranks.executeBatch();
+                }
+                settings.executeBatch();
+                levelRoles.executeBatch();
+            }
+        }
+    }
+
+    private void run() throws InterruptedException {
+        var generator = Executors.newSingleThreadScheduledExecutor();
+        var credits = new double[3];
+        generator.scheduleAtFixedRate(() -> generateTick(credits), 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        logger.info("Warming up for {} seconds", options.warmup().toSeconds());
+        Thread.sleep(options.warmup().toMillis());
+        waitForStatistics();
+
+        recorders.values().forEach(LatencyRecorder::reset);
+        databaseManager.resetCounts();
+        long transactionsBefore = readTransactionCount();
+        measuring = true;
+        long start = System.nanoTime();
+
+        logger.info("Measuring for {} seconds", options.duration().toSeconds());
+        Thread.sleep(options.duration().toMillis());
+        generator.shutdown();
+        generator.awaitTermination(1, TimeUnit.SECONDS);
+
+        // let the shards handle what's left, so events aren't cut off by the end of the run
+        for (var shardThread : shardThreads) {
+            shardThread.shutdown();
+        }
+        for (var shardThread : shardThreads) {
+            shardThread.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        waitForStatistics();
+        long transactions = readTransactionCount() - transactionsBefore;
+        report(seconds, transactions);
+    }
+
+    /**
+     * Generates the events that are due in this tick. Fractional events are carried over to the next tick.
+     *
+     * @param credits the events owed per stream: messages, commands and joins
+     */
+    private void generateTick(double[] credits) {
+        double tickSeconds = TICK_MILLIS / 1000.0;
+        credits[0] += options.messageRate() * tickSeconds;
+        credits[1] += options.commandRate() * tickSeconds;
+        credits[2] += options.joinRate() * tickSeconds;
+        long due = System.nanoTime();
+
+        for (; credits[0] >= 1; credits[0]--) {
+            int guildIndex = guildSampler.sample(random);
+            var event = discord.messageEvent(guildIndex, userSampler.sample(random), random.nextInt(FakeDiscord.CHANNELS_PER_GUILD));
+            dispatch(guildIndex, MESSAGE, due, () -> expGainListener.onEvent(event), true);
+        }
+
+        for (; credits[1] >= 1; credits[1]--) {
+            int guildIndex = guildSampler.sample(random);
+            var commandName = COMMANDS.get(random.nextInt(COMMANDS.size()));
+            var recorder = recorders.get("/" + commandName);
+            var replied = new AtomicBoolean();
+            GenericEvent event = discord.slashCommandEvent(guildIndex, userSampler.sample(random), commandName, () -> {
+                if (replied.compareAndSet(false, true) && measuring) recorder.record(System.nanoTime() - due);
+            });
+            dispatch(guildIndex, "/" + commandName, due, () -> commandManager.onEvent(event), false);
+        }
+
+        for (; credits[2] >= 1; credits[2]--) {
+            int guildIndex = guildSampler.sample(random);
+            GenericEvent event = random.nextBoolean()
+                    ? discord.joinEvent(guildIndex)
+                    : discord.rejoinEvent(guildIndex, userSampler.sample(random));
+            dispatch(guildIndex, JOIN, due, () -> joinListener.onEvent(event), true);
+        }
+    }
+
+    /**
+     * Handles the event on the thread of the guild's shard.
+     *
+     * @param guildIndex the guild
+     * @param kind the kind of event, for the statistics
+     * @param due the time the event was generated
+     * @param handler calls the listener
+     * @param recordLatency whether the latency ends when the listener returns, otherwise the handler records it itself
+     */
+    private void dispatch(int guildIndex, String kind, long due, Runnable handler, boolean recordLatency) {
+        var recorder = recorders.get(kind);
+        int shard = (int) ((FakeDiscord.guildID(guildIndex) >> 22) % shardThreads.length);
+        shardThreads[shard].execute(() -> {
+            databaseManager.beginEvent(kind);
+            try {
+                handler.run();
+                if (recordLatency && measuring) recorder.record(System.nanoTime() - due);
+            } catch (RuntimeException exception) {
+                if (measuring) recorder.recordFailure();
+                logger.warn("Handler for {} failed", kind, exception);
+            } finally {
+                databaseManager.endEvent();
+            }
+        });
+    }
+
+    /**
+     * Waits until idle connections have published their statistics, which postgres only does every few seconds.
+     */
+    private void waitForStatistics() throws InterruptedException {
+        Thread.sleep(options.statsDelay().toMillis());
+    }
+
+    /**
+     * Reads the number of finished transactions in the database. Every statement outside an explicit transaction counts as one.
+     *
+     * @return the number of transactions, or -1 on failure
+     */
+    private long readTransactionCount() {
+        databaseManager.beginEvent("statistics");
+        try (var connection = databaseManager.getConnection();
+             var statement = connection.prepareStatement("SELECT xact_commit + xact_rollback FROM pg_stat_database WHERE datname = current_database()")) {
+            var resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        } catch (SQLException exception) {
+            logger.warn("Couldn't read database statistics", exception);
+            return -1;
+        } finally {
+            databaseManager.endEvent();
+        }
+    }
+
+    private void report(double seconds, long transactions) {
+        var out = System.out;
+        out.printf("%nLoad test: %d guilds, %d users per guild (skew %.2f), %d shards, %.1f s measured%n",
+                options.guilds(), options.usersPerGuild(), options.userSkew(), options.shards(), seconds);
+        out.printf("Offered: %.1f messages/s, %.1f commands/s, %.1f joins/s%n%n",
+                options.messageRate(), options.commandRate(), options.joinRate());
+        out.printf("%-14s %9s %8s %12s %10s %10s %10s %12s%n", "event", "handled", "failed", "throughput/s", "p50 ms", "p99 ms", "max ms", "queries/evt");
+
+        long totalHandled = 0;
+        for (var entry : recorders.entrySet()) {
+            var recorder = entry.getValue();
+            int handled = recorder.count();
+            totalHandled += handled;
+            long queries = databaseManager.getStatementCount(entry.getKey());
+            out.printf("%-14s %9d %8d %12.1f %10.2f %10.2f %10.2f %12s%n",
+                    entry.getKey(), handled, recorder.failures(), handled / seconds,
+                    recorder.percentileMillis(50), recorder.percentileMillis(99), recorder.percentileMillis(100),
+                    handled == 0 ? "-" : String.format("%.2f", queries / (double) handled));
+        }
+
+        out.printf("%nQueries outside of the shard threads (executors, /leaderboard): %d%n",
+                databaseManager.getStatementCount(CountingDatabaseManager.BACKGROUND));
+        if (transactions >= 0 && totalHandled > 0) {
+            out.printf("Postgres transactions: %d (%.2f per handled event, includes background work)%n",
+                    transactions, transactions / (double) totalHandled);
+        }
+    }
+
+    private static BufferedImage createImage(int width, int height, Color from, Color to) {
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        var g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, from, width, height, to));
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        return image;
+    }
+}
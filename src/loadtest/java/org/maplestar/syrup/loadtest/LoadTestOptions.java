@@ -0,0 +1,82 @@
+package org.maplestar.syrup.loadtest;
+
+import java.time.Duration;
+
+/**
+ * The settings of a load test run, passed as "--name=value" arguments.
+ *
+ * @param guilds the number of guilds
+ * @param usersPerGuild the number of users per guild
+ * @param userSkew the Zipf exponent of chat activity within a guild
+ * @param guildSkew the Zipf exponent of activity across guilds
+ * @param messageRate the messages per second
+ * @param commandRate the slash commands per second, split between /rank and /leaderboard
+ * @param joinRate the member joins per second, half of them returning members
+ * @param shards the number of simulated shards, each dispatching its events on a single thread like JDA
+ * @param leaderboardStaleness the leaderboard staleness of all guilds, zero to query the leaderboard directly
+ * @param warmup the time before measuring
+ * @param duration the measured time
+ * @param statsDelay the time to wait for postgres to publish its statistics
+ * @param envFile the file with the database config, see {@link org.maplestar.syrup.config.Config}
+ */
+record LoadTestOptions(int guilds, int usersPerGuild, double userSkew, double guildSkew,
+                       double messageRate, double commandRate, double joinRate, int shards,
+                       Duration leaderboardStaleness, Duration warmup, Duration duration, Duration statsDelay, String envFile) {
+    static final String USAGE = """
+            Options (all optional):
+              --guilds=20            number of guilds
+              --users=2000           users per guild
+              --user-skew=1.1        Zipf exponent of chat activity within a guild
+              --guild-skew=0.8       Zipf exponent of activity across guilds
+              --message-rate=200     messages per second
+              --command-rate=2       slash commands per second
+              --join-rate=1          member joins per second
+              --shards=1             simulated shards (event dispatch threads)
+              --leaderboard-staleness=0  seconds the leaderboard may be outdated, 0 to query it directly
+              --warmup=10            seconds before measuring
+              --duration=60          measured seconds
+              --stats-delay=11       seconds to wait for postgres statistics
+              --env=.env.loadtest    database config file
+            """;
+
+    /**
+     * Parses the command line arguments.
+     *
+     * @param args the arguments
+     * @return the options
+     * @throws IllegalArgumentException if an argument is unknown or malformed
+     */
+    static LoadTestOptions parse(String[] args) {
+        int guilds = 20, usersPerGuild = 2000, shards = 1;
+        double userSkew = 1.1, guildSkew = 0.8, messageRate = 200, commandRate = 2, joinRate = 1;
+        long leaderboardStaleness = 0, warmup = 10, duration = 60, statsDelay = 11;
+        String envFile = ".env.loadtest";
+
+        for (var arg : args) {
+            var parts = arg.split("=", 2);
+            if (parts.length != 2 || !parts[0].startsWith("--")) throw new IllegalArgumentException("Malformed argument " + arg);
+
+            var value = parts[1];
+            switch (parts[0]) {
+                case "--guilds" -> guilds = Integer.parseInt(value);
+                case "--users" -> usersPerGuild = Integer.parseInt(value);
+                case "--user-skew" -> userSkew = Double.parseDouble(value);
+                case "--guild-skew" -> guildSkew = Double.parseDouble(value);
+                case "--message-rate" -> messageRate = Double.parseDouble(value);
+                case "--command-rate" -> commandRate = Double.parseDouble(value);
+                case "--join-rate" -> joinRate = Double.parseDouble(value);
+                case "--shards" -> shards = Integer.parseInt(value);
+                case "--leaderboard-staleness" -> leaderboardStaleness = Long.parseLong(value);
+                case "--warmup" -> warmup = Long.parseLong(value);
+                case "--duration" -> duration = Long.parseLong(value);
+                case "--stats-delay" -> statsDelay = Long.parseLong(value);
+                case "--env" -> envFile = value;
+                default -> throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        if (guilds < 1 || usersPerGuild < 1 || shards < 1) throw new IllegalArgumentException("Guilds, users and shards must be positive");
+        return new LoadTestOptions(guilds, usersPerGuild, userSkew, guildSkew, messageRate, commandRate, joinRate, shards,
+                Duration.ofSeconds(leaderboardStaleness), Duration.ofSeconds(warmup), Duration.ofSeconds(duration), Duration.ofSeconds(statsDelay), envFile);
+    }
+}
@@ -0,0 +1,128 @@
+package org.maplestar.syrup.loadtest;
+
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.utils.concurrent.Task;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Creates stub implementations of JDA's interfaces via {@link Proxy}, so the listeners can be driven without Discord.
+ * <p>
+ * Methods are answered by name. Unanswered default methods run their actual implementation,
+ * builder-style methods return the stub itself, REST actions complete immediately without a value,
+ * and everything else returns null, 0 or false.
+ */
+final class Stubs {
+    private Stubs() {
+    }
+
+    /**
+     * Creates a stub.
+     *
+     * @param type the main interface of the stub
+     * @param answers the answers by method name, ignoring overloads
+     * @param extraInterfaces additional interfaces the stub should implement, e.g. for casts JDA performs internally
+     * @return the stub
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Map<String, InvocationHandler> answers, Class<?>... extraInterfaces) {
+        var interfaces = new Class<?>[extraInterfaces.length + 1];
+        interfaces[0] = type;
+        System.arraycopy(extraInterfaces, 0, interfaces, 1, extraInterfaces.length);
+
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), interfaces, (proxy, method, args) -> {
+            var answer = answers.get(method.getName());
+            if (answer != null) return answer.invoke(proxy, method, args);
+
+            return switch (method.getName()) {
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "toString" -> type.getSimpleName() + "Stub";
+                default -> fallback(proxy, method, args);
+            };
+        });
+    }
+
+    /**
+     * Creates a REST action that completes immediately with the value.
+     *
+     * @param type the type of REST action, e.g. {@link net.dv8tion.jda.api.requests.restaction.CacheRestAction}
+     * @param value the value the action completes with
+     * @return the stub
+     */
+    static <T extends RestAction<?>> T restAction(Class<T> type, Object value) {
+        return restAction(type, value, () -> {});
+    }
+
+    /**
+     * Creates a REST action that completes immediately with the value and runs a callback once executed.
+     *
+     * @param type the type of REST action
+     * @param value the value the action completes with
+     * @param onExecute called when the action is queued, completed or submitted
+     * @return the stub
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends RestAction<?>> T restAction(Class<T> type, Object value, Runnable onExecute) {
+        Map<String, InvocationHandler> answers = new HashMap<>();
+        answers.put("queue", (proxy, method, args) -> {
+            onExecute.run();
+            if (args != null && args.length > 0 && args[0] != null) ((Consumer<Object>) args[0]).accept(value);
+            return null;
+        });
+        answers.put("complete", (proxy, method, args) -> {
+            onExecute.run();
+            return value;
+        });
+        answers.put("submit", (proxy, method, args) -> {
+            onExecute.run();
+            return CompletableFuture.completedFuture(value);
+        });
+        return stub(type, answers);
+    }
+
+    /**
+     * Creates a task that has already completed with the value.
+     *
+     * @param value the value
+     * @return the stub
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Task<T> task(T value) {
+        Map<String, InvocationHandler> answers = new HashMap<>();
+        answers.put("get", (proxy, method, args) -> value);
+        answers.put("isStarted", (proxy, method, args) -> true);
+        answers.put("onSuccess", (proxy, method, args) -> {
+            ((Consumer<Object>) args[0]).accept(value);
+            return proxy;
+        });
+        answers.put("onError", (proxy, method, args) -> proxy);
+        return stub(Task.class, answers);
+    }
+
+    private static Object fallback(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.isDefault()) return InvocationHandler.invokeDefault(proxy, method, args);
+
+        var returnType = method.getReturnType();
+        if (returnType != Object.class && returnType.isInstance(proxy)) return proxy;
+        if (RestAction.class.isAssignableFrom(returnType)) {
+            return restAction(returnType.asSubclass(RestAction.class), null);
+        }
+
+        if (returnType == boolean.class) return false;
+        if (returnType == long.class) return 0L;
+        if (returnType == int.class) return 0;
+        if (returnType == double.class) return 0.0;
+        if (returnType == float.class) return 0.0f;
+        if (returnType == short.class) return (short) 0;
+        if (returnType == byte.class) return (byte) 0;
+        if (returnType == char.class) return '\0';
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+package org.maplestar.syrup.loadtest;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Samples ranks 0 (most frequent) to n - 1 from a Zipf distribution, where rank k is chosen with a probability proportional to 1 / (k + 1)^s.
+ * Models chat activity, where a few users write most of the messages.
+ */
+final class ZipfSampler {
+    private final double[] cumulativeProbabilities;
+
+    /**
+     * Initializes the sampler.
+     *
+     * @param n the number of ranks
+     * @param exponent the skew, 0 is uniform and higher values concentrate on the first ranks
+     */
+    ZipfSampler(int n, double exponent) {
+        cumulativeProbabilities = new double[n];
+
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulativeProbabilities[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulativeProbabilities[k] /= sum;
+        }
+    }
+
+    /**
+     * Returns the probability of the rank.
+     *
+     * @param rank the rank
+     * @return the probability
+     */
+    double probability(int rank) {
+        return cumulativeProbabilities[rank] - (rank == 0 ? 0 : cumulativeProbabilities[rank - 1]);
+    }
+
+    /**
+     * Samples a rank.
+     *
+     * @param random the random number generator
+     * @return the rank, between 0 and n - 1
+     */
+    int sample(RandomGenerator random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        if (index < 0) index = -index - 1;
+        return Math.min(index, cumulativeProbabilities.length - 1);
+    }
+}
@@ -1,8 +1,10 @@
 package org.maplestar.syrup;
 
-import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
 import org.maplestar.syrup.commands.*;
 import org.maplestar.syrup.commands.internal.CommandManager;
 import org.maplestar.syrup.config.Config;
@@ -10,19 +12,32 @@ import org.maplestar.syrup.data.DatabaseManager;
 import org.maplestar.syrup.data.block.BlockDataManager;
 import org.maplestar.syrup.data.levelrole.LevelRoleDataManager;
 import org.maplestar.syrup.data.migration.TakaMigrator;
+import org.maplestar.syrup.data.rank.LeaderboardCache;
 import org.maplestar.syrup.data.rank.LevelDataManager;
 import org.maplestar.syrup.data.reminder.ReminderDataManager;
+import org.maplestar.syrup.data.resync.ResyncJobDataManager;
 import org.maplestar.syrup.data.settings.GuildSettingsManager;
 import org.maplestar.syrup.data.xpblock.XPBlockDataManager;
+import org.maplestar.syrup.data.xppolicy.XPPolicyDataManager;
+import org.maplestar.syrup.executors.RankPrerenderExecutor;
 import org.maplestar.syrup.executors.ReminderExecutor;
+import org.maplestar.syrup.executors.RoleResyncExecutor;
+import org.maplestar.syrup.executors.RoleSyncExecutor;
+import org.maplestar.syrup.jfr.FlightRecording;
 import org.maplestar.syrup.listener.ExpGainListener;
 import org.maplestar.syrup.listener.GuildMemberJoinListener;
 import org.maplestar.syrup.listener.LevelChangeListener;
+import org.maplestar.syrup.metrics.Metrics;
+import org.maplestar.syrup.metrics.MetricsServer;
+import org.maplestar.syrup.render.RenderWorkerPool;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQualityController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The entry point of the app.
@@ -30,12 +45,17 @@ import java.io.IOException;
 public class Main {
     private final static Logger logger = LoggerFactory.getLogger(Main.class);
     private static LevelDataManager levelDataManager;
+    private static LeaderboardCache leaderboardCache;
+    private static RenderQualityController renderQualityController;
+    private static RankPrerenderExecutor rankPrerenderExecutor;
     private static BlockDataManager blockDataManager;
     private static XPBlockDataManager xpBlockDataManager;
+    private static XPPolicyDataManager xpPolicyDataManager;
     private static LevelRoleDataManager levelRoleDataManager;
     private static GuildSettingsManager guildSettingsManager;
     private static LevelChangeListener levelChangeListener;
     private static ReminderDataManager reminderDataManager;
+    private static RoleResyncExecutor roleResyncExecutor;
 
     /**
      * The entry point of the app.
@@ -46,37 +66,67 @@ public class Main {
         loadFonts();
 
         var config = Config.load();
+        if (config.flightRecording()) {
+            FlightRecording.start(config.flightRecordingMaxAge(), config.flightRecordingMaxSize(), config.flightRecordingDirectory());
+        }
+
+        ImageUtils.setImageSource(config.assetFetcher());
+        ImageUtils.setPngEncoder(config.pngEncoder());
+        ImageUtils.setRenderPool(new ForkJoinPool(config.renderThreads()));
+        if (config.renderWorkers() > 0) {
+            var renderWorkerPool = new RenderWorkerPool(config.renderWorkers(),
+                    Math.max(1, config.renderThreads() / config.renderWorkers()), config.renderWorkerHeap());
+            ImageUtils.setRenderWorkers(renderWorkerPool);
+            Runtime.getRuntime().addShutdownHook(new Thread(renderWorkerPool::close));
+        }
+
+        var shardRange = config.shardRange();
+        logger.info("Running shards {}", shardRange);
 
         var databaseManager = new DatabaseManager(config);
-        TakaMigrator.migrateTakaFiles(databaseManager);
+        databaseManager.runWithAdvisoryLock(DatabaseManager.MIGRATION_LOCK, () -> TakaMigrator.migrateTakaFiles(databaseManager));
 
         levelDataManager = new LevelDataManager(databaseManager);
+        leaderboardCache = levelDataManager.leaderboardCache();
+        renderQualityController = new RenderQualityController();
         blockDataManager = new BlockDataManager(databaseManager);
         xpBlockDataManager = new XPBlockDataManager(databaseManager);
+        xpPolicyDataManager = new XPPolicyDataManager(databaseManager);
         levelRoleDataManager = new LevelRoleDataManager(databaseManager);
         guildSettingsManager = new GuildSettingsManager(databaseManager);
-        reminderDataManager = new ReminderDataManager(databaseManager);
-        levelChangeListener = new LevelChangeListener(levelRoleDataManager, guildSettingsManager);
+        reminderDataManager = new ReminderDataManager(databaseManager, shardRange);
+        var roleSyncExecutor = new RoleSyncExecutor(levelRoleDataManager, guildSettingsManager);
+        rankPrerenderExecutor = new RankPrerenderExecutor(levelDataManager, guildSettingsManager, leaderboardCache, renderQualityController);
+        levelChangeListener = new LevelChangeListener(roleSyncExecutor, rankPrerenderExecutor);
+        roleResyncExecutor = new RoleResyncExecutor(shardRange, levelDataManager, new ResyncJobDataManager(databaseManager), roleSyncExecutor);
         var commandManager = registerCommands();
 
-        var jda = JDABuilder.createDefault(config.botToken())
+        var shardManager = DefaultShardManagerBuilder.createDefault(config.botToken())
                 .enableIntents(GatewayIntent.GUILD_MESSAGES, GatewayIntent.GUILD_MEMBERS)
                 .setActivity(Activity.playing("NewWorld Online"))
+                .setShardsTotal(shardRange.total())
+                .setShards(shardRange.first(), shardRange.last())
                 .addEventListeners(
                         commandManager,
-                        new ExpGainListener(levelDataManager, blockDataManager, xpBlockDataManager, levelChangeListener),
-                        new GuildMemberJoinListener(guildSettingsManager, levelDataManager, levelChangeListener, levelRoleDataManager)
+                        new ExpGainListener(levelDataManager, blockDataManager, xpBlockDataManager, xpPolicyDataManager, levelChangeListener),
+                        new GuildMemberJoinListener(guildSettingsManager, levelDataManager, roleSyncExecutor)
                 )
                 .build();
 
-        jda.updateCommands()
-                .addCommands(commandManager.getCommandData())
-                .queue();
-
         Runtime.getRuntime().addShutdownHook(new Thread(databaseManager::closeDataSource));
+        startMetricsServer(config.metricsPort(), shardManager);
 
-        var reminderExecutor = new ReminderExecutor(jda, reminderDataManager);
+        var reminderExecutor = new ReminderExecutor(shardManager, shardRange, reminderDataManager);
         reminderExecutor.init();
+        roleResyncExecutor.init(shardManager);
+
+        // global commands only need to be updated once, by the process owning shard 0
+        JDA firstShard = shardManager.getShardById(0);
+        if (firstShard != null) {
+            firstShard.updateCommands()
+                    .addCommands(commandManager.getCommandData())
+                    .queue();
+        }
 
         logger.info("hi!!");
     }
@@ -91,20 +141,42 @@ public class Main {
         commandManager.registerCommand(new EditRankCommand(levelDataManager, levelChangeListener));
         commandManager.registerCommand(new DownloadCommand(levelDataManager));
         commandManager.registerCommand(new UploadCommand(levelDataManager));
-        commandManager.registerCommand(new LeaderboardCommand(levelDataManager));
-        commandManager.registerCommand(new LevelRoleCommand(levelRoleDataManager, guildSettingsManager));
-        commandManager.registerCommand(new RankCommand(levelDataManager));
+        commandManager.registerCommand(new LeaderboardCommand(levelDataManager, guildSettingsManager, leaderboardCache, renderQualityController));
+        commandManager.registerCommand(new LeaderboardSettingsCommand(guildSettingsManager));
+        commandManager.registerCommand(new LevelRoleCommand(levelRoleDataManager, guildSettingsManager, roleResyncExecutor));
+        commandManager.registerCommand(new RankCommand(levelDataManager, guildSettingsManager, renderQualityController, rankPrerenderExecutor));
         commandManager.registerCommand(new ReminderCommand(reminderDataManager));
         commandManager.registerCommand(new RemindMeCommand(reminderDataManager));
         commandManager.registerCommand(new XPBlockChannelCommand(blockDataManager));
         commandManager.registerCommand(new XPBlockUserCommand(xpBlockDataManager));
+        commandManager.registerCommand(new XPPolicyCommand(xpPolicyDataManager));
         return commandManager;
     }
 
+    /**
+     * Starts serving the metrics for Prometheus, if a port is configured.
+     *
+     * @param port the port, or -1 to not serve metrics
+     * @param shardManager the shard manager, to provide the gateway ping
+     */
+    private static void startMetricsServer(int port, ShardManager shardManager) {
+        Metrics.gauge("syrup_gateway_ping_seconds", "Average heartbeat ping of the connected shards")
+                .set(() -> shardManager.getAverageGatewayPing() / 1000.0);
+        if (port < 0) return;
+
+        try {
+            var metricsServer = MetricsServer.start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::stop));
+        } catch (IOException exception) {
+            logger.warn("Couldn't start metrics server on port {}", port, exception);
+        }
+    }
+
     /**
      * Loads the fonts required to draw this bot's images from the application's resources.
+     * Is also called by the render workers, which run in their own process.
      */
-    private static void loadFonts() {
+    public static void loadFonts() {
         loadFont("/fonts/KiwiMaru-Regular.ttf");
     }
 
@@ -63,7 +63,7 @@ public class DownloadCommand extends AbstractCommand {
      * @param guild the guild the command was ran in
      */
     public void leaderboard(SlashCommandInteractionEvent event, Guild guild) {
-        var data = levelDataManager.getEntireLeaderboard(guild);
+        var data = levelDataManager.getLeaderboardSnapshot(guild);
         var csvData = LeaderboardDataToCSVUtils.createCSVFileFromData(data);
         if (csvData.length == 0) {
             event.getHook().editOriginalEmbeds(EmbedMessage.error("There is no data for this guild")).queue();
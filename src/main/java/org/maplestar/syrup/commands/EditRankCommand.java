@@ -69,21 +69,11 @@ public class EditRankCommand extends AbstractCommand {
             return;
         }
 
-        var oldLevelData = levelDataManager.getLevelData(user, event.getGuild());
-        LevelData newLevelData = null;
-
-        if (type == RankCommandType.XP) {
-            newLevelData = oldLevelData.setXP(value);
-        } else if (type == RankCommandType.LEVEL) {
-            newLevelData = oldLevelData.setLevel(value);
-        }
-
-        if (newLevelData.level() >= 420) {
-            newLevelData = LevelData.MAX;
-        }
-
-        var success = levelDataManager.setLevelData(user, event.getGuild(), newLevelData);
-        if (!success) {
+        var update = levelDataManager.updateLevelData(user, event.getGuild(), oldLevelData -> switch (type) {
+            case XP -> oldLevelData.setXP(value);
+            case LEVEL -> oldLevelData.setLevel(value);
+        });
+        if (update.isEmpty()) {
             event.getHook().editOriginalEmbeds(EmbedMessage.error("""
                     Oops! Failed to edit the user's rank.
                     
@@ -92,7 +82,9 @@ public class EditRankCommand extends AbstractCommand {
             return;
         }
 
-        if (newLevelData.level() != oldLevelData.level()) {
+        var oldLevelData = update.get().oldLevelData();
+        var newLevelData = update.get().newLevelData();
+        if (update.get().levelChanged()) {
             levelChangeListener.onLevelChange(new LevelChangeEvent(event.getGuild(), user, oldLevelData, newLevelData));
         }
 
@@ -1,5 +1,8 @@
 package org.maplestar.syrup.commands;
 
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.InteractionContextType;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
@@ -8,12 +11,19 @@ import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import net.dv8tion.jda.api.utils.AttachedFile;
 import org.maplestar.syrup.commands.internal.AbstractCommand;
+import org.maplestar.syrup.data.rank.LeaderboardCache;
 import org.maplestar.syrup.data.rank.LevelDataManager;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.utils.EmbedColors;
 import org.maplestar.syrup.utils.EmbedMessage;
 import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQuality;
+import org.maplestar.syrup.utils.RenderQualityController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -23,17 +33,27 @@ import java.util.concurrent.Executors;
 public class LeaderboardCommand extends AbstractCommand {
     private final Logger logger = LoggerFactory.getLogger(LeaderboardCommand.class);
     private final LevelDataManager levelDataManager;
+    private final GuildSettingsManager guildSettingsManager;
+    private final LeaderboardCache leaderboardCache;
+    private final RenderQualityController renderQualityController;
     private final ExecutorService executorService;
 
     /**
      * Initializes the command
      *
      * @param levelDataManager the level data manager
+     * @param guildSettingsManager the guild settings manager, to check whether the leaderboard may be cached
+     * @param leaderboardCache the leaderboard cache
+     * @param renderQualityController the render quality controller, which decides how much effort goes into the image
      */
-    public LeaderboardCommand(LevelDataManager levelDataManager) {
+    public LeaderboardCommand(LevelDataManager levelDataManager, GuildSettingsManager guildSettingsManager, LeaderboardCache leaderboardCache,
+                              RenderQualityController renderQualityController) {
         super("leaderboard");
 
         this.levelDataManager = levelDataManager;
+        this.guildSettingsManager = guildSettingsManager;
+        this.leaderboardCache = leaderboardCache;
+        this.renderQualityController = renderQualityController;
         this.executorService = Executors.newSingleThreadExecutor();
     }
 
@@ -50,6 +70,9 @@ public class LeaderboardCommand extends AbstractCommand {
      * Displays at most 10 users' ranking information on the requested page (default: 1) for the current guild.
      * If the page exceeds the minimum, it will default to 1.
      * If the page exceeds the maximum, it will default to the maximum page.
+     * <p>
+     * Uses the cached leaderboard if the guild allows it to be outdated, see {@link LeaderboardCache}.
+     * While rendering is overloaded, the page is sent as an embed instead, see {@link RenderQualityController}.
      *
      * @param event the command event
      */
@@ -57,31 +80,90 @@ public class LeaderboardCommand extends AbstractCommand {
     public void execute(SlashCommandInteractionEvent event) {
         event.deferReply().queue();
 
+        // the render starts before it's queued, so the queue counts towards the load
+        var render = renderQualityController.begin(event.getGuild().getIdLong());
         executorService.submit(() -> {
-            int page = event.getOption("page", 1, OptionMapping::getAsInt);
-            int totalPages = levelDataManager.getMaxPage(event.getGuild());
-            if (page < 1) page = 1;
-            if (page > totalPages) page = totalPages;
-
-            var guild = event.getGuild();
-            var rankedUsers = levelDataManager.getTopUsers(guild, page);
-            var userRank = levelDataManager.getRankingData(event.getUser(), guild);
-            var member = event.getMember();
-
-            try {
-                var imageBytes = ImageUtils.generateLeaderboardImage(rankedUsers, userRank, guild, page, totalPages);
-                event.getHook().editOriginalAttachments(AttachedFile.fromData(imageBytes, member.getUser().getName() + ".png")).queue();
-            } catch (Exception exception) {
-                logger.error("Couldn't attach leaderboard file", exception);
-                String desc = String.format(
-                        "You currently have **%,d** XP (Level **%d**)" + (userRank.isInvalid() ? "" : " and are in position **#%,d**"),
-                        userRank.levelData().xp(),
-                        userRank.levelData().level(),
-                        userRank.rank());
-                event.getHook().editOriginalEmbeds(
-                        EmbedMessage.error("*Something went wrong while generating the leaderboard, but here's your personal info:*\n\n" + desc)
-                ).queue();
+            try (render) {
+                sendLeaderboard(event, render);
             }
         });
     }
+
+    /**
+     * Sends the requested leaderboard page, as an image or as text depending on the quality.
+     *
+     * @param event the command event
+     * @param render the render of the leaderboard
+     */
+    private void sendLeaderboard(SlashCommandInteractionEvent event, RenderQualityController.Render render) {
+        var guild = event.getGuild();
+        var staleness = guildSettingsManager.getSettings(guild).leaderboardStaleness();
+        var snapshot = staleness.isZero() ? null : leaderboardCache.getSnapshot(guild, staleness);
+
+        int page = event.getOption("page", 1, OptionMapping::getAsInt);
+        int totalPages = snapshot != null ? snapshot.maxPage() : levelDataManager.getMaxPage(guild);
+        if (page < 1) page = 1;
+        if (page > totalPages) page = totalPages;
+
+        List<RankingData> rankedUsers;
+        RankingData userRank;
+        if (snapshot != null) {
+            rankedUsers = snapshot.page(page);
+            userRank = snapshot.getRankingData(event.getUser().getIdLong()).orElse(RankingData.zero(event.getUser()));
+        } else {
+            rankedUsers = levelDataManager.getTopUsers(guild, page);
+            userRank = levelDataManager.getRankingData(event.getUser(), guild);
+        }
+        var member = event.getMember();
+
+        var quality = render.quality();
+        if (quality == RenderQuality.TEXT) {
+            event.getHook().editOriginalEmbeds(describeLeaderboard(guild, rankedUsers, userRank, page, totalPages)).queue();
+            return;
+        }
+
+        try {
+            var imageBytes = ImageUtils.generateLeaderboardImage(rankedUsers, userRank, guild, page, totalPages, quality);
+            event.getHook().editOriginalAttachments(AttachedFile.fromData(imageBytes, member.getUser().getName() + ".png")).queue();
+        } catch (Exception exception) {
+            logger.error("Couldn't attach leaderboard file", exception);
+            String desc = String.format(
+                    "You currently have **%,d** XP (Level **%d**)" + (userRank.isInvalid() ? "" : " and are in position **#%,d**"),
+                    userRank.levelData().xp(),
+                    userRank.levelData().level(),
+                    userRank.rank());
+            event.getHook().editOriginalEmbeds(
+                    EmbedMessage.error("*Something went wrong while generating the leaderboard, but here's your personal info:*\n\n" + desc)
+            ).queue();
+        }
+    }
+
+    /**
+     * Describes the leaderboard page as text, for when there's no image.
+     * The users are mentioned instead of named, which Discord resolves without loading the members.
+     *
+     * @param guild the guild
+     * @param rankedUsers the ranked users on the page
+     * @param userRank the ranking of the user who requested the leaderboard
+     * @param page the page
+     * @param totalPages the number of pages
+     * @return the embed
+     */
+    private static MessageEmbed describeLeaderboard(Guild guild, List<RankingData> rankedUsers, RankingData userRank, int page, int totalPages) {
+        var description = new StringBuilder();
+        for (var rankingData : rankedUsers) {
+            description.append("**#%,d** <@%d> · Level **%d** (%,d XP)\n".formatted(
+                    rankingData.rank(), rankingData.userID(), rankingData.levelData().level(), rankingData.levelData().xp()));
+        }
+        if (!userRank.isInvalid()) {
+            description.append("\nYou are in position **#%,d** with **%,d** XP.".formatted(userRank.rank(), userRank.levelData().xp()));
+        }
+
+        return new EmbedBuilder()
+                .setTitle("Leaderboard for " + guild.getName())
+                .setColor(EmbedColors.primary())
+                .setDescription(description.toString())
+                .setFooter("Page " + page + " / " + totalPages)
+                .build();
+    }
 }
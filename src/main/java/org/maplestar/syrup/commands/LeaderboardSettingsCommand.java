@@ -0,0 +1,119 @@
+package org.maplestar.syrup.commands;
+
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.InteractionContextType;
+import net.dv8tion.jda.api.interactions.commands.DefaultMemberPermissions;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import net.dv8tion.jda.api.interactions.commands.build.SubcommandData;
+import org.maplestar.syrup.commands.internal.AbstractCommand;
+import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.utils.DurationUtils;
+import org.maplestar.syrup.utils.EmbedColors;
+import org.maplestar.syrup.utils.EmbedMessage;
+
+import java.time.Duration;
+
+/**
+ * The /leaderboard-settings command for configuring the leaderboard.
+ */
+public class LeaderboardSettingsCommand extends AbstractCommand {
+    private static final Duration MAX_STALENESS = Duration.ofHours(1);
+
+    private final GuildSettingsManager guildSettingsManager;
+
+    /**
+     * Initializes the command.
+     *
+     * @param guildSettingsManager the guild settings manager
+     */
+    public LeaderboardSettingsCommand(GuildSettingsManager guildSettingsManager) {
+        super("leaderboard-settings");
+
+        this.guildSettingsManager = guildSettingsManager;
+    }
+
+    @Override
+    public SlashCommandData getSlashCommandData() {
+        return Commands.slash(name, "Configure the leaderboard")
+                .setContexts(InteractionContextType.GUILD)
+                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(Permission.ADMINISTRATOR))
+                .addSubcommands(
+                        new SubcommandData("list", "View the settings for the leaderboard"),
+                        new SubcommandData("staleness", "Allow the leaderboard to be outdated, which makes it faster for large servers")
+                                .addOption(OptionType.STRING, "duration", "How outdated it may be, e.g. 1m. Use 0s to always show the current one", true)
+                );
+    }
+
+    @Override
+    public void execute(SlashCommandInteractionEvent event) {
+        event.deferReply(true).queue();
+
+        switch (event.getSubcommandName()) {
+            case "list" -> list(event);
+            case "staleness" -> staleness(event);
+            case null, default -> throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * The /leaderboard-settings list subcommand.
+     * <p>
+     * Provides an overview over the current guild's leaderboard settings.
+     *
+     * @param event the command event
+     */
+    private void list(SlashCommandInteractionEvent event) {
+        var settings = guildSettingsManager.getSettings(event.getGuild());
+        var staleness = settings.leaderboardStaleness();
+        var embedBuilder = new EmbedBuilder()
+                .setTitle("**Leaderboard settings**")
+                .setAuthor(event.getGuild().getName(), null, event.getGuild().getIconUrl())
+                .setColor(EmbedColors.primary())
+                .addField("**__Staleness__**", staleness.isZero() ? "Always current" : "Up to " + staleness.toSeconds() + "s", true);
+
+        event.getHook().editOriginalEmbeds(embedBuilder.build()).queue();
+    }
+
+    /**
+     * The /leaderboard-settings staleness subcommand.
+     * <p>
+     * Sets how outdated the leaderboard may be, up to an hour.
+     *
+     * @param event the command event
+     */
+    private void staleness(SlashCommandInteractionEvent event) {
+        Duration staleness;
+        try {
+            staleness = DurationUtils.durationStringToMillis(event.getOption("duration").getAsString());
+        } catch (IllegalArgumentException exception) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Not a valid time string! Valid options are: y, w, d, h, m, s.
+
+                    *Some examples of a valid time are "30s" or "5m"*
+                    """))
+                    .queue();
+            return;
+        }
+
+        if (staleness.compareTo(MAX_STALENESS) > 0) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("The leaderboard may be outdated by at most an hour!")).queue();
+            return;
+        }
+
+        var settings = guildSettingsManager.getSettings(event.getGuild()).setLeaderboardStaleness(staleness);
+        var success = guildSettingsManager.setSettings(event.getGuild(), settings);
+        if (success) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal("Successfully updated leaderboard settings.")).queue();
+        } else {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Oops! Failed to update leaderboard settings.
+
+                    Please contact the bot developer as this is an internal issue."""))
+                    .queue();
+        }
+    }
+}
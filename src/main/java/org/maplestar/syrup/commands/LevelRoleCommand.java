@@ -15,6 +15,7 @@ import org.maplestar.syrup.commands.internal.AbstractCommand;
 import org.maplestar.syrup.data.levelrole.LevelRoleData;
 import org.maplestar.syrup.data.levelrole.LevelRoleDataManager;
 import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.executors.RoleResyncExecutor;
 import org.maplestar.syrup.utils.EmbedColors;
 import org.maplestar.syrup.utils.EmbedMessage;
 
@@ -25,20 +26,25 @@ import java.util.List;
  * The /levelrole command for managing levelroles.
  */
 public class LevelRoleCommand extends AbstractCommand {
+    private static final String RESYNC_FAILED = "Couldn't start updating the roles of existing members, please try again with ``/levelrole resync start``.";
+
     private final LevelRoleDataManager levelRoleDataManager;
     private final GuildSettingsManager guildSettingsManager;
+    private final RoleResyncExecutor roleResyncExecutor;
 
     /**
      * Initializes the command.
      *
      * @param levelRoleDataManager the level role data manager
      * @param guildSettingsManager the guild settings manager
+     * @param roleResyncExecutor the role resync executor, to update the roles of existing members
      */
-    public LevelRoleCommand(LevelRoleDataManager levelRoleDataManager, GuildSettingsManager guildSettingsManager) {
+    public LevelRoleCommand(LevelRoleDataManager levelRoleDataManager, GuildSettingsManager guildSettingsManager, RoleResyncExecutor roleResyncExecutor) {
         super("levelrole");
 
         this.levelRoleDataManager = levelRoleDataManager;
         this.guildSettingsManager = guildSettingsManager;
+        this.roleResyncExecutor = roleResyncExecutor;
     }
 
     @Override
@@ -54,6 +60,13 @@ public class LevelRoleCommand extends AbstractCommand {
                                 new SubcommandData("remove_old_roles", "If a user gains a new level role, remove the old ones!!")
                                         .addOption(OptionType.BOOLEAN, "status", "Is this option on or off?", true)
                         ))
+                .addSubcommandGroups(new SubcommandGroupData("resync", "Update the level roles of all members")
+                        .addSubcommands(
+                                new SubcommandData("start", "Give all members exactly the level roles of their level"),
+                                new SubcommandData("pause", "Pause the current resync"),
+                                new SubcommandData("resume", "Resume the paused resync"),
+                                new SubcommandData("status", "View the progress of the current resync")
+                        ))
                 .addSubcommands(
                         new SubcommandData("add", "Adds a new level role")
                                 .addOption(OptionType.ROLE, "role", "The role associated with this level role", true)
@@ -77,6 +90,14 @@ public class LevelRoleCommand extends AbstractCommand {
                 case "remove_old_roles" -> removeOldRoles(event);
                 case null, default -> throw new IllegalArgumentException();
             }
+        } else if (subCommandGroup != null && subCommandGroup.equals("resync")) {
+            switch (event.getSubcommandName()) {
+                case "start" -> startResync(event);
+                case "pause" -> setResyncPaused(event, true);
+                case "resume" -> setResyncPaused(event, false);
+                case "status" -> resyncStatus(event);
+                case null, default -> throw new IllegalArgumentException();
+            }
         } else {
             switch (event.getSubcommandName()) {
                 case "add" -> add(event);
@@ -117,11 +138,21 @@ public class LevelRoleCommand extends AbstractCommand {
     private void removeOldRoles(SlashCommandInteractionEvent event) {
         boolean status = event.getOption("status").getAsBoolean();
 
-        var settings = guildSettingsManager.getSettings(event.getGuild()).setRemoveOldRoles(status);
+        var oldSettings = guildSettingsManager.getSettings(event.getGuild());
+        var settings = oldSettings.setRemoveOldRoles(status);
 
         var success = guildSettingsManager.setSettings(event.getGuild(), settings);
         if (success) {
-            event.getHook().editOriginalEmbeds(EmbedMessage.normal("Successfully updated level role settings.")).queue();
+            if (oldSettings.removeOldRoles() == status) {
+                event.getHook().editOriginalEmbeds(EmbedMessage.normal("Successfully updated level role settings.")).queue();
+                return;
+            }
+
+            boolean resyncing = roleResyncExecutor.start(event.getGuild());
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal("""
+                    Successfully updated level role settings.
+                    
+                    %s""".formatted(resyncing ? "The roles of existing members are being updated in the background, see ``/levelrole resync status``." : RESYNC_FAILED))).queue();
         } else {
             event.getHook().editOriginalEmbeds(EmbedMessage.error("""
                     Oops! Failed to update level role settings.
@@ -155,6 +186,64 @@ public class LevelRoleCommand extends AbstractCommand {
         }
     }
 
+    /**
+     * The /levelrole resync start subcommand.
+     * <p>
+     * Starts updating the level roles of all members in the background, restarting the current resync if there is one.
+     *
+     * @param event the command event
+     */
+    private void startResync(SlashCommandInteractionEvent event) {
+        if (!roleResyncExecutor.start(event.getGuild())) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Oops! Failed to start updating the level roles.
+                    
+                    Please contact the bot developer as this is an internal issue."""))
+                    .queue();
+            return;
+        }
+
+        event.getHook().editOriginalEmbeds(EmbedMessage.normal("Started updating the level roles of all members. This may take a while!")).queue();
+    }
+
+    /**
+     * The /levelrole resync pause and /levelrole resync resume subcommands.
+     *
+     * @param event the command event
+     * @param paused whether the resync should be paused or resumed
+     */
+    private void setResyncPaused(SlashCommandInteractionEvent event, boolean paused) {
+        if (!roleResyncExecutor.setPaused(event.getGuild(), paused)) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("There is no level role resync right now.")).queue();
+            return;
+        }
+
+        event.getHook().editOriginalEmbeds(EmbedMessage.normal(paused ? "Paused the level role resync." : "Resumed the level role resync.")).queue();
+    }
+
+    /**
+     * The /levelrole resync status subcommand.
+     * <p>
+     * Shows the progress of the current resync.
+     *
+     * @param event the command event
+     */
+    private void resyncStatus(SlashCommandInteractionEvent event) {
+        var jobOptional = roleResyncExecutor.getJob(event.getGuild());
+        if (jobOptional.isEmpty()) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal("There is no level role resync right now, all roles are up to date!")).queue();
+            return;
+        }
+
+        var job = jobOptional.get();
+        event.getHook().editOriginalEmbeds(EmbedMessage.normal("Processed **%,d** of **%,d** members (**%d%%**)%s.".formatted(
+                job.processed(),
+                job.total(),
+                job.progressPercent(),
+                job.paused() ? ", currently paused" : ""
+        ))).queue();
+    }
+
     /**
      * The /levelrole add subcommand.
      * <p>
@@ -180,11 +269,14 @@ public class LevelRoleCommand extends AbstractCommand {
 
         var success = levelRoleDataManager.addLevelRole(event.getGuild(), role, level);
         if (success) {
+            boolean resyncing = roleResyncExecutor.start(event.getGuild());
             event.getHook().editOriginalEmbeds(EmbedMessage.normal("""
                             Successfully assigned %s to level **%d**.
                             
-                            Make sure I have permission to add this role to members. Members who are missing this role will receive it the next time they level up (if applicable)."""
-                    .formatted(role.getAsMention(), level))).queue();
+                            Make sure I have permission to add this role to members. %s"""
+                    .formatted(role.getAsMention(), level, resyncing
+                            ? "Existing members receive this role in the background (if applicable), see ``/levelrole resync status``."
+                            : RESYNC_FAILED))).queue();
         } else {
             event.getHook().editOriginalEmbeds(EmbedMessage.error("""
                     Oops! Failed to create reaction role.
@@ -214,11 +306,13 @@ public class LevelRoleCommand extends AbstractCommand {
 
         var success = levelRoleDataManager.removeLevelRole(event.getGuild(), role.getIdLong());
         if (success) {
+            boolean resyncing = roleResyncExecutor.start(event.getGuild());
             event.getHook().editOriginalEmbeds(EmbedMessage.error(
                     String.format(
-                            "Successfully removed %s from the list of level roles. It was pointing to level**%d**.",
+                            "Successfully removed %s from the list of level roles. It was pointing to level**%d**.%s",
                             role.getAsMention(),
-                            levelRoleOptional.get().level()
+                            levelRoleOptional.get().level(),
+                            resyncing ? "" : "\n\n" + RESYNC_FAILED
                     ))
             ).queue();
         } else {
@@ -1,5 +1,6 @@
 package org.maplestar.syrup.commands;
 
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.InteractionContextType;
@@ -8,30 +9,51 @@ import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import net.dv8tion.jda.api.utils.AttachedFile;
+import org.jetbrains.annotations.Nullable;
 import org.maplestar.syrup.commands.internal.AbstractCommand;
 import org.maplestar.syrup.data.rank.LevelDataManager;
+import org.maplestar.syrup.data.rank.RankPosition;
 import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.executors.RankPrerenderExecutor;
 import org.maplestar.syrup.utils.EmbedMessage;
 import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQuality;
+import org.maplestar.syrup.utils.RenderQualityController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+
 /**
  * The /rank command for displaying the rank of a user.
  */
 public class RankCommand extends AbstractCommand {
+    // the position is only an estimate, so it may be outdated even if the leaderboard itself may not
+    private static final Duration MIN_POSITION_STALENESS = Duration.ofSeconds(30);
+
     private final Logger logger = LoggerFactory.getLogger(RankCommand.class);
     private final LevelDataManager levelDataManager;
+    private final GuildSettingsManager guildSettingsManager;
+    private final RenderQualityController renderQualityController;
+    private final RankPrerenderExecutor rankPrerenderExecutor;
 
     /**
      * Initializes the command.
      *
      * @param levelDataManager the level data manager
+     * @param guildSettingsManager the guild settings manager, for how outdated the leaderboard may be
+     * @param renderQualityController the render quality controller, which decides how much effort goes into the image
+     * @param rankPrerenderExecutor the executor that renders rank cards in advance after level-ups
      */
-    public RankCommand(LevelDataManager levelDataManager) {
+    public RankCommand(LevelDataManager levelDataManager, GuildSettingsManager guildSettingsManager,
+                       RenderQualityController renderQualityController, RankPrerenderExecutor rankPrerenderExecutor) {
         super("rank");
 
         this.levelDataManager = levelDataManager;
+        this.guildSettingsManager = guildSettingsManager;
+        this.renderQualityController = renderQualityController;
+        this.rankPrerenderExecutor = rankPrerenderExecutor;
     }
 
     @Override
@@ -46,9 +68,14 @@ public class RankCommand extends AbstractCommand {
      * <p>
      * Sends an image with the user's name, rank, level, XP, and remaining XP until level-up on the current guild.
      * The user's banner or avatar (as a fallback) is used as the background.
+     * The percentile and the XP to the next rank are taken from the cached leaderboard instead of querying the database again,
+     * so they may be slightly outdated.
      * In case of a database failure, the rank will be "Invalid", and all other values zero.
      * <p>
      * If the image creation fails, the content is instead sent as an embed.
+     * The same happens while rendering is overloaded, see {@link RenderQualityController}.
+     * If the image was already rendered after the user's last level-up and is still up to date, it's sent right away,
+     * see {@link RankPrerenderExecutor}.
      *
      * @param event the command event
      * @see ImageUtils
@@ -60,32 +87,91 @@ public class RankCommand extends AbstractCommand {
 
         var member = event.getOption("user", event.getMember(), OptionMapping::getAsMember);
         var user = event.getOption("user", event.getMember().getUser(), OptionMapping::getAsUser);
+        String username;
+        if (member == null) {
+            username = user.getEffectiveName();
+        } else {
+            username = member.getEffectiveName();
+        }
+
+        long requested = System.nanoTime();
         var rankingData = levelDataManager.getRankingData(user, event.getGuild());
+        var rankPosition = rankingData.isInvalid() ? null : getRankPosition(levelDataManager, guildSettingsManager, event.getGuild(), rankingData);
+
+        // a card rendered in advance isn't a render, it would only pull down the durations the quality is based on
+        var prerendered = rankingData.isInvalid() ? null : rankPrerenderExecutor.getPrerendered(event.getGuild(), username, rankingData, rankPosition);
+        if (prerendered != null) {
+            event.getHook().editOriginalAttachments(AttachedFile.fromData(prerendered, user.getName() + ".png")).queue();
+            return;
+        }
 
-        try {
-            var imageBytes = ImageUtils.generateRankImage(member, user, rankingData);
-            event.getHook().editOriginalAttachments(AttachedFile.fromData(imageBytes, user.getName() + ".png")).queue();
-        } catch (Exception exception) {
-            logger.error("Couldn't attach rank file", exception);
-            String username;
-            if (member == null) {
-                username = user.getEffectiveName();
-            } else {
-                username = member.getEffectiveName();
+        try (var render = renderQualityController.begin(event.getGuild().getIdLong(), requested)) {
+            var quality = render.quality();
+            if (quality == RenderQuality.TEXT) {
+                event.getHook().editOriginalEmbeds(EmbedMessage.normal(describeRank(username, rankingData, rankPosition))).queue();
+                return;
             }
 
-            event.getHook().editOriginalEmbeds(EmbedMessage.error(
-                    """
-                    *Something went wrong while generating your rank image, but here you go:*
-                    
-                    **%s** is **Rank %s** with **Level %d** (**%,d XP**). %,d more XP is required to level up.""".formatted(
-                            username,
-                            rankingData.isInvalid() ? "Invalid" : "#" + rankingData.rank(),
-                            rankingData.levelData().level(),
-                            rankingData.levelData().xp(),
-                            rankingData.levelData().remainingXPForLevelup()
-                    )
-            )).queue();
+            try {
+                var imageBytes = ImageUtils.generateRankImage(member, user, rankingData, rankPosition, quality);
+                event.getHook().editOriginalAttachments(AttachedFile.fromData(imageBytes, user.getName() + ".png")).queue();
+            } catch (Exception exception) {
+                logger.error("Couldn't attach rank file", exception);
+                event.getHook().editOriginalEmbeds(EmbedMessage.error(
+                        "*Something went wrong while generating your rank image, but here you go:*\n\n"
+                                + describeRank(username, rankingData, rankPosition)
+                )).queue();
+            }
         }
     }
+
+    /**
+     * Describes the rank of the user as text, for when there's no image.
+     *
+     * @param username the displayed name of the user
+     * @param rankingData the user's ranking
+     * @param rankPosition the user's position relative to the other users, or null if it's unknown
+     * @return the description
+     */
+    private static String describeRank(String username, RankingData rankingData, @Nullable RankPosition rankPosition) {
+        return "**%s** is **Rank %s** with **Level %d** (**%,d XP**). %,d more XP is required to level up.%s".formatted(
+                username,
+                rankingData.isInvalid() ? "Invalid" : "#" + rankingData.rank(),
+                rankingData.levelData().level(),
+                rankingData.levelData().xp(),
+                rankingData.levelData().remainingXPForLevelup(),
+                rankPosition == null ? "" : "\n" + ImageUtils.formatRankPosition(rankPosition)
+        );
+    }
+
+    /**
+     * Looks up the position of the user relative to the other users, see {@link LevelDataManager#getRankPosition}.
+     * The user's XP is current, so only the other users may be outdated.
+     * {@link RankPrerenderExecutor} looks it up the same way, though only in cached snapshots,
+     * so the cards it renders show the same position.
+     *
+     * @param levelDataManager the level data manager
+     * @param guildSettingsManager the guild settings manager, for how outdated the leaderboard may be
+     * @param guild the guild
+     * @param rankingData the user's current ranking
+     * @return the position of the user, or null on database failure
+     */
+    public static @Nullable RankPosition getRankPosition(LevelDataManager levelDataManager, GuildSettingsManager guildSettingsManager,
+                                                         Guild guild, RankingData rankingData) {
+        var staleness = getPositionStaleness(guildSettingsManager, guild);
+        return levelDataManager.getRankPosition(guild, rankingData.levelData().xp(), staleness);
+    }
+
+    /**
+     * Returns how outdated the leaderboard may be that the position of a user is looked up in.
+     *
+     * @param guildSettingsManager the guild settings manager
+     * @param guild the guild
+     * @return the staleness, zero if the guild doesn't cache its leaderboard
+     */
+    public static Duration getPositionStaleness(GuildSettingsManager guildSettingsManager, Guild guild) {
+        var staleness = guildSettingsManager.getSettings(guild).leaderboardStaleness();
+        if (staleness.isZero()) return staleness;
+        return staleness.compareTo(MIN_POSITION_STALENESS) < 0 ? MIN_POSITION_STALENESS : staleness;
+    }
 }
@@ -78,6 +78,7 @@ public class RemindMeCommand extends AbstractCommand {
         var reminder = new Reminder(
                 -1,
                 user.getIdLong(),
+                event.isFromGuild() ? event.getGuild().getIdLong() : 0,
                 LocalDateTime.now().plus(duration),
                 message,
                 event.getChannelIdLong()
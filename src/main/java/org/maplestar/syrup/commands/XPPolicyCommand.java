@@ -0,0 +1,307 @@
+package org.maplestar.syrup.commands;
+
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.InteractionContextType;
+import net.dv8tion.jda.api.interactions.commands.DefaultMemberPermissions;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.interactions.commands.build.OptionData;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import net.dv8tion.jda.api.interactions.commands.build.SubcommandData;
+import net.dv8tion.jda.api.interactions.commands.build.SubcommandGroupData;
+import org.maplestar.syrup.commands.internal.AbstractCommand;
+import org.maplestar.syrup.data.xppolicy.XPBoost;
+import org.maplestar.syrup.data.xppolicy.XPMultiplierType;
+import org.maplestar.syrup.data.xppolicy.XPPolicy;
+import org.maplestar.syrup.data.xppolicy.XPPolicyDataManager;
+import org.maplestar.syrup.utils.DurationUtils;
+import org.maplestar.syrup.utils.EmbedColors;
+import org.maplestar.syrup.utils.EmbedMessage;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The /xp-policy command for configuring how much XP messages grant.
+ */
+public class XPPolicyCommand extends AbstractCommand {
+    private final XPPolicyDataManager xpPolicyDataManager;
+
+    /**
+     * Initializes the command.
+     *
+     * @param xpPolicyDataManager the XP policy data manager
+     */
+    public XPPolicyCommand(XPPolicyDataManager xpPolicyDataManager) {
+        super("xp-policy");
+
+        this.xpPolicyDataManager = xpPolicyDataManager;
+    }
+
+    @Override
+    public SlashCommandData getSlashCommandData() {
+        return Commands.slash(name, "Configure how much XP messages grant")
+                .setContexts(InteractionContextType.GUILD)
+                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(Permission.ADMINISTRATOR))
+                .addSubcommandGroups(new SubcommandGroupData("boost", "Manage timed XP boosts, e.g. double XP weekends")
+                        .addSubcommands(
+                                new SubcommandData("add", "Multiply all XP gained for some time")
+                                        .addOptions(multiplierOption("The multiplier while the boost is active"))
+                                        .addOption(OptionType.STRING, "duration", "How long the boost lasts, e.g. 2d", true)
+                                        .addOption(OptionType.STRING, "starts_in", "When the boost starts, e.g. 12h. Starts immediately if empty", false),
+                                new SubcommandData("remove", "End a boost early or cancel it")
+                                        .addOption(OptionType.INTEGER, "id", "The ID of the boost, see /xp-policy view", true)
+                        ))
+                .addSubcommands(
+                        new SubcommandData("view", "View the XP policy of this server"),
+                        new SubcommandData("range", "Set how much XP a message grants before multipliers")
+                                .addOptions(
+                                        new OptionData(OptionType.INTEGER, "min", "The minimum XP", true)
+                                                .setRequiredRange(0, XPPolicy.MAX_XP_PER_MESSAGE),
+                                        new OptionData(OptionType.INTEGER, "max", "The maximum XP", true)
+                                                .setRequiredRange(0, XPPolicy.MAX_XP_PER_MESSAGE)
+                                ),
+                        new SubcommandData("cooldown", "Set the time before a member can gain XP again")
+                                .addOption(OptionType.STRING, "duration", "The cooldown, e.g. 10s or 1m", true),
+                        new SubcommandData("channel", "Multiply the XP gained in a channel. Use 1 to remove the multiplier")
+                                .addOption(OptionType.CHANNEL, "channel", "The channel", true)
+                                .addOptions(multiplierOption("The multiplier for this channel")),
+                        new SubcommandData("role", "Multiply the XP gained by members with a role. Use 1 to remove the multiplier")
+                                .addOption(OptionType.ROLE, "role", "The role", true)
+                                .addOptions(multiplierOption("The multiplier for this role, only a member's highest one applies"))
+                );
+    }
+
+    private static OptionData multiplierOption(String description) {
+        return new OptionData(OptionType.NUMBER, "multiplier", description, true)
+                .setRequiredRange(0, XPPolicy.MAX_MULTIPLIER);
+    }
+
+    @Override
+    public void execute(SlashCommandInteractionEvent event) {
+        event.deferReply(true).queue();
+
+        var subCommandGroup = event.getSubcommandGroup();
+        if (subCommandGroup != null && subCommandGroup.equals("boost")) {
+            switch (event.getSubcommandName()) {
+                case "add" -> addBoost(event);
+                case "remove" -> removeBoost(event);
+                case null, default -> throw new IllegalArgumentException();
+            }
+        } else {
+            switch (event.getSubcommandName()) {
+                case "view" -> view(event);
+                case "range" -> range(event);
+                case "cooldown" -> cooldown(event);
+                case "channel" -> multiplier(event, XPMultiplierType.CHANNEL, event.getOption("channel").getAsChannel().getIdLong());
+                case "role" -> multiplier(event, XPMultiplierType.ROLE, event.getOption("role").getAsRole().getIdLong());
+                case null, default -> throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    /**
+     * The /xp-policy view subcommand.
+     * <p>
+     * Provides an overview over the current guild's XP policy, including its multipliers and boosts.
+     *
+     * @param event the command event
+     */
+    private void view(SlashCommandInteractionEvent event) {
+        var policy = xpPolicyDataManager.getPolicy(event.getGuild());
+        var embedBuilder = new EmbedBuilder()
+                .setTitle("**XP policy**")
+                .setAuthor(event.getGuild().getName(), null, event.getGuild().getIconUrl())
+                .setColor(EmbedColors.primary())
+                .addField("**__XP per message__**", "%d - %d".formatted(policy.minXP(), policy.maxXP()), true)
+                .addField("**__Cooldown__**", policy.cooldown().toSeconds() + "s", true)
+                .addField("**__Channel multipliers__**", formatMultipliers(policy.channelMultipliers(), "<#%d>"), false)
+                .addField("**__Role multipliers__**", formatMultipliers(policy.roleMultipliers(), "<@&%d>"), false);
+
+        long now = System.currentTimeMillis();
+        var boosts = policy.boosts().stream()
+                .filter(boost -> boost.end().toEpochMilli() > now)
+                .map(boost -> "**#%d** x%s from <t:%d:f> to <t:%d:f>%s".formatted(
+                        boost.id(),
+                        formatMultiplier(boost.multiplier()),
+                        boost.start().getEpochSecond(),
+                        boost.end().getEpochSecond(),
+                        boost.isActive(now) ? " (active)" : ""
+                ))
+                .collect(Collectors.joining("\n"));
+        embedBuilder.addField("**__Boosts__**", boosts.isEmpty() ? "None" : boosts, false);
+
+        event.getHook().editOriginalEmbeds(embedBuilder.build()).queue();
+    }
+
+    private static String formatMultipliers(Map<Long, Double> multipliers, String mentionFormat) {
+        if (multipliers.isEmpty()) return "None";
+
+        return multipliers.entrySet().stream()
+                .map(entry -> mentionFormat.formatted(entry.getKey()) + ": x" + formatMultiplier(entry.getValue()))
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static String formatMultiplier(double multiplier) {
+        return "%.2f".formatted(multiplier).replaceAll("\\.?0+$", "");
+    }
+
+    /**
+     * The /xp-policy range subcommand.
+     * <p>
+     * Sets the range of XP a message grants before multipliers.
+     *
+     * @param event the command event
+     */
+    private void range(SlashCommandInteractionEvent event) {
+        int min = event.getOption("min").getAsInt();
+        int max = event.getOption("max").getAsInt();
+        if (min > max) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("The minimum XP can't be greater than the maximum XP!")).queue();
+            return;
+        }
+
+        var policy = xpPolicyDataManager.getPolicy(event.getGuild()).setRange(min, max);
+        updatePolicy(event, policy);
+    }
+
+    /**
+     * The /xp-policy cooldown subcommand.
+     * <p>
+     * Sets the time after a message in which further messages of the same member don't grant XP.
+     *
+     * @param event the command event
+     */
+    private void cooldown(SlashCommandInteractionEvent event) {
+        var cooldown = parseDuration(event, event.getOption("duration").getAsString());
+        if (cooldown == null) return;
+
+        var policy = xpPolicyDataManager.getPolicy(event.getGuild()).setCooldown(cooldown);
+        updatePolicy(event, policy);
+    }
+
+    private void updatePolicy(SlashCommandInteractionEvent event, XPPolicy policy) {
+        var success = xpPolicyDataManager.setPolicy(event.getGuild(), policy);
+        if (success) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal("Successfully updated the XP policy.")).queue();
+        } else {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Oops! Failed to update the XP policy.
+
+                    Please contact the bot developer as this is an internal issue."""))
+                    .queue();
+        }
+    }
+
+    /**
+     * The /xp-policy channel and /xp-policy role subcommands.
+     * <p>
+     * Sets the multiplier for messages in a channel or by members with a role.
+     *
+     * @param event the command event
+     * @param type whether the multiplier is for a channel or a role
+     * @param targetID the ID of the channel or role
+     */
+    private void multiplier(SlashCommandInteractionEvent event, XPMultiplierType type, long targetID) {
+        double multiplier = event.getOption("multiplier").getAsDouble();
+
+        var success = xpPolicyDataManager.setMultiplier(event.getGuild(), type, targetID, multiplier);
+        if (success) {
+            var mention = type == XPMultiplierType.CHANNEL ? "<#" + targetID + ">" : "<@&" + targetID + ">";
+            var message = multiplier == 1
+                    ? "Removed the XP multiplier of %s.".formatted(mention)
+                    : "XP gained %s %s is now multiplied by **%s**.".formatted(type == XPMultiplierType.CHANNEL ? "in" : "by members with", mention, formatMultiplier(multiplier));
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal(message)).queue();
+        } else {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Oops! Failed to update the XP multiplier.
+
+                    Please contact the bot developer as this is an internal issue."""))
+                    .queue();
+        }
+    }
+
+    /**
+     * The /xp-policy boost add subcommand.
+     * <p>
+     * Adds a timed boost that multiplies all XP gained while it's active.
+     *
+     * @param event the command event
+     */
+    private void addBoost(SlashCommandInteractionEvent event) {
+        double multiplier = event.getOption("multiplier").getAsDouble();
+        var duration = parseDuration(event, event.getOption("duration").getAsString());
+        if (duration == null) return;
+
+        var startsIn = event.getOption("starts_in", "0s", OptionMapping::getAsString);
+        var delay = parseDuration(event, startsIn);
+        if (delay == null) return;
+
+        var start = Instant.now().plus(delay);
+        var boost = new XPBoost(0, start, start.plus(duration), multiplier);
+        var success = xpPolicyDataManager.addBoost(event.getGuild(), boost);
+        if (success) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal("XP is multiplied by **%s** from <t:%d:f> to <t:%d:f>!".formatted(
+                    formatMultiplier(multiplier),
+                    boost.start().getEpochSecond(),
+                    boost.end().getEpochSecond()
+            ))).queue();
+        } else {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Oops! Failed to add the XP boost.
+
+                    Please contact the bot developer as this is an internal issue."""))
+                    .queue();
+        }
+    }
+
+    /**
+     * The /xp-policy boost remove subcommand.
+     * <p>
+     * Removes a boost, which ends it immediately if it's already active.
+     *
+     * @param event the command event
+     */
+    private void removeBoost(SlashCommandInteractionEvent event) {
+        int id = event.getOption("id").getAsInt();
+
+        var removed = xpPolicyDataManager.removeBoost(event.getGuild(), id);
+        if (removed.isEmpty()) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Oops! Failed to remove the XP boost.
+
+                    Please contact the bot developer as this is an internal issue."""))
+                    .queue();
+        } else if (removed.get()) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.normal("Successfully removed boost **#%d**.".formatted(id))).queue();
+        } else {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("Boost **#%d** doesn't exist.".formatted(id))).queue();
+        }
+    }
+
+    /**
+     * Parses a duration option and replies with an error if it's invalid.
+     *
+     * @param event the command event
+     * @param durationString the value of the option
+     * @return the duration, or null if it couldn't be parsed
+     */
+    private Duration parseDuration(SlashCommandInteractionEvent event, String durationString) {
+        try {
+            return DurationUtils.durationStringToMillis(durationString);
+        } catch (IllegalArgumentException exception) {
+            event.getHook().editOriginalEmbeds(EmbedMessage.error("""
+                    Not a valid time string! Valid options are: y, w, d, h, m, s.
+
+                    *Some examples of a valid time are "30s" or "5d 12h"*
+                    """))
+                    .queue();
+            return null;
+        }
+    }
+}
@@ -4,6 +4,9 @@ import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEve
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import org.jetbrains.annotations.NotNull;
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Histogram;
+import org.maplestar.syrup.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +17,10 @@ import java.util.HashSet;
  * Stores and handles commands to be run via Discord.
  */
 public class CommandManager extends ListenerAdapter {
+    private static final Counter commandCounter = Metrics.counter("syrup_commands_total",
+            "Executed slash commands by command and outcome", "command", "outcome");
+    private static final Histogram commandDuration = Metrics.histogram("syrup_command_duration_seconds",
+            "Time spent in the command handler, without work it moved to other threads", "command");
     private final Logger logger = LoggerFactory.getLogger(CommandManager.class);
     private final HashSet<AbstractCommand> commands;
 
@@ -49,6 +56,8 @@ public class CommandManager extends ListenerAdapter {
     /**
      * Handles the execution of a slash command. Is only called when the command belongs to this bot.
      * It delegates the execution to the commands registered with this class, if possible.
+     * <p>
+     * The number of executions and their duration are recorded in the metrics.
      *
      * @param event a {@link SlashCommandInteractionEvent} representing the command
      */
@@ -61,6 +70,19 @@ public class CommandManager extends ListenerAdapter {
 
         commands.stream()
                 .filter(command -> command.name().equals(event.getName()))
-                .forEach(command -> command.execute(event));
+                .forEach(command -> execute(command, event));
+    }
+
+    private void execute(AbstractCommand command, SlashCommandInteractionEvent event) {
+        long start = System.nanoTime();
+        try {
+            command.execute(event);
+            commandCounter.labels(command.name(), "success").inc();
+        } catch (RuntimeException exception) {
+            commandCounter.labels(command.name(), "error").inc();
+            throw exception;
+        } finally {
+            commandDuration.labels(command.name()).observeSince(start);
+        }
     }
 }
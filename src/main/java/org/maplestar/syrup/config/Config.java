@@ -1,6 +1,12 @@
 package org.maplestar.syrup.config;
 
 import io.github.cdimascio.dotenv.Dotenv;
+import org.maplestar.syrup.utils.AssetFetcher;
+import org.maplestar.syrup.utils.DurationUtils;
+import org.maplestar.syrup.utils.PngEncoder;
+
+import java.nio.file.Path;
+import java.time.Duration;
 
 /**
  * Provides access to static configuration options for the application, such as database credentials.
@@ -8,8 +14,8 @@ import io.github.cdimascio.dotenv.Dotenv;
 public class Config {
     private final Dotenv dotenv;
 
-    private Config() {
-        this.dotenv = Dotenv.load();
+    private Config(Dotenv dotenv) {
+        this.dotenv = dotenv;
     }
 
     /**
@@ -18,7 +24,17 @@ public class Config {
      * @return a new config instance
      */
     public static Config load() {
-        return new Config();
+        return new Config(Dotenv.load());
+    }
+
+    /**
+     * Initializes the config from a different file than ".env", e.g. to point tools at another database.
+     *
+     * @param filename the name of the file in the working directory
+     * @return a new config instance
+     */
+    public static Config load(String filename) {
+        return new Config(Dotenv.configure().filename(filename).load());
     }
 
     /**
@@ -65,4 +81,132 @@ public class Config {
     public String databasePassword() {
         return dotenv.get("DATABASE_PASSWORD");
     }
+
+    /**
+     * The port of the metrics endpoint for Prometheus, configured via "METRICS_PORT".
+     *
+     * @return the port, or -1 if metrics shouldn't be served
+     */
+    public int metricsPort() {
+        var port = dotenv.get("METRICS_PORT");
+        return port == null ? -1 : Integer.parseInt(port);
+    }
+
+    /**
+     * Whether a continuous flight recording should be kept, configured via "JFR_RECORDING".
+     *
+     * @return true if the recording should be started
+     */
+    public boolean flightRecording() {
+        return Boolean.parseBoolean(dotenv.get("JFR_RECORDING", "false"));
+    }
+
+    /**
+     * How long the flight recording keeps data, configured via "JFR_MAX_AGE" (e.g. "6h").
+     *
+     * @return the maximum age, 6 hours by default
+     * @throws IllegalArgumentException if the configured duration is invalid
+     * @see DurationUtils#durationStringToMillis(String)
+     */
+    public Duration flightRecordingMaxAge() {
+        return DurationUtils.durationStringToMillis(dotenv.get("JFR_MAX_AGE", "6h"));
+    }
+
+    /**
+     * How much data the flight recording keeps in megabytes, configured via "JFR_MAX_SIZE_MB".
+     *
+     * @return the maximum size in bytes, 250 MB by default
+     */
+    public long flightRecordingMaxSize() {
+        return Long.parseLong(dotenv.get("JFR_MAX_SIZE_MB", "250")) * 1024 * 1024;
+    }
+
+    /**
+     * The directory the flight recording is saved to on shutdown, configured via "JFR_DIRECTORY".
+     *
+     * @return the directory, "recordings" by default
+     */
+    public Path flightRecordingDirectory() {
+        return Path.of(dotenv.get("JFR_DIRECTORY", "recordings"));
+    }
+
+    /**
+     * The encoder for the generated images, configured via "PNG_COMPRESSION_LEVEL" (0-9), "PNG_FILTER"
+     * (none, sub, up, average, paeth or adaptive) and "PNG_QUANTIZE" (reduce the images to 256 colors).
+     *
+     * @return the encoder, {@link PngEncoder#DEFAULT} if not configured
+     * @throws IllegalArgumentException if the configured level or filter is invalid
+     */
+    public PngEncoder pngEncoder() {
+        return new PngEncoder(
+                Integer.parseInt(dotenv.get("PNG_COMPRESSION_LEVEL", "4")),
+                PngEncoder.Filter.parse(dotenv.get("PNG_FILTER", "adaptive")),
+                Boolean.parseBoolean(dotenv.get("PNG_QUANTIZE", "false"))
+        );
+    }
+
+    /**
+     * The downloader for avatars, banners and guild icons, configured via "ASSET_TIMEOUT" (e.g. "10s"),
+     * "ASSET_MAX_SIZE_MB" and "ASSET_MAX_DOWNLOADS" (the maximum number of downloads at once).
+     *
+     * @return the downloader, with a timeout of 10 seconds, a limit of 8 MB and at most 16 downloads at once by default
+     * @throws IllegalArgumentException if the configured values are invalid
+     */
+    public AssetFetcher assetFetcher() {
+        return new AssetFetcher(
+                DurationUtils.durationStringToMillis(dotenv.get("ASSET_TIMEOUT", "10s")),
+                Long.parseLong(dotenv.get("ASSET_MAX_SIZE_MB", "8")) * 1024 * 1024,
+                Integer.parseInt(dotenv.get("ASSET_MAX_DOWNLOADS", "16"))
+        );
+    }
+
+    /**
+     * The number of threads for drawing and encoding images in parallel, configured via "RENDER_THREADS".
+     *
+     * @return the number of threads, the number of processors by default
+     */
+    public int renderThreads() {
+        var threads = dotenv.get("RENDER_THREADS");
+        return threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+    }
+
+    /**
+     * The number of separate processes the images of /rank and /leaderboard are drawn in, configured via "RENDER_WORKERS".
+     * The render threads are split between them.
+     *
+     * @return the number of processes, 0 by default to draw the images in this process
+     */
+    public int renderWorkers() {
+        return Integer.parseInt(dotenv.get("RENDER_WORKERS", "0"));
+    }
+
+    /**
+     * The maximum heap size of each render worker, configured via "RENDER_WORKER_HEAP" (e.g. "512m").
+     *
+     * @return the heap size as a JVM option value, "512m" by default
+     */
+    public String renderWorkerHeap() {
+        return dotenv.get("RENDER_WORKER_HEAP", "512m");
+    }
+
+    /**
+     * The range of shards this process should connect to, configured via "SHARDS" (e.g. "0-3") and "SHARD_TOTAL".
+     * <p>
+     * Defaults to a single process owning the only shard if not configured.
+     *
+     * @return the shard range
+     * @throws IllegalArgumentException if the configured range is invalid, or "SHARDS" is set without "SHARD_TOTAL"
+     */
+    public ShardRange shardRange() {
+        var total = dotenv.get("SHARD_TOTAL");
+        if (total == null) {
+            if (dotenv.get("SHARDS") != null) throw new IllegalArgumentException("SHARDS requires SHARD_TOTAL to be set");
+            return ShardRange.SINGLE;
+        }
+
+        var shards = dotenv.get("SHARDS", "0-" + (Integer.parseInt(total) - 1)).split("-");
+        int first = Integer.parseInt(shards[0].trim());
+        int last = shards.length > 1 ? Integer.parseInt(shards[1].trim()) : first;
+        return new ShardRange(first, last, Integer.parseInt(total));
+    }
 }
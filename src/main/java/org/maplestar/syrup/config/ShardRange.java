@@ -0,0 +1,64 @@
+package org.maplestar.syrup.config;
+
+/**
+ * Represents the range of shards this process is responsible for.
+ * <p>
+ * Multiple processes may share the same database, as long as their shard ranges don't overlap.
+ * Background work that is tied to a guild (e.g. reminders) is only done by the process owning the guild's shard.
+ *
+ * @param first the first shard ID owned by this process (inclusive)
+ * @param last the last shard ID owned by this process (inclusive)
+ * @param total the total number of shards across all processes
+ */
+public record ShardRange(int first, int last, int total) {
+    /**
+     * The shard range of a single process owning all shards.
+     */
+    public static final ShardRange SINGLE = new ShardRange(0, 0, 1);
+
+    /**
+     * Validates the range.
+     *
+     * @throws IllegalArgumentException if the range is empty or exceeds the total number of shards
+     */
+    public ShardRange {
+        if (total < 1 || first < 0 || last < first || last >= total) {
+            throw new IllegalArgumentException("Invalid shard range " + first + "-" + last + " of " + total);
+        }
+    }
+
+    /**
+     * Calculates the shard ID of a guild as specified by Discord.
+     *
+     * @param guildID the guild ID, or 0 for direct messages (always handled by shard 0)
+     * @return the shard ID
+     */
+    public int shardOf(long guildID) {
+        return (int) ((guildID >> 22) % total);
+    }
+
+    /**
+     * Checks whether the provided guild is handled by a shard in this range.
+     *
+     * @param guildID the guild ID, or 0 for direct messages
+     * @return true if this process owns the guild's shard
+     */
+    public boolean owns(long guildID) {
+        int shard = shardOf(guildID);
+        return first <= shard && shard <= last;
+    }
+
+    /**
+     * Checks whether this process is the only one, i.e. owns all shards.
+     *
+     * @return true if this range covers all shards
+     */
+    public boolean ownsAll() {
+        return first == 0 && last == total - 1;
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last + " (of " + total + ")";
+    }
+}
@@ -12,6 +12,15 @@ import java.sql.SQLException;
  * Initializes, sets up and provides access to a postgres database.
  */
 public class DatabaseManager {
+    /**
+     * Advisory lock key held while creating and altering tables.
+     */
+    public static final long SCHEMA_LOCK = 0x5359_5255_5001L;
+    /**
+     * Advisory lock key held while importing migration files.
+     */
+    public static final long MIGRATION_LOCK = 0x5359_5255_5002L;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private HikariDataSource dataSource;
 
@@ -22,7 +31,7 @@ public class DatabaseManager {
      */
     public DatabaseManager(Config config) {
         initializeConnectionPool(config);
-        initializeTables();
+        runWithAdvisoryLock(SCHEMA_LOCK, this::initializeTables);
     }
 
     /**
@@ -49,29 +58,88 @@ public class DatabaseManager {
 
     /**
      * Creates the tables in the postgres database, if necessary. Shuts down the bot on failure.
+     * <p>
+     * Should be run under the {@link DatabaseManager#SCHEMA_LOCK}, as concurrent "CREATE TABLE IF NOT EXISTS" statements may fail.
      */
     private void initializeTables() {
         try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
             statement.execute("CREATE TABLE IF NOT EXISTS Ranks (guild_id BIGINT, user_id BIGINT, level INTEGER, xp BIGINT, PRIMARY KEY (guild_id, user_id))");
+            statement.execute("CREATE INDEX IF NOT EXISTS ranks_guild_xp ON Ranks (guild_id, xp)");
             statement.execute("CREATE TABLE IF NOT EXISTS BlockedChannels (guild_id BIGINT, channel_id BIGINT, PRIMARY KEY (guild_id, channel_id))");
             statement.execute("CREATE TABLE IF NOT EXISTS BlockedUsers (guild_id BIGINT, user_id BIGINT, time TIMESTAMP, PRIMARY KEY (guild_id, user_id))");
             statement.execute("CREATE TABLE IF NOT EXISTS GuildSettings (guild_id BIGINT PRIMARY KEY, remove_old_roles BOOLEAN, add_on_join BOOLEAN)");
+            statement.execute("ALTER TABLE GuildSettings ADD COLUMN IF NOT EXISTS leaderboard_staleness_seconds BIGINT DEFAULT 0");
             statement.execute("CREATE TABLE IF NOT EXISTS LevelRoles (guild_id BIGINT, role_id BIGINT, level INTEGER, PRIMARY KEY (guild_id, role_id))");
             statement.execute("CREATE TABLE IF NOT EXISTS Reminders (id INTEGER PRIMARY KEY GENERATED ALWAYS AS IDENTITY, user_id BIGINT, time TIMESTAMP, message TEXT, channel_id BIGINT)");
+            statement.execute("ALTER TABLE Reminders ADD COLUMN IF NOT EXISTS guild_id BIGINT");
+            statement.execute("CREATE TABLE IF NOT EXISTS RoleResyncJobs (guild_id BIGINT PRIMARY KEY, last_user_id BIGINT, processed INTEGER, total INTEGER, paused BOOLEAN)");
+            statement.execute("CREATE TABLE IF NOT EXISTS XPPolicies (guild_id BIGINT PRIMARY KEY, min_xp INTEGER, max_xp INTEGER, cooldown_seconds BIGINT)");
+            statement.execute("CREATE TABLE IF NOT EXISTS XPMultipliers (guild_id BIGINT, target_id BIGINT, type TEXT, multiplier DOUBLE PRECISION, PRIMARY KEY (guild_id, target_id))");
+            statement.execute("CREATE TABLE IF NOT EXISTS XPBoosts (id INTEGER PRIMARY KEY GENERATED ALWAYS AS IDENTITY, guild_id BIGINT, start_time TIMESTAMPTZ, end_time TIMESTAMPTZ, multiplier DOUBLE PRECISION)");
         } catch (SQLException exception) {
             logger.error("Could not create tables", exception);
             System.exit(1);
         }
     }
 
+    /**
+     * Runs the provided task while holding a postgres advisory lock, so that it's only run by one process at a time.
+     * Other processes sharing the database wait for the lock to be released.
+     * <p>
+     * If the lock can't be acquired because of a database failure, the task is run anyway.
+     *
+     * @param lockKey the key of the advisory lock, see {@link DatabaseManager#SCHEMA_LOCK} and {@link DatabaseManager#MIGRATION_LOCK}
+     * @param task the task to run
+     */
+    public void runWithAdvisoryLock(long lockKey, Runnable task) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            try (var statement = connection.prepareStatement("SELECT pg_advisory_lock(?)")) {
+                statement.setLong(1, lockKey);
+                statement.execute();
+            }
+        } catch (SQLException exception) {
+            closeQuietly(connection);
+            logger.error("Could not acquire advisory lock {}, running task without it", lockKey, exception);
+            task.run();
+            return;
+        }
+
+        try {
+            task.run();
+        } finally {
+            // closing the session would release the lock as well, but pooled connections aren't actually closed
+            try (var statement = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                statement.setLong(1, lockKey);
+                statement.execute();
+            } catch (SQLException exception) {
+                logger.error("Could not release advisory lock {}", lockKey, exception);
+            }
+            closeQuietly(connection);
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        if (connection == null) return;
+
+        try {
+            connection.close();
+        } catch (SQLException exception) {
+            logger.warn("Could not close connection", exception);
+        }
+    }
+
     /**
      * Returns a database connection from the HikariCP connection pool.
+     * <p>
+     * The duration of its statements is recorded in the metrics, labeled with the calling method.
      *
      * @return a database connection
      * @throws SQLException if there's a problem communicating with the database
      */
     public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        return InstrumentedConnection.wrap(dataSource.getConnection());
     }
 
     /**
@@ -0,0 +1,151 @@
+package org.maplestar.syrup.data;
+
+import org.maplestar.syrup.jfr.DatabaseStatementEvent;
+import org.maplestar.syrup.metrics.Histogram;
+import org.maplestar.syrup.metrics.Metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Wraps database connections to measure how long their statements take, labeled with the data manager method that ran them.
+ * <p>
+ * Statements are recorded in the metrics and, while a flight recording is running, as {@link DatabaseStatementEvent}.
+ */
+final class InstrumentedConnection {
+    private static final Histogram queryDuration = Metrics.histogram("syrup_db_query_duration_seconds",
+            "Duration of database statements by the data manager method that ran them", "method");
+    private static final StackWalker stackWalker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    private InstrumentedConnection() {
+    }
+
+    /**
+     * Wraps the connection. The caller is determined here, so this should be called where the connection is handed out.
+     *
+     * @param connection the connection from the pool
+     * @return the wrapped connection
+     */
+    static Connection wrap(Connection connection) {
+        var caller = findCaller();
+        var histogram = queryDuration.labels(caller.manager() + "." + caller.method());
+        return (Connection) Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    var result = invoke(connection, method, args);
+                    return result instanceof Statement statement ? new StatementHandler(statement, caller, histogram).proxy() : result;
+                });
+    }
+
+    /**
+     * Finds the method that asked for the connection, e.g. "LevelDataManager.getLevelData".
+     *
+     * @return the caller
+     */
+    private static Caller findCaller() {
+        return stackWalker.walk(frames -> frames
+                .filter(frame -> frame.getDeclaringClass() != InstrumentedConnection.class
+                        && !DatabaseManager.class.isAssignableFrom(frame.getDeclaringClass()))
+                .findFirst()
+                .map(frame -> new Caller(frame.getDeclaringClass().getSimpleName(), frame.getMethodName()))
+                .orElse(new Caller("unknown", "unknown")));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    private record Caller(String manager, String method) {
+    }
+
+    /**
+     * Times the executions of a statement. The flight recorder event of a query is only committed once its results
+     * have been read, i.e. when the statement is closed or executed again, so the number of rows is known.
+     */
+    private static final class StatementHandler {
+        private final Statement statement;
+        private final Caller caller;
+        private final Histogram.Child histogram;
+        private DatabaseStatementEvent pendingEvent;
+
+        StatementHandler(Statement statement, Caller caller, Histogram.Child histogram) {
+            this.statement = statement;
+            this.caller = caller;
+            this.histogram = histogram;
+        }
+
+        Statement proxy() {
+            return (Statement) Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[]{statementType()},
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("execute")) return execute(method, args);
+                        if (method.getName().equals("close")) commitPendingEvent();
+                        return invoke(statement, method, args);
+                    });
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            commitPendingEvent();
+
+            var event = new DatabaseStatementEvent();
+            event.begin();
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = invoke(statement, method, args);
+            } finally {
+                histogram.observeSince(start);
+                event.end();
+            }
+
+            if (!event.shouldCommit()) return result;
+            event.manager = caller.manager();
+            event.method = caller.method();
+
+            switch (result) {
+                case ResultSet resultSet -> {
+                    pendingEvent = event;
+                    return countRows(resultSet, event);
+                }
+                case Integer updateCount -> event.rows = updateCount;
+                case Long updateCount -> event.rows = updateCount;
+                case int[] updateCounts -> event.rows = Arrays.stream(updateCounts).filter(count -> count > 0).sum();
+                case long[] updateCounts -> event.rows = Arrays.stream(updateCounts).filter(count -> count > 0).sum();
+                case null, default -> event.rows = Math.max(0, statement.getUpdateCount());
+            }
+            event.commit();
+            return result;
+        }
+
+        private void commitPendingEvent() {
+            if (pendingEvent == null) return;
+
+            pendingEvent.commit();
+            pendingEvent = null;
+        }
+
+        private static ResultSet countRows(ResultSet resultSet, DatabaseStatementEvent event) {
+            return (ResultSet) Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        var result = invoke(resultSet, method, args);
+                        if (method.getName().equals("next") && Boolean.TRUE.equals(result)) event.rows++;
+                        return result;
+                    });
+        }
+
+        private Class<?> statementType() {
+            if (statement instanceof CallableStatement) return CallableStatement.class;
+            if (statement instanceof PreparedStatement) return PreparedStatement.class;
+            return Statement.class;
+        }
+    }
+}
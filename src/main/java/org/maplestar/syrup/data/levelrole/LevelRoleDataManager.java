@@ -9,14 +9,19 @@ import org.slf4j.LoggerFactory;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides access to the level roles for each individual Discord guild, which can be obtained by increasing your level.
+ * <p>
+ * The level roles of a guild are cached after they've been loaded once, as they're only changed through this class.
  */
 public class LevelRoleDataManager {
     private final Logger logger = LoggerFactory.getLogger(LevelRoleDataManager.class);
     private final DatabaseManager databaseManager;
+    private final Map<Long, List<LevelRoleData>> levelRoleCache = new ConcurrentHashMap<>();
 
     /**
      * Initializes the class
@@ -36,6 +41,9 @@ public class LevelRoleDataManager {
      * @return a list of all level roles. May be empty or immutable
      */
     public List<LevelRoleData> getLevelRoles(Guild guild) {
+        var cachedLevelRoles = levelRoleCache.get(guild.getIdLong());
+        if (cachedLevelRoles != null) return cachedLevelRoles;
+
         List<LevelRoleData> levelRoles = new ArrayList<>();
 
         try (var connection = databaseManager.getConnection()) {
@@ -52,6 +60,8 @@ public class LevelRoleDataManager {
             return List.of();
         }
 
+        levelRoles = List.copyOf(levelRoles);
+        levelRoleCache.put(guild.getIdLong(), levelRoles);
         return levelRoles;
     }
 
@@ -95,7 +105,9 @@ public class LevelRoleDataManager {
                 statement.setLong(1, guild.getIdLong());
                 statement.setLong(2, levelRole.getIdLong());
                 statement.setInt(3, level);
-                return statement.executeUpdate() == 1;
+                var updated = statement.executeUpdate() == 1;
+                levelRoleCache.remove(guild.getIdLong());
+                return updated;
             }
         } catch (SQLException exception) {
             logger.error("Failed to add level role for guild {}", guild.getName(), exception);
@@ -115,7 +127,9 @@ public class LevelRoleDataManager {
             try (var statement = connection.prepareStatement("DELETE FROM LevelRoles WHERE guild_id = ? AND role_id = ?")) {
                 statement.setLong(1, guild.getIdLong());
                 statement.setLong(2, levelRoleID);
-                return statement.executeUpdate() == 1;
+                var updated = statement.executeUpdate() == 1;
+                levelRoleCache.remove(guild.getIdLong());
+                return updated;
             }
         } catch (SQLException exception) {
             logger.error("Failed to remove level role for guild {}", guild.getName(), exception);
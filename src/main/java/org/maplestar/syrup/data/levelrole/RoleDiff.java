@@ -0,0 +1,22 @@
+package org.maplestar.syrup.data.levelrole;
+
+import java.util.Set;
+
+/**
+ * Represents the level roles that have to be added to and removed from a member.
+ * <p>
+ * The roles may no longer exist on the Discord guild.
+ *
+ * @param rolesToAdd the IDs of the roles the member is missing
+ * @param rolesToRemove the IDs of the roles the member should no longer have
+ */
+public record RoleDiff(Set<Long> rolesToAdd, Set<Long> rolesToRemove) {
+    /**
+     * Checks whether the member's roles are already up to date.
+     *
+     * @return true if no roles have to be added or removed
+     */
+    public boolean isEmpty() {
+        return rolesToAdd.isEmpty() && rolesToRemove.isEmpty();
+    }
+}
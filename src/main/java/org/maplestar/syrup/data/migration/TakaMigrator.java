@@ -18,6 +18,9 @@ public class TakaMigrator {
 
     /**
      * Scans the "migration" folder for .csv files and attempts to import them.
+     * <p>
+     * Should be run under the {@link DatabaseManager#MIGRATION_LOCK} so that processes sharing the database and
+     * "migration" folder don't import the same file twice.
      *
      * @param databaseManager the database manager
      */
@@ -0,0 +1,142 @@
+package org.maplestar.syrup.data.rank;
+
+import net.dv8tion.jda.api.entities.Guild;
+import org.jetbrains.annotations.Nullable;
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps {@link LeaderboardSnapshot}s of guilds in memory, so that large leaderboards don't have to be ranked by the database
+ * every time they're viewed.
+ * <p>
+ * A snapshot is used until it's older than the staleness the guild accepts. It's then updated with the level data written
+ * since, see {@link LeaderboardChangeLog}, which only requires merging the changed users. The entire leaderboard is only
+ * loaded again occasionally, or if so many users changed that merging them isn't worth it.
+ * Snapshots that haven't been used for a while are removed.
+ */
+public class LeaderboardCache {
+    private static final Counter refreshes = Metrics.counter("syrup_leaderboard_refreshes_total",
+            "Leaderboard snapshot refreshes by kind (full or delta)", "kind");
+    private static final Duration FULL_REFRESH_INTERVAL = Duration.ofHours(1);
+    private static final Duration IDLE_EXPIRY = Duration.ofMinutes(30);
+
+    private final LevelDataManager levelDataManager;
+    private final LeaderboardChangeLog changeLog;
+    private final Map<Long, CachedLeaderboard> leaderboards = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Initializes the class.
+     *
+     * @param levelDataManager the level data manager, to load the leaderboards and their changes
+     */
+    public LeaderboardCache(LevelDataManager levelDataManager) {
+        this.levelDataManager = levelDataManager;
+        this.changeLog = levelDataManager.changeLog();
+
+        executor.scheduleWithFixedDelay(this::removeIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Returns the leaderboard of the guild, which may be outdated by at most the provided staleness.
+     *
+     * @param guild the guild
+     * @param maxStaleness how old the snapshot may be
+     * @return the leaderboard. Empty if there is no data for the guild or on database failure
+     */
+    public LeaderboardSnapshot getSnapshot(Guild guild, Duration maxStaleness) {
+        var leaderboard = leaderboards.computeIfAbsent(guild.getIdLong(), id -> new CachedLeaderboard());
+        leaderboard.lastAccess = System.nanoTime();
+
+        var snapshot = leaderboard.snapshot;
+        if (snapshot != null && !leaderboard.isStale(maxStaleness)) return snapshot;
+
+        leaderboard.lock.lock();
+        try {
+            // another thread may have refreshed it in the meantime
+            if (leaderboard.snapshot == null || leaderboard.isStale(maxStaleness)) refresh(guild, leaderboard);
+            return leaderboard.snapshot != null ? leaderboard.snapshot : LeaderboardSnapshot.EMPTY;
+        } finally {
+            leaderboard.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the leaderboard of the guild if it's already in memory and outdated by at most the provided staleness,
+     * without loading or refreshing it. Doesn't count as a use of the leaderboard, so it still expires if it's idle.
+     *
+     * @param guildID the ID of the guild
+     * @param maxStaleness how old the snapshot may be
+     * @return the leaderboard, or null if there's none that is recent enough
+     */
+    public @Nullable LeaderboardSnapshot getCachedSnapshot(long guildID, Duration maxStaleness) {
+        var leaderboard = leaderboards.get(guildID);
+        if (leaderboard == null) return null;
+
+        var snapshot = leaderboard.snapshot;
+        return snapshot != null && !leaderboard.isStale(maxStaleness) ? snapshot : null;
+    }
+
+    private void refresh(Guild guild, CachedLeaderboard leaderboard) {
+        long guildID = guild.getIdLong();
+        long now = System.nanoTime();
+        var snapshot = leaderboard.snapshot;
+
+        boolean fullRefresh = snapshot == null
+                || now - leaderboard.loadedAt >= FULL_REFRESH_INTERVAL.toNanos()
+                || changeLog.pendingCount(guildID) > snapshot.size() / 4;
+        if (!fullRefresh) {
+            leaderboard.snapshot = snapshot.withChanges(changeLog.drain(guildID));
+            leaderboard.refreshedAt = now;
+            refreshes.labels("delta").inc();
+            return;
+        }
+
+        // changes are collected before loading, so none are lost. Changes that are loaded as well are simply applied again
+        changeLog.track(guildID);
+        var drainedChanges = changeLog.drain(guildID);
+        var loadedSnapshot = levelDataManager.getLeaderboardSnapshot(guild);
+        if (loadedSnapshot == LeaderboardSnapshot.EMPTY) {
+            // database failure, the previous snapshot is kept, but it still needs the changes that were drained for the load
+            if (snapshot != null) leaderboard.snapshot = snapshot.withChanges(drainedChanges);
+            return;
+        }
+
+        leaderboard.snapshot = loadedSnapshot;
+        leaderboard.loadedAt = now;
+        leaderboard.refreshedAt = now;
+        refreshes.labels("full").inc();
+    }
+
+    private void removeIdle() {
+        long now = System.nanoTime();
+        for (var guildID : leaderboards.keySet()) {
+            leaderboards.computeIfPresent(guildID, (id, leaderboard) -> {
+                if (now - leaderboard.lastAccess < IDLE_EXPIRY.toNanos()) return leaderboard;
+
+                changeLog.untrack(id);
+                return null;
+            });
+        }
+    }
+
+    private static class CachedLeaderboard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile LeaderboardSnapshot snapshot;
+        private volatile long loadedAt;
+        private volatile long refreshedAt;
+        private volatile long lastAccess;
+
+        private boolean isStale(Duration maxStaleness) {
+            return System.nanoTime() - refreshedAt >= maxStaleness.toNanos();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.maplestar.syrup.data.rank;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the level data written by the {@link LevelDataManager} for guilds with a cached {@link LeaderboardSnapshot},
+ * so that the snapshots can be brought up to date without loading the entire leaderboard again.
+ * <p>
+ * Only the latest level data of each user is kept, as it replaces any earlier change.
+ */
+class LeaderboardChangeLog {
+    private final Map<Long, Map<Long, LevelData>> changes = new ConcurrentHashMap<>();
+
+    /**
+     * Starts collecting the changes of the guild. Changes of other guilds are ignored.
+     *
+     * @param guildID the guild ID
+     */
+    void track(long guildID) {
+        changes.putIfAbsent(guildID, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Stops collecting the changes of the guild and discards the collected ones.
+     *
+     * @param guildID the guild ID
+     */
+    void untrack(long guildID) {
+        changes.remove(guildID);
+    }
+
+    /**
+     * Records the new level data of a user, if the changes of the guild are collected.
+     * Should be called after the level data has been written.
+     *
+     * @param guildID the guild ID
+     * @param userID the user ID
+     * @param levelData the new level data
+     */
+    void record(long guildID, long userID, LevelData levelData) {
+        changes.computeIfPresent(guildID, (id, guildChanges) -> {
+            guildChanges.put(userID, levelData);
+            return guildChanges;
+        });
+    }
+
+    /**
+     * Returns the changes collected since the last call and continues collecting new ones.
+     *
+     * @param guildID the guild ID
+     * @return the latest level data by user ID. Empty if the guild isn't tracked
+     */
+    Map<Long, LevelData> drain(long guildID) {
+        Map<Long, LevelData> drained = changes.replace(guildID, new ConcurrentHashMap<>());
+        return drained != null ? drained : Map.of();
+    }
+
+    /**
+     * Returns the number of changes collected for the guild since the last drain.
+     *
+     * @param guildID the guild ID
+     * @return the number of changed users
+     */
+    int pendingCount(long guildID) {
+        var guildChanges = changes.get(guildID);
+        return guildChanges != null ? guildChanges.size() : 0;
+    }
+}
@@ -0,0 +1,333 @@
+package org.maplestar.syrup.data.rank;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An immutable copy of the entire leaderboard of a guild, sorted by XP and user ID in descending order,
+ * the same order as {@link LevelDataManager#getTopUsers}.
+ * <p>
+ * The users are stored in parallel primitive arrays instead of {@link RankingData} objects,
+ * which takes about 32 bytes per user including the index for lookups by user ID, roughly half of what the objects would take,
+ * and doesn't give the garbage collector millions of small objects to trace.
+ * {@link RankingData} is only created on demand, e.g. by the list views returned by {@link LeaderboardSnapshot#page(int)}.
+ */
+public final class LeaderboardSnapshot {
+    /**
+     * The number of users on a page of the leaderboard.
+     */
+    public static final int PAGE_SIZE = 10;
+    /**
+     * A snapshot without any users, to be used in case of database failure.
+     */
+    public static final LeaderboardSnapshot EMPTY = new LeaderboardSnapshot(new long[0], new long[0], new int[0], 0);
+
+    private final long[] userIDs;
+    private final long[] xp;
+    private final int[] levels;
+    private final int size;
+
+    // user IDs in ascending order with their index in the leaderboard, to look up users by binary search
+    private final long[] sortedUserIDs;
+    private final int[] indices;
+
+    /**
+     * Creates a snapshot from arrays that are already sorted by XP and user ID in descending order.
+     * The arrays are used directly and must not be modified afterwards.
+     *
+     * @param userIDs the user IDs
+     * @param xp the XP of each user
+     * @param levels the level of each user
+     * @param size the number of users, the arrays may be longer
+     */
+    LeaderboardSnapshot(long[] userIDs, long[] xp, int[] levels, int size) {
+        this.userIDs = userIDs;
+        this.xp = xp;
+        this.levels = levels;
+        this.size = size;
+
+        this.sortedUserIDs = Arrays.copyOf(userIDs, size);
+        Arrays.sort(sortedUserIDs);
+        this.indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[Arrays.binarySearch(sortedUserIDs, userIDs[i])] = i;
+        }
+    }
+
+    /**
+     * Creates a snapshot from ranking data in any order, e.g. from an uploaded leaderboard.
+     * The ranks of the provided data are ignored.
+     *
+     * @param rankingData the ranking data, each user may only be contained once
+     * @return the snapshot
+     */
+    public static LeaderboardSnapshot of(List<RankingData> rankingData) {
+        var sorted = rankingData.stream()
+                .sorted((a, b) -> compare(a.levelData().xp(), a.userID(), b.levelData().xp(), b.userID()))
+                .toList();
+
+        int size = sorted.size();
+        long[] userIDs = new long[size];
+        long[] xp = new long[size];
+        int[] levels = new int[size];
+        for (int i = 0; i < size; i++) {
+            var entry = sorted.get(i);
+            userIDs[i] = entry.userID();
+            xp[i] = entry.levelData().xp();
+            levels[i] = entry.levelData().level();
+        }
+
+        return new LeaderboardSnapshot(userIDs, xp, levels, size);
+    }
+
+    /**
+     * Creates a new snapshot with the level data of some users replaced, without loading the entire leaderboard again.
+     * Users that aren't on the leaderboard yet are added.
+     * <p>
+     * Takes linear time, as the unchanged users only need to be merged with the sorted changes.
+     *
+     * @param changes the current level data by user ID
+     * @return the updated snapshot
+     */
+    public LeaderboardSnapshot withChanges(Map<Long, LevelData> changes) {
+        if (changes.isEmpty()) return this;
+
+        int changeCount = changes.size();
+        long[] changedUserIDs = new long[changeCount];
+        long[] changedXP = new long[changeCount];
+        int[] changedLevels = new int[changeCount];
+        Integer[] order = new Integer[changeCount];
+        var removed = new BitSet(size);
+
+        int i = 0;
+        for (var change : changes.entrySet()) {
+            changedUserIDs[i] = change.getKey();
+            changedXP[i] = change.getValue().xp();
+            changedLevels[i] = change.getValue().level();
+            order[i] = i;
+
+            int index = indexOf(change.getKey());
+            if (index >= 0) removed.set(index);
+            i++;
+        }
+        Arrays.sort(order, (a, b) -> compare(changedXP[a], changedUserIDs[a], changedXP[b], changedUserIDs[b]));
+
+        int newSize = size - removed.cardinality() + changeCount;
+        long[] newUserIDs = new long[newSize];
+        long[] newXP = new long[newSize];
+        int[] newLevels = new int[newSize];
+
+        int oldIndex = removed.nextClearBit(0);
+        int changeIndex = 0;
+        for (int newIndex = 0; newIndex < newSize; newIndex++) {
+            boolean takeOld = changeIndex == changeCount || (oldIndex < size
+                    && compare(xp[oldIndex], userIDs[oldIndex], changedXP[order[changeIndex]], changedUserIDs[order[changeIndex]]) < 0);
+
+            if (takeOld) {
+                newUserIDs[newIndex] = userIDs[oldIndex];
+                newXP[newIndex] = xp[oldIndex];
+                newLevels[newIndex] = levels[oldIndex];
+                oldIndex = removed.nextClearBit(oldIndex + 1);
+            } else {
+                int change = order[changeIndex++];
+                newUserIDs[newIndex] = changedUserIDs[change];
+                newXP[newIndex] = changedXP[change];
+                newLevels[newIndex] = changedLevels[change];
+            }
+        }
+
+        return new LeaderboardSnapshot(newUserIDs, newXP, newLevels, newSize);
+    }
+
+    // negative if the first user is ranked higher
+    private static int compare(long xp1, long userID1, long xp2, long userID2) {
+        int compare = Long.compare(xp2, xp1);
+        return compare != 0 ? compare : Long.compare(userID2, userID1);
+    }
+
+    /**
+     * Returns the number of users on the leaderboard.
+     *
+     * @return the number of users
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of pages of the leaderboard, see {@link LeaderboardSnapshot#PAGE_SIZE}.
+     *
+     * @return the number of pages, 0 if the leaderboard is empty
+     */
+    public int maxPage() {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    /**
+     * Returns the user at the provided position of the leaderboard.
+     * Their rank is their position, so users with the same XP have different ranks, like in {@link LevelDataManager#getTopUsers}.
+     *
+     * @param index the position, starting at 0
+     * @return the ranking data of the user
+     * @throws IndexOutOfBoundsException if the position is outside the leaderboard
+     */
+    public RankingData get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return new RankingData(userIDs[index], index + 1, new LevelData(levels[index], xp[index]));
+    }
+
+    /**
+     * Returns a page of the leaderboard without copying it, see {@link LeaderboardSnapshot#get(int)}.
+     * The page is adjusted to fit the bounds in the same way as {@link LevelDataManager#getTopUsers}.
+     *
+     * @param page the page, starting at 1
+     * @return the users on the page. Empty if the leaderboard is empty
+     */
+    public List<RankingData> page(int page) {
+        if (size == 0) return List.of();
+
+        page = Math.clamp(page, 1, maxPage());
+        int from = (page - 1) * PAGE_SIZE;
+        return slice(from, Math.min(from + PAGE_SIZE, size));
+    }
+
+    /**
+     * Returns the entire leaderboard as a list without copying it, see {@link LeaderboardSnapshot#get(int)}.
+     *
+     * @return the users, sorted by their rank
+     */
+    public List<RankingData> asList() {
+        return slice(0, size);
+    }
+
+    private List<RankingData> slice(int from, int to) {
+        return new AbstractList<>() {
+            @Override
+            public RankingData get(int index) {
+                if (index < 0 || index >= to - from) throw new IndexOutOfBoundsException(index);
+                return LeaderboardSnapshot.this.get(from + index);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * Returns the rank a user with the provided XP has, which is the number of users with more XP plus one.
+     * Users with the same XP share a rank, like in {@link LevelDataManager#getRankingData}.
+     *
+     * @param xp the XP
+     * @return the rank, starting at 1
+     */
+    public int rankOf(long xp) {
+        // finds the first index with at most the provided XP, the array is sorted in descending order
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.xp[mid] > xp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low + 1;
+    }
+
+    /**
+     * Returns the percentage of users with less than the provided XP.
+     *
+     * @param xp the XP
+     * @return the percentage from 0 to 100, 0 if the leaderboard is empty
+     */
+    public double percentile(long xp) {
+        if (size == 0) return 0;
+        return 100.0 * (size - countAtLeast(xp)) / size;
+    }
+
+    /**
+     * Returns how much XP is missing to reach the next higher rank, which requires the XP of the users right above.
+     *
+     * @param xp the XP
+     * @return the missing XP, 0 if no user has more XP
+     */
+    public long xpToNextRank(long xp) {
+        int above = rankOf(xp) - 2;
+        return above >= 0 ? this.xp[above] - xp : 0;
+    }
+
+    /**
+     * Returns the users around the user on the leaderboard without copying them, see {@link LeaderboardSnapshot#get(int)}.
+     *
+     * @param userID the user ID
+     * @param count the number of users above and below the user to include
+     * @return the user and their neighbors sorted by rank, empty if the user isn't on the leaderboard
+     */
+    public List<RankingData> neighbors(long userID, int count) {
+        int index = indexOf(userID);
+        if (index < 0) return List.of();
+
+        return slice(Math.max(0, index - count), Math.min(size, index + count + 1));
+    }
+
+    /**
+     * Describes where a user with the provided XP stands on the leaderboard, see {@link RankPosition}.
+     * The XP may be more current than the snapshot.
+     *
+     * @param xp the XP of the user
+     * @return the position of the user
+     */
+    public RankPosition getRankPosition(long xp) {
+        int rank = rankOf(xp);
+        int nextRank = rank > 1 ? rankOf(this.xp[rank - 2]) : 0;
+        return new RankPosition(percentile(xp), nextRank, xpToNextRank(xp));
+    }
+
+    // the number of users with at least the provided XP
+    private int countAtLeast(long xp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.xp[mid] >= xp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the position of the user on the leaderboard.
+     *
+     * @param userID the user ID
+     * @return the position starting at 0, or -1 if the user isn't on the leaderboard
+     */
+    public int indexOf(long userID) {
+        int sortedIndex = Arrays.binarySearch(sortedUserIDs, userID);
+        return sortedIndex < 0 ? -1 : indices[sortedIndex];
+    }
+
+    /**
+     * Returns the ranking data of the user, with the same rank as {@link LevelDataManager#getRankingData}.
+     *
+     * @param userID the user ID
+     * @return the ranking data, or empty if the user isn't on the leaderboard
+     */
+    public Optional<RankingData> getRankingData(long userID) {
+        int index = indexOf(userID);
+        if (index < 0) return Optional.empty();
+
+        return Optional.of(new RankingData(userID, rankOf(xp[index]), new LevelData(levels[index], xp[index])));
+    }
+}
@@ -2,20 +2,40 @@ package org.maplestar.syrup.data.rank;
 
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
+import org.jetbrains.annotations.Nullable;
 import org.maplestar.syrup.data.DatabaseManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
 
 /**
  * Provides access to the level and XP of users for each guild.
+ * <p>
+ * Updates that depend on the current level data should use {@link LevelDataManager#updateLevelData},
+ * which serializes them per user so concurrent updates don't overwrite each other.
+ * XP grants use {@link LevelDataManager#addXP}, which needs only a single statement.
  */
 public class LevelDataManager {
+    private static final int LOCK_STRIPES = 256;
+
     private final Logger logger = LoggerFactory.getLogger(LevelDataManager.class);
     private final DatabaseManager databaseManager;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final LeaderboardChangeLog changeLog = new LeaderboardChangeLog();
+    private final LeaderboardCache leaderboardCache;
 
     /**
      * Initializes the class.
@@ -24,6 +44,10 @@ public class LevelDataManager {
      */
     public LevelDataManager(DatabaseManager databaseManager) {
         this.databaseManager = databaseManager;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.leaderboardCache = new LeaderboardCache(this);
     }
 
     /**
@@ -35,20 +59,39 @@ public class LevelDataManager {
      */
     public LevelData getLevelData(User user, Guild guild) {
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("SELECT level, xp FROM Ranks WHERE user_id = ? AND guild_id = ?")) {
-                statement.setLong(1, user.getIdLong());
-                statement.setLong(2, guild.getIdLong());
+            return queryLevelData(connection, user, guild);
+        } catch (SQLException exception) {
+            logger.error("Couldn't access level data for user {} on guild {}", user.getName(), guild.getId(), exception);
+            return LevelData.ZERO;
+        }
+    }
+
+    /**
+     * Returns the {@link LevelData} for multiple users on the provided guild with a single query.
+     *
+     * @param guild the guild
+     * @param userIDs the IDs of the users
+     * @return the {@link LevelData} by user ID. New users aren't contained. Empty on database failure
+     */
+    public Map<Long, LevelData> getLevelData(Guild guild, Collection<Long> userIDs) {
+        Map<Long, LevelData> result = new HashMap<>();
+        if (userIDs.isEmpty()) return result;
+
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("SELECT user_id, level, xp FROM Ranks WHERE guild_id = ? AND user_id = ANY(?)")) {
+                statement.setLong(1, guild.getIdLong());
+                statement.setArray(2, connection.createArrayOf("int8", userIDs.toArray(Long[]::new)));
 
                 var resultSet = statement.executeQuery();
-                if (resultSet.next()) {
-                    return new LevelData(resultSet.getInt("level"), resultSet.getLong("xp"));
-                } else {
-                    return LevelData.ZERO;
+                while (resultSet.next()) {
+                    result.put(resultSet.getLong("user_id"), new LevelData(resultSet.getInt("level"), resultSet.getLong("xp")));
                 }
+
+                return result;
             }
         } catch (SQLException exception) {
-            logger.error("Couldn't access level data for user {} on guild {}", user.getName(), guild.getId(), exception);
-            return LevelData.ZERO;
+            logger.error("Couldn't access level data for {} users on guild {}", userIDs.size(), guild.getId(), exception);
+            return Map.of();
         }
     }
 
@@ -80,19 +123,62 @@ public class LevelDataManager {
     }
 
     /**
-     * Returns the entire leaderboard in the specified guild.
-     * The returned data is unordered and doesn't contain actual rankings.
-     * </p>
-     * Guaranteed to only be empty if there is no data for the provided guild.
+     * Returns the entire leaderboard in the specified guild as a compact snapshot, see {@link LeaderboardSnapshot}.
+     *
+     * @param guild the guild
+     * @return the leaderboard. Empty if there is no data for the provided guild, {@link LeaderboardSnapshot#EMPTY} on database failure
+     */
+    public LeaderboardSnapshot getLeaderboardSnapshot(Guild guild) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("SELECT user_id, level, xp FROM Ranks WHERE guild_id = ? ORDER BY xp DESC, user_id DESC")) {
+                statement.setLong(1, guild.getIdLong());
+
+                int size = 0;
+                long[] userIDs = new long[64];
+                long[] xp = new long[64];
+                int[] levels = new int[64];
+
+                var resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    if (size == userIDs.length) {
+                        userIDs = Arrays.copyOf(userIDs, size * 2);
+                        xp = Arrays.copyOf(xp, size * 2);
+                        levels = Arrays.copyOf(levels, size * 2);
+                    }
+
+                    userIDs[size] = resultSet.getLong("user_id");
+                    xp[size] = resultSet.getLong("xp");
+                    levels[size] = resultSet.getInt("level");
+                    size++;
+                }
+
+                // snapshots are cached, so they shouldn't keep the unused half of the grown arrays
+                return new LeaderboardSnapshot(Arrays.copyOf(userIDs, size), Arrays.copyOf(xp, size), Arrays.copyOf(levels, size), size);
+            }
+        } catch (SQLException exception) {
+            logger.error("Couldn't access leaderboard for guild {}", guild.getId(), exception);
+            return LeaderboardSnapshot.EMPTY;
+        }
+    }
+
+    /**
+     * Returns a chunk of the users in the specified guild, ordered by their user ID.
+     * Used to process an entire leaderboard in chunks without loading it into memory at once.
+     * <p>
+     * The returned data doesn't contain actual rankings.
      *
      * @param guild the guild
-     * @return the list of users with their ranks in the entire leaderboard. May be empty or contain any number of entries.
+     * @param afterUserID only users with a greater ID are returned, use 0 for the first chunk
+     * @param limit the maximum number of users to return
+     * @return the list of users, which is empty if there are no more users. Empty on database failure
      */
-    public List<RankingData> getEntireLeaderboard(Guild guild) {
+    public Optional<List<RankingData>> getLeaderboardChunk(Guild guild, long afterUserID, int limit) {
         List<RankingData> result = new ArrayList<>();
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("SELECT user_id, level, xp FROM Ranks WHERE guild_id = ?")) {
+            try (var statement = connection.prepareStatement("SELECT user_id, level, xp FROM Ranks WHERE guild_id = ? AND user_id > ? ORDER BY user_id LIMIT ?")) {
                 statement.setLong(1, guild.getIdLong());
+                statement.setLong(2, afterUserID);
+                statement.setInt(3, limit);
 
                 var resultSet = statement.executeQuery();
                 while (resultSet.next()) {
@@ -100,11 +186,91 @@ public class LevelDataManager {
                     result.add(new RankingData(resultSet.getLong("user_id"), 0, levelData));
                 }
 
-                return result;
+                return Optional.of(result);
             }
         } catch (SQLException exception) {
-            logger.error("Couldn't access leaderboard for guild {}", guild.getId(), exception);
-            return List.of();
+            logger.error("Couldn't access leaderboard chunk for guild {}", guild.getId(), exception);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the users right above and below the user on the leaderboard of the guild, including the user.
+     * Looked up in the cached {@link LeaderboardSnapshot} in O(log n), a staleness of zero applies the latest changes first.
+     *
+     * @param guild the guild
+     * @param userID the user ID
+     * @param count the number of users above and below the user to include
+     * @param maxStaleness how old the leaderboard may be
+     * @return the user and their neighbors sorted by rank, empty if the user isn't on the leaderboard or on database failure
+     */
+    public List<RankingData> getNeighbors(Guild guild, long userID, int count, Duration maxStaleness) {
+        return leaderboardCache.getSnapshot(guild, maxStaleness).neighbors(userID, count);
+    }
+
+    /**
+     * Describes where a user with the provided XP stands on the leaderboard of the guild: their percentile and the XP
+     * to the next rank, see {@link RankPosition}.
+     * <p>
+     * Looked up in the cached {@link LeaderboardSnapshot} in O(log n). Guilds that don't cache their leaderboard
+     * (a staleness of zero) have the users counted by the database instead, so they don't load their entire leaderboard
+     * for every lookup. The next XP is found through the (guild_id, xp) index, but postgres can only count the users
+     * around it by scanning that index, so these lookups take linear time in the size of the guild.
+     *
+     * @param guild the guild
+     * @param xp the XP of the user, which may be more current than the leaderboard
+     * @param maxStaleness how old the leaderboard may be
+     * @return the position, or null on database failure
+     */
+    public @Nullable RankPosition getRankPosition(Guild guild, long xp, Duration maxStaleness) {
+        if (maxStaleness.isZero()) return countRankPosition(guild, xp);
+        return leaderboardCache.getSnapshot(guild, maxStaleness).getRankPosition(xp);
+    }
+
+    private @Nullable RankPosition countRankPosition(Guild guild, long xp) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("""
+                    SELECT total, below, next_xp, (SELECT COUNT(*) FROM Ranks WHERE guild_id = ? AND xp > stats.next_xp) AS above_next
+                    FROM (SELECT COUNT(*) AS total, COUNT(*) FILTER (WHERE xp < ?) AS below, MIN(xp) FILTER (WHERE xp > ?) AS next_xp
+                          FROM Ranks WHERE guild_id = ?) AS stats""")) {
+                statement.setLong(1, guild.getIdLong());
+                statement.setLong(2, xp);
+                statement.setLong(3, xp);
+                statement.setLong(4, guild.getIdLong());
+
+                var resultSet = statement.executeQuery();
+                resultSet.next();
+                long total = resultSet.getLong("total");
+                double percentile = total == 0 ? 0 : 100.0 * resultSet.getLong("below") / total;
+
+                long nextXP = resultSet.getLong("next_xp");
+                if (resultSet.wasNull()) return new RankPosition(percentile, 0, 0);
+                return new RankPosition(percentile, resultSet.getInt("above_next") + 1, nextXP - xp);
+            }
+        } catch (SQLException exception) {
+            logger.error("Couldn't access rank position for guild {}", guild.getId(), exception);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of users with a rank in the specified guild.
+     *
+     * @param guild the guild
+     * @return the number of users, or empty on database failure
+     */
+    public OptionalInt getRankedUserCount(Guild guild) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("SELECT COUNT(*) AS count FROM Ranks WHERE guild_id = ?")) {
+                statement.setLong(1, guild.getIdLong());
+
+                var resultSet = statement.executeQuery();
+                resultSet.next();
+                return OptionalInt.of(resultSet.getInt("count"));
+            }
+        } catch (SQLException exception) {
+            logger.error("Couldn't count users for guild {}", guild.getId(), exception);
+            return OptionalInt.empty();
         }
     }
 
@@ -159,6 +325,8 @@ public class LevelDataManager {
 
     /**
      * Updates the level and XP for the user on the specified guild or inserts them into the database if necessary (upsert).
+     * <p>
+     * Waits for running {@link LevelDataManager#updateLevelData} calls of the user, so it isn't overwritten by them.
      *
      * @param user the user
      * @param guild the guild
@@ -168,17 +336,161 @@ public class LevelDataManager {
     public boolean setLevelData(User user, Guild guild, LevelData levelData) {
         if (levelData.level() >= 420) levelData = LevelData.MAX;
 
+        var lock = lockFor(user, guild);
+        lock.lock();
+        try (var connection = databaseManager.getConnection()) {
+            return writeLevelData(connection, user, guild, levelData);
+        } catch (SQLException exception) {
+            logger.error("Couldn't update level data for user {} on guild {}", user.getName(), guild.getId(), exception);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads, modifies and writes the level data of a user, without other updates of the same user in between.
+     * <p>
+     * Updates are serialized with locks striped by guild and user, so updates of different users rarely wait for each other.
+     * This only protects against updates from the same process, which is sufficient as each guild belongs to a single process.
+     *
+     * @param user the user
+     * @param guild the guild
+     * @param updater calculates the new level data from the current one. Returning the current one skips the write
+     * @return the old and new level data, or empty on database failure
+     */
+    public Optional<LevelDataUpdate> updateLevelData(User user, Guild guild, UnaryOperator<LevelData> updater) {
+        var lock = lockFor(user, guild);
+        lock.lock();
+        try (var connection = databaseManager.getConnection()) {
+            var oldLevelData = queryLevelData(connection, user, guild);
+            var newLevelData = updater.apply(oldLevelData);
+            if (newLevelData.level() >= 420) newLevelData = LevelData.MAX;
+
+            if (!newLevelData.equals(oldLevelData) && !writeLevelData(connection, user, guild, newLevelData)) return Optional.empty();
+            return Optional.of(new LevelDataUpdate(oldLevelData, newLevelData));
+        } catch (SQLException exception) {
+            logger.error("Couldn't update level data for user {} on guild {}", user.getName(), guild.getId(), exception);
+            return Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds XP to the user on the specified guild with a single statement, which also recalculates the level.
+     * Equivalent to {@link LevelData#addXP(long)}, including the cap at {@link LevelData#MAX}, but evaluated by the database,
+     * so the XP isn't read first and concurrent grants can't overwrite each other.
+     * <p>
+     * Users at the maximum level are left unchanged.
+     *
+     * @param user the user
+     * @param guild the guild
+     * @param xp the XP amount
+     * @return the old and new level data, or empty on database failure
+     */
+    public Optional<LevelDataUpdate> addXP(User user, Guild guild, long xp) {
+        var insertedLevelData = LevelData.ZERO.addXP(xp);
+
+        // waits for updateLevelData, which would otherwise overwrite the added XP with the value it read before
+        var lock = lockFor(user, guild);
+        lock.lock();
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("INSERT INTO Ranks (guild_id, user_id, level, xp) VALUES (?, ?, ?, ?) ON CONFLICT (guild_id, user_id) DO UPDATE SET level = EXCLUDED.level, xp = EXCLUDED.xp")) {
+            try (var statement = connection.prepareStatement("""
+                    WITH previous AS (
+                        SELECT level, xp FROM Ranks WHERE guild_id = ? AND user_id = ? FOR UPDATE
+                    ), updated AS (
+                        INSERT INTO Ranks AS r (guild_id, user_id, level, xp) VALUES (?, ?, ?, ?)
+                        ON CONFLICT (guild_id, user_id) DO UPDATE SET
+                            level = CASE WHEN r.xp + EXCLUDED.xp >= 72 * r.level::bigint * r.level + 50 * r.level + 100 THEN r.level + 1 ELSE r.level END,
+                            xp = CASE WHEN r.level + 1 >= ? AND r.xp + EXCLUDED.xp >= 72 * r.level::bigint * r.level + 50 * r.level + 100 THEN ? ELSE r.xp + EXCLUDED.xp END
+                        WHERE r.level < ?
+                        RETURNING level, xp
+                    )
+                    SELECT (SELECT level FROM previous) AS old_level, (SELECT xp FROM previous) AS old_xp,
+                           (SELECT level FROM updated) AS new_level, (SELECT xp FROM updated) AS new_xp""")) {
                 statement.setLong(1, guild.getIdLong());
                 statement.setLong(2, user.getIdLong());
-                statement.setInt(3, levelData.level());
-                statement.setLong(4, levelData.xp());
-                return statement.executeUpdate() == 1;
+                statement.setLong(3, guild.getIdLong());
+                statement.setLong(4, user.getIdLong());
+                statement.setInt(5, insertedLevelData.level());
+                statement.setLong(6, insertedLevelData.xp());
+                statement.setInt(7, LevelData.MAX.level());
+                statement.setLong(8, LevelData.MAX.xp());
+                statement.setInt(9, LevelData.MAX.level());
+
+                var resultSet = statement.executeQuery();
+                resultSet.next();
+
+                // no previous row means the user was inserted, no updated row means they're at the maximum level
+                var oldLevelData = LevelData.ZERO;
+                if (resultSet.getObject("old_level", Integer.class) != null) {
+                    oldLevelData = new LevelData(resultSet.getInt("old_level"), resultSet.getLong("old_xp"));
+                }
+
+                var newLevelData = oldLevelData;
+                if (resultSet.getObject("new_level", Integer.class) != null) {
+                    newLevelData = new LevelData(resultSet.getInt("new_level"), resultSet.getLong("new_xp"));
+                }
+
+                if (!newLevelData.equals(oldLevelData)) changeLog.record(guild.getIdLong(), user.getIdLong(), newLevelData);
+                return Optional.of(new LevelDataUpdate(oldLevelData, newLevelData));
             }
         } catch (SQLException exception) {
-            logger.error("Couldn't update level data for user {} on guild {}", user.getName(), guild.getId(), exception);
-            return false;
+            logger.error("Couldn't add XP for user {} on guild {}", user.getName(), guild.getId(), exception);
+            return Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(User user, Guild guild) {
+        return locks[Math.floorMod(Long.hashCode(guild.getIdLong() * 31 + user.getIdLong()), LOCK_STRIPES)];
+    }
+
+    private LevelData queryLevelData(Connection connection, User user, Guild guild) throws SQLException {
+        try (var statement = connection.prepareStatement("SELECT level, xp FROM Ranks WHERE user_id = ? AND guild_id = ?")) {
+            statement.setLong(1, user.getIdLong());
+            statement.setLong(2, guild.getIdLong());
+
+            var resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new LevelData(resultSet.getInt("level"), resultSet.getLong("xp"));
+            } else {
+                return LevelData.ZERO;
+            }
         }
     }
+
+    private boolean writeLevelData(Connection connection, User user, Guild guild, LevelData levelData) throws SQLException {
+        try (var statement = connection.prepareStatement("INSERT INTO Ranks (guild_id, user_id, level, xp) VALUES (?, ?, ?, ?) ON CONFLICT (guild_id, user_id) DO UPDATE SET level = EXCLUDED.level, xp = EXCLUDED.xp")) {
+            statement.setLong(1, guild.getIdLong());
+            statement.setLong(2, user.getIdLong());
+            statement.setInt(3, levelData.level());
+            statement.setLong(4, levelData.xp());
+            if (statement.executeUpdate() != 1) return false;
+
+            changeLog.record(guild.getIdLong(), user.getIdLong(), levelData);
+            return true;
+        }
+    }
+
+    /**
+     * The cached leaderboards of the guilds, which the queries for the position of users are served from.
+     *
+     * @return the leaderboard cache
+     */
+    public LeaderboardCache leaderboardCache() {
+        return leaderboardCache;
+    }
+
+    /**
+     * The level data written by this class, for updating cached leaderboards.
+     *
+     * @return the change log
+     * @see LeaderboardCache
+     */
+    LeaderboardChangeLog changeLog() {
+        return changeLog;
+    }
 }
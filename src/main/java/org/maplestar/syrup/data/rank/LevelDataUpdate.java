@@ -0,0 +1,18 @@
+package org.maplestar.syrup.data.rank;
+
+/**
+ * The result of an update of a user's level data, see {@link LevelDataManager#updateLevelData}.
+ *
+ * @param oldLevelData the level data before the update
+ * @param newLevelData the level data after the update
+ */
+public record LevelDataUpdate(LevelData oldLevelData, LevelData newLevelData) {
+    /**
+     * Checks whether the update changed the user's level, in which case the level roles need to be updated.
+     *
+     * @return true if the level changed
+     */
+    public boolean levelChanged() {
+        return oldLevelData.level() != newLevelData.level();
+    }
+}
@@ -0,0 +1,30 @@
+package org.maplestar.syrup.data.rank;
+
+/**
+ * Describes where a user stands on the leaderboard relative to the other users.
+ *
+ * @param percentile the percentage of users with less XP, from 0 to 100
+ * @param nextRank the rank the user reaches by catching up to the users right above them, 0 if they're already first
+ * @param xpToNextRank the XP the user needs to reach the next rank, 0 if they're already first
+ * @see LeaderboardSnapshot#getRankPosition(long)
+ * @see LevelDataManager#getRankPosition
+ */
+public record RankPosition(double percentile, int nextRank, long xpToNextRank) {
+    /**
+     * Checks whether no user has more XP.
+     *
+     * @return true if the user is first on the leaderboard
+     */
+    public boolean isFirst() {
+        return nextRank == 0;
+    }
+
+    /**
+     * Returns the share of users the user belongs to at the top of the leaderboard, e.g. 5 for the top 5%.
+     *
+     * @return the percentage, from 1 to 100
+     */
+    public int topPercent() {
+        return (int) Math.clamp(Math.ceil(100 - percentile), 1, 100);
+    }
+}
@@ -11,13 +11,19 @@ import java.time.OffsetDateTime;
  *
  * @param id the reminder's ID. May be set to any number when initializing this object
  * @param userID the user ID
+ * @param guildID the ID of the guild this reminder was created in, 0 for direct messages or {@link Reminder#UNKNOWN_GUILD}
  * @param time the date and time this reminder is due at
  * @param message the message of the reminder, may be null
  * @param channelID the channel this reminder was created in
  * @see org.maplestar.syrup.commands.RemindMeCommand
  * @see org.maplestar.syrup.executors.ReminderExecutor
  */
-public record Reminder(int id, long userID, LocalDateTime time, @Nullable String message, long channelID) implements Comparable<Reminder> {
+public record Reminder(int id, long userID, long guildID, LocalDateTime time, @Nullable String message, long channelID) implements Comparable<Reminder> {
+    /**
+     * The guild ID of reminders created before guilds were stored. These may be sent by any process.
+     */
+    public static final long UNKNOWN_GUILD = -1;
+
     /**
      * Converts this reminder's end time to epoch seconds.
      *
@@ -43,7 +49,16 @@ public record Reminder(int id, long userID, LocalDateTime time, @Nullable String
      * @return the new reminder
      */
     public Reminder withID(int id) {
-        return new Reminder(id, userID, time, message, channelID);
+        return new Reminder(id, userID, guildID, time, message, channelID);
+    }
+
+    /**
+     * Checks whether the guild this reminder was created in is known.
+     *
+     * @return false if this reminder was created before guilds were stored
+     */
+    public boolean hasKnownGuild() {
+        return guildID != UNKNOWN_GUILD;
     }
 
     @Override
@@ -1,10 +1,12 @@
 package org.maplestar.syrup.data.reminder;
 
 import net.dv8tion.jda.api.entities.User;
+import org.maplestar.syrup.config.ShardRange;
 import org.maplestar.syrup.data.DatabaseManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.*;
@@ -15,37 +17,37 @@ import java.util.*;
 public class ReminderDataManager {
     private final Logger logger = LoggerFactory.getLogger(ReminderDataManager.class);
     private final DatabaseManager databaseManager;
+    private final ShardRange shardRange;
     private final SortedSet<Reminder> reminderCache = new TreeSet<>();
 
     /**
      * Initializes this class.
      *
      * @param databaseManager the database manager
+     * @param shardRange the shards owned by this process, only their reminders are loaded
      */
-    public ReminderDataManager(DatabaseManager databaseManager) {
+    public ReminderDataManager(DatabaseManager databaseManager, ShardRange shardRange) {
         this.databaseManager = databaseManager;
+        this.shardRange = shardRange;
 
         loadReminders();
     }
 
     /**
-     * Loads all active reminders from the database into memory.
+     * Loads all active reminders of guilds on the owned shards from the database into memory.
+     * <p>
+     * Reminders without a known guild are loaded by every process, see {@link ReminderDataManager#claimReminder(Reminder)}.
      */
     private void loadReminders() {
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("SELECT * FROM Reminders")) {
-                var resultSet = statement.executeQuery();
+            try (var statement = connection.prepareStatement("SELECT * FROM Reminders WHERE guild_id IS NULL OR ((guild_id >> 22) % ?) BETWEEN ? AND ?")) {
+                statement.setInt(1, shardRange.total());
+                statement.setInt(2, shardRange.first());
+                statement.setInt(3, shardRange.last());
 
+                var resultSet = statement.executeQuery();
                 while (resultSet.next()) {
-                    var reminder = new Reminder(
-                            resultSet.getInt("id"),
-                            resultSet.getLong("user_id"),
-                            resultSet.getTimestamp("time").toLocalDateTime(),
-                            resultSet.getString("message"),
-                            resultSet.getLong("channel_id")
-                    );
-
-                    reminderCache.add(reminder);
+                    reminderCache.add(toReminder(resultSet));
                 }
             }
         } catch (SQLException exception) {
@@ -53,6 +55,20 @@ public class ReminderDataManager {
         }
     }
 
+    private Reminder toReminder(ResultSet resultSet) throws SQLException {
+        long guildID = resultSet.getLong("guild_id");
+        if (resultSet.wasNull()) guildID = Reminder.UNKNOWN_GUILD;
+
+        return new Reminder(
+                resultSet.getInt("id"),
+                resultSet.getLong("user_id"),
+                guildID,
+                resultSet.getTimestamp("time").toLocalDateTime(),
+                resultSet.getString("message"),
+                resultSet.getLong("channel_id")
+        );
+    }
+
     /**
      * Returns the reminder with the specified ID.
      * Empty if the reminder doesn't exist or already expired.
@@ -68,15 +84,7 @@ public class ReminderDataManager {
                 var resultSet = statement.executeQuery();
                 if (!resultSet.next()) return Optional.empty();
 
-                Reminder reminder = new Reminder(
-                        resultSet.getInt("id"),
-                        resultSet.getLong("user_id"),
-                        resultSet.getTimestamp("time").toLocalDateTime(),
-                        resultSet.getString("message"),
-                        resultSet.getLong("channel_id")
-                );
-
-                return Optional.of(reminder);
+                return Optional.of(toReminder(resultSet));
             }
         } catch (SQLException exception) {
             logger.error("Couldn't fetch reminder with id {}", id, exception);
@@ -104,14 +112,7 @@ public class ReminderDataManager {
 
                 var resultSet = statement.executeQuery();
                 while (resultSet.next()) {
-                    Reminder reminder = new Reminder(
-                            resultSet.getInt("id"),
-                            resultSet.getLong("user_id"),
-                            resultSet.getTimestamp("time").toLocalDateTime(),
-                            resultSet.getString("message"),
-                            resultSet.getLong("channel_id")
-                    );
-                    result.add(reminder);
+                    result.add(toReminder(resultSet));
                 }
 
                 return result;
@@ -162,11 +163,12 @@ public class ReminderDataManager {
      */
     public boolean addReminder(Reminder reminder) {
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("INSERT INTO Reminders (user_id, time, message, channel_id) VALUES (?, ?, ?, ?) RETURNING id")) {
+            try (var statement = connection.prepareStatement("INSERT INTO Reminders (user_id, guild_id, time, message, channel_id) VALUES (?, ?, ?, ?, ?) RETURNING id")) {
                 statement.setLong(1, reminder.userID());
-                statement.setTimestamp(2, new Timestamp(reminder.timeInMillis()));
-                statement.setString(3, reminder.message());
-                statement.setLong(4, reminder.channelID());
+                statement.setLong(2, reminder.guildID());
+                statement.setTimestamp(3, new Timestamp(reminder.timeInMillis()));
+                statement.setString(4, reminder.message());
+                statement.setLong(5, reminder.channelID());
 
                 var resultSet = statement.executeQuery();
                 if (!resultSet.next()) return false;
@@ -179,6 +181,39 @@ public class ReminderDataManager {
         }
     }
 
+    /**
+     * Claims the provided reminder so it can be sent, by deleting it from the cache and database.
+     * <p>
+     * Only one process can successfully claim a reminder, which prevents reminders from being sent twice
+     * if multiple processes have loaded it.
+     *
+     * @param reminder the reminder to claim
+     * @return true if this process claimed the reminder, false if it was already claimed or on database failure
+     */
+    public boolean claimReminder(Reminder reminder) {
+        reminderCache.remove(reminder);
+
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("DELETE FROM Reminders WHERE id = ?")) {
+                statement.setInt(1, reminder.id());
+                return statement.executeUpdate() == 1;
+            }
+        } catch (SQLException exception) {
+            logger.error("Couldn't claim reminder {}", reminder, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Removes the provided reminder from the cache without deleting it from the database,
+     * so that it can be sent by the process owning its channel instead.
+     *
+     * @param reminder the reminder to forget
+     */
+    public void forgetReminder(Reminder reminder) {
+        reminderCache.remove(reminder);
+    }
+
     /**
      * Deletes the provided reminder from the cache and database.
      * Has no effect when the reminder doesn't exist.
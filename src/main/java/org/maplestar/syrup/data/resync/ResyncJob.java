@@ -0,0 +1,54 @@
+package org.maplestar.syrup.data.resync;
+
+/**
+ * Represents the progress of a guild-wide level role resync, see {@link org.maplestar.syrup.executors.RoleResyncExecutor}.
+ *
+ * @param guildID the ID of the guild whose members are resynced
+ * @param lastUserID the ID of the last user that has been processed, members are processed in order of their IDs
+ * @param processed the number of users that have been processed
+ * @param total the number of users with a rank when the resync was started
+ * @param paused whether the resync has been paused
+ */
+public record ResyncJob(long guildID, long lastUserID, int processed, int total, boolean paused) {
+    /**
+     * Creates a new resync job that starts at the first user.
+     *
+     * @param guildID the guild ID
+     * @param total the number of users with a rank on the guild
+     * @return the new resync job
+     */
+    public static ResyncJob start(long guildID, int total) {
+        return new ResyncJob(guildID, 0, 0, total, false);
+    }
+
+    /**
+     * Marks the provided number of users as processed.
+     *
+     * @param lastUserID the ID of the last user that has been processed
+     * @param count the number of users that have been processed since the last checkpoint
+     * @return the updated resync job
+     */
+    public ResyncJob advance(long lastUserID, int count) {
+        return new ResyncJob(guildID, lastUserID, processed + count, Math.max(total, processed + count), paused);
+    }
+
+    /**
+     * Updates whether the resync has been paused.
+     *
+     * @param value true if the resync should be paused
+     * @return the updated resync job
+     */
+    public ResyncJob setPaused(boolean value) {
+        return new ResyncJob(guildID, lastUserID, processed, total, value);
+    }
+
+    /**
+     * Calculates the progress of the resync.
+     *
+     * @return the progress in percent, between 0 and 100
+     */
+    public int progressPercent() {
+        if (total <= 0) return 100;
+        return (int) Math.min(100, processed * 100L / total);
+    }
+}
@@ -0,0 +1,97 @@
+package org.maplestar.syrup.data.resync;
+
+import org.maplestar.syrup.data.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides access to the checkpoints of guild-wide level role resyncs, so they can be resumed after a restart.
+ */
+public class ResyncJobDataManager {
+    private final Logger logger = LoggerFactory.getLogger(ResyncJobDataManager.class);
+    private final DatabaseManager databaseManager;
+
+    /**
+     * Initializes the class.
+     *
+     * @param databaseManager the database manager for database access
+     */
+    public ResyncJobDataManager(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Returns all unfinished resync jobs, including paused ones.
+     *
+     * @return a list of resync jobs. May be empty or immutable
+     */
+    public List<ResyncJob> getJobs() {
+        List<ResyncJob> jobs = new ArrayList<>();
+
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("SELECT guild_id, last_user_id, processed, total, paused FROM RoleResyncJobs")) {
+                var resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    jobs.add(new ResyncJob(
+                            resultSet.getLong("guild_id"),
+                            resultSet.getLong("last_user_id"),
+                            resultSet.getInt("processed"),
+                            resultSet.getInt("total"),
+                            resultSet.getBoolean("paused")
+                    ));
+                }
+            }
+        } catch (SQLException exception) {
+            logger.error("Failed to load resync jobs", exception);
+            return List.of();
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Saves the progress of the resync job or inserts it into the database if necessary (upsert).
+     *
+     * @param job the resync job
+     * @return false on database failure, otherwise true
+     */
+    public boolean saveJob(ResyncJob job) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("INSERT INTO RoleResyncJobs (guild_id, last_user_id, processed, total, paused) VALUES (?, ?, ?, ?, ?) ON CONFLICT (guild_id) DO UPDATE SET last_user_id = EXCLUDED.last_user_id, processed = EXCLUDED.processed, total = EXCLUDED.total, paused = EXCLUDED.paused")) {
+                statement.setLong(1, job.guildID());
+                statement.setLong(2, job.lastUserID());
+                statement.setInt(3, job.processed());
+                statement.setInt(4, job.total());
+                statement.setBoolean(5, job.paused());
+                return statement.executeUpdate() == 1;
+            }
+        } catch (SQLException exception) {
+            logger.error("Failed to save resync job {}", job, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the resync job of the guild, e.g. because it finished.
+     * Has no effect when there is no resync job.
+     *
+     * @param guildID the guild ID
+     * @return false on database failure, otherwise true
+     */
+    public boolean deleteJob(long guildID) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("DELETE FROM RoleResyncJobs WHERE guild_id = ?")) {
+                statement.setLong(1, guildID);
+                statement.executeUpdate();
+                return true;
+            }
+        } catch (SQLException exception) {
+            logger.error("Failed to delete resync job for guild {}", guildID, exception);
+            return false;
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package org.maplestar.syrup.data.settings;
 
+import java.time.Duration;
+
 /**
  * Represents the settings of a single guild.
  *
  * @param removeOldRoles whether level roles should be removed when a user acquires a higher one
  * @param addOnRejoin whether level roles should be added back when a user re-joins the server
+ * @param leaderboardStaleness how outdated the leaderboard may be, zero to always query the current one
  */
-public record GuildSettings(boolean removeOldRoles, boolean addOnRejoin) {
+public record GuildSettings(boolean removeOldRoles, boolean addOnRejoin, Duration leaderboardStaleness) {
     /**
      * The default guild settings to be used for new guilds and in case of database failure.
      */
-    public static final GuildSettings DEFAULT = new GuildSettings(true, true);
+    public static final GuildSettings DEFAULT = new GuildSettings(true, true, Duration.ZERO);
 
     /**
      * Updates whether level roles should be removed when a user acquires a higher one.
@@ -19,7 +22,7 @@ public record GuildSettings(boolean removeOldRoles, boolean addOnRejoin) {
      * @return the updated guild settings
      */
     public GuildSettings setRemoveOldRoles(boolean value) {
-        return new GuildSettings(value, this.addOnRejoin);
+        return new GuildSettings(value, this.addOnRejoin, this.leaderboardStaleness);
     }
 
     /**
@@ -29,6 +32,17 @@ public record GuildSettings(boolean removeOldRoles, boolean addOnRejoin) {
      * @return whether level roles should be added back when a user re-joins the server
      */
     public GuildSettings setAddOnRejoin(boolean value) {
-        return new GuildSettings(this.removeOldRoles, value);
+        return new GuildSettings(this.removeOldRoles, value, this.leaderboardStaleness);
+    }
+
+    /**
+     * Updates how outdated the leaderboard may be. Allowing outdated leaderboards lets them be cached,
+     * which makes them faster for large guilds.
+     *
+     * @param value the staleness, zero to always query the current leaderboard
+     * @return the updated guild settings
+     */
+    public GuildSettings setLeaderboardStaleness(Duration value) {
+        return new GuildSettings(this.removeOldRoles, this.addOnRejoin, value);
     }
 }
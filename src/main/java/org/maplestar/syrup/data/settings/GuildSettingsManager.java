@@ -6,13 +6,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides access to the settings for each individual Discord guild.
+ * <p>
+ * Settings are cached after they've been loaded once, as they're only changed through this class.
  */
 public class GuildSettingsManager {
     private final Logger logger = LoggerFactory.getLogger(GuildSettingsManager.class);
     private final DatabaseManager databaseManager;
+    private final Map<Long, GuildSettings> settingsCache = new ConcurrentHashMap<>();
 
     /**
      * Initializes the class.
@@ -30,16 +36,25 @@ public class GuildSettingsManager {
      * @return the settings for the guild or the default settings on database failure
      */
     public GuildSettings getSettings(Guild guild) {
+        var cachedSettings = settingsCache.get(guild.getIdLong());
+        if (cachedSettings != null) return cachedSettings;
+
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("SELECT remove_old_roles, add_on_join FROM GuildSettings WHERE guild_id = ?")) {
+            try (var statement = connection.prepareStatement("SELECT remove_old_roles, add_on_join, leaderboard_staleness_seconds FROM GuildSettings WHERE guild_id = ?")) {
                 statement.setLong(1, guild.getIdLong());
 
                 var resultSet = statement.executeQuery();
+                var settings = GuildSettings.DEFAULT;
                 if (resultSet.next()) {
-                    return new GuildSettings(resultSet.getBoolean("remove_old_roles"), resultSet.getBoolean("add_on_join"));
-                } else {
-                    return GuildSettings.DEFAULT;
+                    settings = new GuildSettings(
+                            resultSet.getBoolean("remove_old_roles"),
+                            resultSet.getBoolean("add_on_join"),
+                            Duration.ofSeconds(resultSet.getLong("leaderboard_staleness_seconds"))
+                    );
                 }
+
+                settingsCache.put(guild.getIdLong(), settings);
+                return settings;
             }
         } catch (SQLException exception) {
             logger.error("Failed to access guild settings for guild {}", guild.getName(), exception);
@@ -56,11 +71,14 @@ public class GuildSettingsManager {
      */
     public boolean setSettings(Guild guild, GuildSettings guildSettings) {
         try (var connection = databaseManager.getConnection()) {
-            try (var statement = connection.prepareStatement("INSERT INTO GuildSettings (guild_id, remove_old_roles, add_on_join) VALUES (?, ?, ?) ON CONFLICT (guild_id) DO UPDATE SET remove_old_roles = EXCLUDED.remove_old_roles, add_on_join = EXCLUDED.add_on_join")) {
+            try (var statement = connection.prepareStatement("INSERT INTO GuildSettings (guild_id, remove_old_roles, add_on_join, leaderboard_staleness_seconds) VALUES (?, ?, ?, ?) ON CONFLICT (guild_id) DO UPDATE SET remove_old_roles = EXCLUDED.remove_old_roles, add_on_join = EXCLUDED.add_on_join, leaderboard_staleness_seconds = EXCLUDED.leaderboard_staleness_seconds")) {
                 statement.setLong(1, guild.getIdLong());
                 statement.setBoolean(2, guildSettings.removeOldRoles());
                 statement.setBoolean(3, guildSettings.addOnRejoin());
-                return statement.executeUpdate() == 1;
+                statement.setLong(4, guildSettings.leaderboardStaleness().toSeconds());
+                var updated = statement.executeUpdate() == 1;
+                settingsCache.remove(guild.getIdLong());
+                return updated;
             }
         } catch (SQLException exception) {
             logger.error("Failed to set guild settings for guild {}", guild.getName(), exception);
@@ -0,0 +1,23 @@
+package org.maplestar.syrup.data.xppolicy;
+
+import java.time.Instant;
+
+/**
+ * Represents a timed XP boost of a guild, e.g. a double XP weekend.
+ *
+ * @param id the boost's ID. May be set to any number when initializing this object
+ * @param start the time the boost starts at
+ * @param end the time the boost ends at
+ * @param multiplier the multiplier applied to all XP gained while the boost is active
+ */
+public record XPBoost(int id, Instant start, Instant end, double multiplier) {
+    /**
+     * Checks whether the boost is active at the provided time.
+     *
+     * @param timeMillis the time in epoch milliseconds
+     * @return true if the boost has started and hasn't ended yet
+     */
+    public boolean isActive(long timeMillis) {
+        return start.toEpochMilli() <= timeMillis && timeMillis < end.toEpochMilli();
+    }
+}
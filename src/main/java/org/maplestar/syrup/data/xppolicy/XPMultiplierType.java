@@ -0,0 +1,9 @@
+package org.maplestar.syrup.data.xppolicy;
+
+/**
+ * The kind of target an XP multiplier applies to, see {@link XPPolicy}.
+ */
+public enum XPMultiplierType {
+    CHANNEL,
+    ROLE
+}
@@ -0,0 +1,109 @@
+package org.maplestar.syrup.data.xppolicy;
+
+import net.dv8tion.jda.api.entities.ISnowflake;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * Represents the rules of a single guild for how much XP a message grants.
+ * <p>
+ * Instances are immutable, so they can be cached and evaluated for every message without any database queries.
+ *
+ * @param minXP the minimum XP granted per message, before multipliers
+ * @param maxXP the maximum XP granted per message, before multipliers
+ * @param cooldown the time after a message in which further messages of the same member don't grant XP
+ * @param channelMultipliers the multipliers for messages in specific channels by channel ID
+ * @param roleMultipliers the multipliers for members with specific roles by role ID, only the highest one of a member applies
+ * @param boosts the timed boosts, which apply to all messages while they're active
+ */
+public record XPPolicy(int minXP, int maxXP, Duration cooldown, Map<Long, Double> channelMultipliers,
+                       Map<Long, Double> roleMultipliers, List<XPBoost> boosts) {
+    /**
+     * The most XP a single message can grant after multipliers, which ensures that a message never skips a level.
+     */
+    public static final int MAX_XP_PER_MESSAGE = 100;
+    /**
+     * The highest multiplier that can be configured for a channel, role or boost.
+     */
+    public static final double MAX_MULTIPLIER = 10;
+    /**
+     * The default policy to be used for new guilds and in case of database failure.
+     */
+    public static final XPPolicy DEFAULT = new XPPolicy(15, 30, Duration.ofSeconds(10), Map.of(), Map.of(), List.of());
+
+    public XPPolicy {
+        channelMultipliers = Map.copyOf(channelMultipliers);
+        roleMultipliers = Map.copyOf(roleMultipliers);
+        boosts = List.copyOf(boosts);
+    }
+
+    /**
+     * Calculates the multiplier for a message, which is the channel's multiplier times the member's highest role multiplier
+     * times the multipliers of all active boosts.
+     *
+     * @param channelID the ID of the channel the message was sent in
+     * @param roles the roles of the author
+     * @param timeMillis the time the message was sent at in epoch milliseconds
+     * @return the multiplier, 1 if no rules apply
+     */
+    public double multiplier(long channelID, List<? extends ISnowflake> roles, long timeMillis) {
+        double multiplier = channelMultipliers.getOrDefault(channelID, 1.0);
+
+        if (!roleMultipliers.isEmpty()) {
+            double highestRoleMultiplier = -1;
+            for (var role : roles) {
+                var roleMultiplier = roleMultipliers.get(role.getIdLong());
+                if (roleMultiplier != null && roleMultiplier > highestRoleMultiplier) highestRoleMultiplier = roleMultiplier;
+            }
+            if (highestRoleMultiplier >= 0) multiplier *= highestRoleMultiplier;
+        }
+
+        for (var boost : boosts) {
+            if (boost.isActive(timeMillis)) multiplier *= boost.multiplier();
+        }
+
+        return multiplier;
+    }
+
+    /**
+     * Rolls the XP for a message within the base range and applies the multiplier,
+     * see {@link XPPolicy#multiplier(long, List, long)}.
+     *
+     * @param random the random number generator
+     * @param channelID the ID of the channel the message was sent in
+     * @param roles the roles of the author
+     * @param timeMillis the time the message was sent at in epoch milliseconds
+     * @return the XP amount, at most {@value MAX_XP_PER_MESSAGE}
+     */
+    public int rollXP(RandomGenerator random, long channelID, List<? extends ISnowflake> roles, long timeMillis) {
+        int baseXP = random.nextInt(minXP, maxXP + 1);
+        double multiplier = multiplier(channelID, roles, timeMillis);
+        if (multiplier == 1) return baseXP;
+
+        return (int) Math.min(MAX_XP_PER_MESSAGE, Math.round(baseXP * multiplier));
+    }
+
+    /**
+     * Updates the range of XP granted per message, before multipliers.
+     *
+     * @param minXP the minimum XP
+     * @param maxXP the maximum XP
+     * @return the updated policy
+     */
+    public XPPolicy setRange(int minXP, int maxXP) {
+        return new XPPolicy(minXP, maxXP, cooldown, channelMultipliers, roleMultipliers, boosts);
+    }
+
+    /**
+     * Updates the time after a message in which further messages of the same member don't grant XP.
+     *
+     * @param cooldown the cooldown
+     * @return the updated policy
+     */
+    public XPPolicy setCooldown(Duration cooldown) {
+        return new XPPolicy(minXP, maxXP, cooldown, channelMultipliers, roleMultipliers, boosts);
+    }
+}
@@ -0,0 +1,209 @@
+package org.maplestar.syrup.data.xppolicy;
+
+import net.dv8tion.jda.api.entities.Guild;
+import org.maplestar.syrup.data.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides access to the XP policy of each individual Discord guild, see {@link XPPolicy}.
+ * <p>
+ * The policy of a guild is loaded into a single immutable {@link XPPolicy} and cached,
+ * as it's only changed through this class and needed for every message.
+ */
+public class XPPolicyDataManager {
+    private final Logger logger = LoggerFactory.getLogger(XPPolicyDataManager.class);
+    private final DatabaseManager databaseManager;
+    private final Map<Long, XPPolicy> policyCache = new ConcurrentHashMap<>();
+
+    /**
+     * Initializes the class.
+     *
+     * @param databaseManager the database manager for database access
+     */
+    public XPPolicyDataManager(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Returns the XP policy of the provided guild, including its multipliers and boosts that haven't ended yet.
+     *
+     * @param guild the guild
+     * @return the policy of the guild or the default policy on database failure
+     */
+    public XPPolicy getPolicy(Guild guild) {
+        var cachedPolicy = policyCache.get(guild.getIdLong());
+        if (cachedPolicy != null) return cachedPolicy;
+
+        try (var connection = databaseManager.getConnection()) {
+            var policy = loadPolicy(connection, guild.getIdLong());
+            policyCache.put(guild.getIdLong(), policy);
+            return policy;
+        } catch (SQLException exception) {
+            logger.error("Failed to access XP policy for guild {}", guild.getName(), exception);
+            return XPPolicy.DEFAULT;
+        }
+    }
+
+    private XPPolicy loadPolicy(Connection connection, long guildID) throws SQLException {
+        var policy = XPPolicy.DEFAULT;
+        try (var statement = connection.prepareStatement("SELECT min_xp, max_xp, cooldown_seconds FROM XPPolicies WHERE guild_id = ?")) {
+            statement.setLong(1, guildID);
+
+            var resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                policy = policy.setRange(resultSet.getInt("min_xp"), resultSet.getInt("max_xp"))
+                        .setCooldown(Duration.ofSeconds(resultSet.getLong("cooldown_seconds")));
+            }
+        }
+
+        Map<Long, Double> channelMultipliers = new HashMap<>();
+        Map<Long, Double> roleMultipliers = new HashMap<>();
+        try (var statement = connection.prepareStatement("SELECT target_id, type, multiplier FROM XPMultipliers WHERE guild_id = ?")) {
+            statement.setLong(1, guildID);
+
+            var resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                var multipliers = switch (XPMultiplierType.valueOf(resultSet.getString("type"))) {
+                    case CHANNEL -> channelMultipliers;
+                    case ROLE -> roleMultipliers;
+                };
+                multipliers.put(resultSet.getLong("target_id"), resultSet.getDouble("multiplier"));
+            }
+        }
+
+        List<XPBoost> boosts = new ArrayList<>();
+        try (var statement = connection.prepareStatement("SELECT id, start_time, end_time, multiplier FROM XPBoosts WHERE guild_id = ? AND end_time > now() ORDER BY start_time")) {
+            statement.setLong(1, guildID);
+
+            var resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                boosts.add(new XPBoost(
+                        resultSet.getInt("id"),
+                        resultSet.getTimestamp("start_time").toInstant(),
+                        resultSet.getTimestamp("end_time").toInstant(),
+                        resultSet.getDouble("multiplier")
+                ));
+            }
+        }
+
+        return new XPPolicy(policy.minXP(), policy.maxXP(), policy.cooldown(), channelMultipliers, roleMultipliers, boosts);
+    }
+
+    /**
+     * Updates the XP range and cooldown of the provided guild or inserts them into the database if necessary (upsert).
+     * Multipliers and boosts are updated separately.
+     *
+     * @param guild the guild
+     * @param policy the policy with the new XP range and cooldown
+     * @return false if the update was unsuccessful or on database failure, otherwise true
+     */
+    public boolean setPolicy(Guild guild, XPPolicy policy) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("INSERT INTO XPPolicies (guild_id, min_xp, max_xp, cooldown_seconds) VALUES (?, ?, ?, ?) ON CONFLICT (guild_id) DO UPDATE SET min_xp = EXCLUDED.min_xp, max_xp = EXCLUDED.max_xp, cooldown_seconds = EXCLUDED.cooldown_seconds")) {
+                statement.setLong(1, guild.getIdLong());
+                statement.setInt(2, policy.minXP());
+                statement.setInt(3, policy.maxXP());
+                statement.setLong(4, policy.cooldown().toSeconds());
+                var updated = statement.executeUpdate() == 1;
+                policyCache.remove(guild.getIdLong());
+                return updated;
+            }
+        } catch (SQLException exception) {
+            logger.error("Failed to set XP policy for guild {}", guild.getName(), exception);
+            return false;
+        }
+    }
+
+    /**
+     * Sets the XP multiplier of a channel or role on the provided guild. A multiplier of 1 removes it.
+     *
+     * @param guild the guild
+     * @param type whether the target is a channel or a role
+     * @param targetID the ID of the channel or role
+     * @param multiplier the multiplier
+     * @return false if the update was unsuccessful or on database failure, otherwise true
+     */
+    public boolean setMultiplier(Guild guild, XPMultiplierType type, long targetID, double multiplier) {
+        try (var connection = databaseManager.getConnection()) {
+            if (multiplier == 1) {
+                try (var statement = connection.prepareStatement("DELETE FROM XPMultipliers WHERE guild_id = ? AND target_id = ?")) {
+                    statement.setLong(1, guild.getIdLong());
+                    statement.setLong(2, targetID);
+                    statement.executeUpdate();
+                }
+            } else {
+                try (var statement = connection.prepareStatement("INSERT INTO XPMultipliers (guild_id, target_id, type, multiplier) VALUES (?, ?, ?, ?) ON CONFLICT (guild_id, target_id) DO UPDATE SET type = EXCLUDED.type, multiplier = EXCLUDED.multiplier")) {
+                    statement.setLong(1, guild.getIdLong());
+                    statement.setLong(2, targetID);
+                    statement.setString(3, type.name());
+                    statement.setDouble(4, multiplier);
+                    statement.executeUpdate();
+                }
+            }
+
+            policyCache.remove(guild.getIdLong());
+            return true;
+        } catch (SQLException exception) {
+            logger.error("Failed to set XP multiplier for {} {} in guild {}", type, targetID, guild.getName(), exception);
+            return false;
+        }
+    }
+
+    /**
+     * Adds a timed XP boost to the provided guild.
+     *
+     * @param guild the guild
+     * @param boost the boost, its ID is ignored
+     * @return false if the update was unsuccessful or on database failure, otherwise true
+     */
+    public boolean addBoost(Guild guild, XPBoost boost) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("INSERT INTO XPBoosts (guild_id, start_time, end_time, multiplier) VALUES (?, ?, ?, ?)")) {
+                statement.setLong(1, guild.getIdLong());
+                statement.setTimestamp(2, Timestamp.from(boost.start()));
+                statement.setTimestamp(3, Timestamp.from(boost.end()));
+                statement.setDouble(4, boost.multiplier());
+                var updated = statement.executeUpdate() == 1;
+                policyCache.remove(guild.getIdLong());
+                return updated;
+            }
+        } catch (SQLException exception) {
+            logger.error("Failed to add XP boost for guild {}", guild.getName(), exception);
+            return false;
+        }
+    }
+
+    /**
+     * Removes a timed XP boost from the provided guild, so it ends immediately or doesn't start at all.
+     *
+     * @param guild the guild
+     * @param id the ID of the boost
+     * @return whether the boost existed, or empty on database failure
+     */
+    public Optional<Boolean> removeBoost(Guild guild, int id) {
+        try (var connection = databaseManager.getConnection()) {
+            try (var statement = connection.prepareStatement("DELETE FROM XPBoosts WHERE guild_id = ? AND id = ?")) {
+                statement.setLong(1, guild.getIdLong());
+                statement.setInt(2, id);
+                var removed = statement.executeUpdate() == 1;
+                policyCache.remove(guild.getIdLong());
+                return Optional.of(removed);
+            }
+        } catch (SQLException exception) {
+            logger.error("Failed to remove XP boost {} for guild {}", id, guild.getName(), exception);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.maplestar.syrup.executors;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.User;
+import org.jetbrains.annotations.Nullable;
+import org.maplestar.syrup.commands.RankCommand;
+import org.maplestar.syrup.data.rank.LeaderboardCache;
+import org.maplestar.syrup.data.rank.LevelDataManager;
+import org.maplestar.syrup.data.rank.RankPosition;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Metrics;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQuality;
+import org.maplestar.syrup.utils.RenderQualityController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Renders the rank card of a member in the background after they leveled up, since most members run /rank right after.
+ * The card is cached for a short time, so the /rank that follows can be answered without downloading or drawing anything.
+ * <p>
+ * Pre-rendering is only worth it if it doesn't slow down the renders that were actually requested, so it's skipped
+ * while anything is being rendered, and runs on a single thread. While it runs, it counts as a background render
+ * for {@link RenderQualityController}, so the requested renders take it into account. Every guild may only have a few
+ * pre-renders pending at once, so a busy guild doesn't take up the whole queue. It also never loads a leaderboard:
+ * guilds that cache theirs are only pre-rendered for while a recent enough snapshot is in memory.
+ * A cached card is only used if everything on it is still the same.
+ */
+public class RankPrerenderExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(RankPrerenderExecutor.class);
+    private static final Counter prerenders = Metrics.counter("syrup_rank_prerenders_total",
+            "Rank cards rendered in advance after a level-up, or why they weren't", "result");
+    private static final Counter lookups = Metrics.counter("syrup_rank_prerender_lookups_total",
+            "Lookups of rank cards rendered in advance by /rank", "result");
+
+    // a card is about 150 KB, and the avatar or banner may have changed since it was rendered
+    private static final int MAX_CACHED_CARDS = 64;
+    private static final Duration MAX_AGE = Duration.ofMinutes(2);
+    private static final int MAX_PENDING = 16;
+    private static final int MAX_PENDING_PER_GUILD = 2;
+
+    private final LevelDataManager levelDataManager;
+    private final GuildSettingsManager guildSettingsManager;
+    private final LeaderboardCache leaderboardCache;
+    private final RenderQualityController renderQualityController;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_PENDING),
+            Thread.ofPlatform().name("rank-prerender").daemon().factory());
+    private final Set<MemberKey> pendingMembers = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Integer> pendingPerGuild = new ConcurrentHashMap<>();
+    private final Map<MemberKey, PrerenderedCard> cards = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MemberKey, PrerenderedCard> eldest) {
+            return size() > MAX_CACHED_CARDS;
+        }
+    });
+
+    /**
+     * Initializes the class.
+     *
+     * @param levelDataManager the level data manager
+     * @param guildSettingsManager the guild settings manager, for how outdated the leaderboard may be
+     * @param leaderboardCache the leaderboard cache, whose snapshots provide the percentile and the XP to the next rank
+     * @param renderQualityController the render quality controller, which tells whether rendering is idle
+     */
+    public RankPrerenderExecutor(LevelDataManager levelDataManager, GuildSettingsManager guildSettingsManager,
+                                 LeaderboardCache leaderboardCache, RenderQualityController renderQualityController) {
+        this.levelDataManager = levelDataManager;
+        this.guildSettingsManager = guildSettingsManager;
+        this.leaderboardCache = leaderboardCache;
+        this.renderQualityController = renderQualityController;
+    }
+
+    /**
+     * Schedules the rank card of a member who just leveled up to be rendered in advance,
+     * unless rendering is busy or the guild already has enough pre-renders pending.
+     *
+     * @param guild the guild
+     * @param user the member
+     */
+    public void submit(Guild guild, User user) {
+        if (!renderQualityController.isIdle()) {
+            prerenders.labels("skipped_busy").inc();
+            return;
+        }
+
+        var key = new MemberKey(guild.getIdLong(), user.getIdLong());
+        if (!pendingMembers.add(key)) return;
+
+        boolean[] reserved = new boolean[1];
+        pendingPerGuild.compute(key.guildID(), (id, pending) -> {
+            int count = pending == null ? 0 : pending;
+            reserved[0] = count < MAX_PENDING_PER_GUILD;
+            return reserved[0] ? count + 1 : pending;
+        });
+        if (!reserved[0]) {
+            pendingMembers.remove(key);
+            prerenders.labels("skipped_guild_limit").inc();
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    prerender(guild, user, key);
+                } finally {
+                    release(key);
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            release(key);
+            prerenders.labels("skipped_queue_full").inc();
+        }
+    }
+
+    /**
+     * Returns the rank card rendered in advance for the member, if there is one that shows exactly the given values.
+     *
+     * @param guild the guild
+     * @param name the displayed name of the member
+     * @param rankingData the member's current ranking
+     * @param rankPosition the member's current position relative to the other users, or null if it's unknown
+     * @return the image in its byte representation, or null if there's none
+     */
+    public @Nullable byte[] getPrerendered(Guild guild, String name, RankingData rankingData, @Nullable RankPosition rankPosition) {
+        var key = new MemberKey(guild.getIdLong(), rankingData.userID());
+        var card = cards.get(key);
+
+        boolean hit = card != null
+                && System.nanoTime() - card.renderedAt() <= MAX_AGE.toNanos()
+                && card.name().equals(name)
+                && card.rankingData().equals(rankingData)
+                && Objects.equals(card.rankPosition(), rankPosition);
+        lookups.labels(hit ? "hit" : "miss").inc();
+        return hit ? card.imageBytes() : null;
+    }
+
+    private void prerender(Guild guild, User user, MemberKey key) {
+        // the renders that were requested in the meantime go first
+        if (!renderQualityController.isIdle()) {
+            prerenders.labels("skipped_busy").inc();
+            return;
+        }
+
+        try {
+            var member = guild.retrieveMember(user).complete();
+            var rankingData = levelDataManager.getRankingData(user, guild);
+            if (rankingData.isInvalid()) return;
+
+            var rankPosition = getRankPosition(guild, rankingData);
+            if (rankPosition == null) {
+                prerenders.labels("skipped_no_leaderboard").inc();
+                return;
+            }
+
+            // the requests that arrived while the data was fetched go first as well
+            if (!renderQualityController.isIdle()) {
+                prerenders.labels("skipped_busy").inc();
+                return;
+            }
+
+            byte[] imageBytes;
+            try (var ignored = renderQualityController.beginBackground()) {
+                imageBytes = ImageUtils.generateRankImage(member, user, rankingData, rankPosition, RenderQuality.FULL);
+            }
+            cards.put(key, new PrerenderedCard(member.getEffectiveName(), rankingData, rankPosition, imageBytes, System.nanoTime()));
+            prerenders.labels("rendered").inc();
+        } catch (Exception exception) {
+            prerenders.labels("failed").inc();
+            logger.warn("Couldn't pre-render the rank card of user {} on guild {}", user.getName(), guild.getName(), exception);
+        }
+    }
+
+    // like RankCommand#getRankPosition, but only with a snapshot that is already cached, a level-up shouldn't load one
+    private @Nullable RankPosition getRankPosition(Guild guild, RankingData rankingData) {
+        long xp = rankingData.levelData().xp();
+        var staleness = RankCommand.getPositionStaleness(guildSettingsManager, guild);
+        if (staleness.isZero()) return levelDataManager.getRankPosition(guild, xp, staleness);
+
+        var snapshot = leaderboardCache.getCachedSnapshot(guild.getIdLong(), staleness);
+        return snapshot != null ? snapshot.getRankPosition(xp) : null;
+    }
+
+    private void release(MemberKey key) {
+        pendingMembers.remove(key);
+        pendingPerGuild.computeIfPresent(key.guildID(), (id, pending) -> pending <= 1 ? null : pending - 1);
+    }
+
+    private record MemberKey(long guildID, long userID) {
+    }
+
+    /**
+     * A rank card rendered in advance, with the values it shows.
+     *
+     * @param name the displayed name of the member
+     * @param rankingData the member's ranking
+     * @param rankPosition the member's position relative to the other users, or null if it's unknown
+     * @param imageBytes the image in its byte representation
+     * @param renderedAt when the card was rendered, see {@link System#nanoTime()}
+     */
+    private record PrerenderedCard(String name, RankingData rankingData, @Nullable RankPosition rankPosition, byte[] imageBytes,
+                                   long renderedAt) {
+    }
+}
@@ -3,12 +3,21 @@ package org.maplestar.syrup.executors;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import org.maplestar.syrup.config.ShardRange;
+import org.maplestar.syrup.data.reminder.Reminder;
 import org.maplestar.syrup.data.reminder.ReminderDataManager;
+import org.maplestar.syrup.jfr.ReminderDispatchEvent;
+import org.maplestar.syrup.metrics.Histogram;
+import org.maplestar.syrup.metrics.Metrics;
 import org.maplestar.syrup.utils.EmbedMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -17,27 +26,37 @@ import java.util.concurrent.TimeUnit;
  */
 public class ReminderExecutor {
     private static final Logger logger = LoggerFactory.getLogger(ReminderExecutor.class);
-    private final JDA jda;
+    private static final Histogram reminderLag = Metrics.histogram("syrup_reminder_lag_seconds",
+            "Time between when a reminder was due and when it was sent", new double[]{0.5, 1, 2, 5, 10, 30, 60, 300, 900, 3600});
+    private static final Duration SHARD_POLL_INTERVAL = Duration.ofSeconds(1);
+    private final ShardManager shardManager;
+    private final ShardRange shardRange;
     private final ReminderDataManager reminderDataManager;
 
     /**
      * Initializes the class.
      *
-     * @param jda the JDA instance
+     * @param shardManager the shard manager
+     * @param shardRange the shards owned by this process
      * @param reminderDataManager the reminder data manager
      */
-    public ReminderExecutor(JDA jda, ReminderDataManager reminderDataManager) {
-        this.jda = jda;
+    public ReminderExecutor(ShardManager shardManager, ShardRange shardRange, ReminderDataManager reminderDataManager) {
+        this.shardManager = shardManager;
+        this.shardRange = shardRange;
         this.reminderDataManager = reminderDataManager;
     }
 
     /**
-     * Starts the scheduler. May be called before JDA is fully initialized.
+     * Starts the scheduler. May be called before JDA is fully initialized, as it waits until all owned shards are connected.
      * Automatically sends reminder messages if necessary.
+     * <p>
+     * Reminders are claimed before they're sent, so they're only sent once even if multiple processes loaded them.
+     * A reminder is only deleted because its channel is gone if the shard of its guild is connected,
+     * so reminders aren't lost while a shard is still starting or reconnecting.
      */
     public void init() {
         try {
-            jda.awaitReady();
+            awaitShards();
         } catch (InterruptedException exception) {
             throw new RuntimeException(exception);
         }
@@ -45,20 +64,25 @@ public class ReminderExecutor {
         var executor = Executors.newSingleThreadScheduledExecutor();
 
         executor.scheduleAtFixedRate(() -> {
-            var reminders = reminderDataManager.getSortedReminders();
             var currentTime = LocalDateTime.now();
 
-            while (!reminders.isEmpty() && currentTime.isAfter(reminders.first().time())) {
-                var reminder = reminders.removeFirst();
-                logger.info("Sending reminder: {}", reminder);
+            List<Reminder> dueReminders = new ArrayList<>();
+            for (var reminder : reminderDataManager.getSortedReminders()) {
+                if (!currentTime.isAfter(reminder.time())) break;
+                dueReminders.add(reminder);
+            }
 
-                var channel = jda.getChannelById(MessageChannel.class, reminder.channelID());
+            for (var reminder : dueReminders) {
+                var channel = shardManager.getChannelById(MessageChannel.class, reminder.channelID());
                 if (channel == null) {
-                    logger.info("Channel was deleted, deleting reminder...");
-                    reminderDataManager.deleteReminder(reminder);
+                    handleMissingChannel(reminder);
                     continue;
                 }
 
+                if (!reminderDataManager.claimReminder(reminder)) continue;
+                logger.info("Sending reminder: {}", reminder);
+                recordLateness(reminder);
+
                 var message = reminder.message();
                 if (message == null) message = "Ping pong!";
 
@@ -69,9 +93,80 @@ public class ReminderExecutor {
                 } catch (InsufficientPermissionException exception) {
                     logger.warn("Insufficient permissions", exception);
                 }
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until every shard owned by this process has been created and is connected.
+     * The shard manager only creates the first shard right away, the others are queued.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void awaitShards() throws InterruptedException {
+        for (int shardID = shardRange.first(); shardID <= shardRange.last(); shardID++) {
+            JDA shard;
+            while ((shard = shardManager.getShardById(shardID)) == null) {
+                Thread.sleep(SHARD_POLL_INTERVAL.toMillis());
+            }
+            shard.awaitReady();
+        }
+    }
 
+    /**
+     * Deletes a due reminder whose channel couldn't be found, but only if it's certain that the channel is gone.
+     * Otherwise, the reminder is either tried again on the next run or left to the process owning its guild.
+     *
+     * @param reminder the reminder
+     */
+    private void handleMissingChannel(Reminder reminder) {
+        if (!reminder.hasKnownGuild()) {
+            if (!shardRange.ownsAll()) {
+                // the channel may belong to a guild on another process' shards
+                reminderDataManager.forgetReminder(reminder);
+            } else if (areAllShardsConnected()) {
+                logger.info("Channel was deleted, deleting reminder {}...", reminder);
                 reminderDataManager.deleteReminder(reminder);
             }
-        }, 0, 1, TimeUnit.SECONDS);
+            return;
+        }
+
+        // the channel is unknown while the shard is (re)connecting, so it's tried again later
+        if (!isShardConnected(reminder.guildID())) return;
+
+        if (shardManager.getGuildById(reminder.guildID()) == null) {
+            // the bot left the guild or it's unavailable, the reminder is kept in case it comes back
+            logger.info("Guild of reminder {} is unavailable, skipping it until the next restart", reminder);
+            reminderDataManager.forgetReminder(reminder);
+            return;
+        }
+
+        logger.info("Channel was deleted, deleting reminder {}...", reminder);
+        reminderDataManager.deleteReminder(reminder);
+    }
+
+    private boolean isShardConnected(long guildID) {
+        var shard = shardManager.getShardById(shardRange.shardOf(guildID));
+        return shard != null && shard.getStatus() == JDA.Status.CONNECTED;
+    }
+
+    private boolean areAllShardsConnected() {
+        for (int shardID = shardRange.first(); shardID <= shardRange.last(); shardID++) {
+            var shard = shardManager.getShardById(shardID);
+            if (shard == null || shard.getStatus() != JDA.Status.CONNECTED) return false;
+        }
+        return true;
+    }
+
+    private void recordLateness(Reminder reminder) {
+        long latenessMillis = Duration.between(reminder.time(), LocalDateTime.now()).toMillis();
+        reminderLag.observe(latenessMillis / 1000.0);
+
+        var flightEvent = new ReminderDispatchEvent();
+        if (flightEvent.shouldCommit()) {
+            flightEvent.reminderID = reminder.id();
+            flightEvent.lateness = latenessMillis;
+            flightEvent.commit();
+        }
     }
 }
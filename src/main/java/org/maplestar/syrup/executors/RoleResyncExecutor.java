@@ -0,0 +1,247 @@
+package org.maplestar.syrup.executors;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import org.maplestar.syrup.config.ShardRange;
+import org.maplestar.syrup.data.rank.LevelDataManager;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.data.resync.ResyncJob;
+import org.maplestar.syrup.data.resync.ResyncJobDataManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Scheduler that brings the level roles of all members of a guild up to date,
+ * e.g. after level roles have been added or removed.
+ * <p>
+ * Users are processed in chunks ordered by their user ID. The next chunk is only loaded once the role updates
+ * of the previous one have been completed by the {@link RoleSyncExecutor}, which limits the rate of requests.
+ * The progress is saved once all updates of a chunk have been completed, so resyncs continue where they left off
+ * after a restart. Pausing a resync cancels the updates of its current chunk that haven't been sent yet,
+ * the chunk is processed again once it's resumed. A chunk that can't be loaded is tried again a second later.
+ */
+public class RoleResyncExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(RoleResyncExecutor.class);
+    private static final int CHUNK_SIZE = 100;
+
+    private final ShardRange shardRange;
+    private final LevelDataManager levelDataManager;
+    private final ResyncJobDataManager resyncJobDataManager;
+    private final RoleSyncExecutor roleSyncExecutor;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Long, ResyncJob> jobs = new ConcurrentHashMap<>();
+    private final Map<Long, Chunk> chunksInProgress = new ConcurrentHashMap<>();
+    private ShardManager shardManager;
+
+    /**
+     * Initializes the class.
+     *
+     * @param shardRange the shards owned by this process, only their guilds' resyncs are run
+     * @param levelDataManager the level data manager
+     * @param resyncJobDataManager the resync job data manager, to save the progress
+     * @param roleSyncExecutor the role sync executor, which applies the role updates
+     */
+    public RoleResyncExecutor(ShardRange shardRange, LevelDataManager levelDataManager,
+                              ResyncJobDataManager resyncJobDataManager, RoleSyncExecutor roleSyncExecutor) {
+        this.shardRange = shardRange;
+        this.levelDataManager = levelDataManager;
+        this.resyncJobDataManager = resyncJobDataManager;
+        this.roleSyncExecutor = roleSyncExecutor;
+    }
+
+    /**
+     * Starts the scheduler and resumes the unfinished resyncs of the owned guilds. Should be called once JDA is ready.
+     *
+     * @param shardManager the shard manager, to look up the guilds
+     */
+    public void init(ShardManager shardManager) {
+        this.shardManager = shardManager;
+
+        resyncJobDataManager.getJobs().stream()
+                .filter(job -> shardRange.owns(job.guildID()))
+                .forEach(job -> jobs.put(job.guildID(), job));
+
+        if (!jobs.isEmpty()) logger.info("Resuming {} level role resyncs", jobs.size());
+
+        executor.scheduleWithFixedDelay(() -> jobs.values().forEach(this::processNextChunk), 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts a resync of all members of the guild. Restarts it if a resync is already running.
+     *
+     * @param guild the guild
+     * @return false if the users couldn't be counted on database failure, the current resync is kept then
+     */
+    public boolean start(Guild guild) {
+        var count = levelDataManager.getRankedUserCount(guild);
+        if (count.isEmpty()) return false;
+
+        var job = ResyncJob.start(guild.getIdLong(), count.getAsInt());
+        jobs.put(guild.getIdLong(), job);
+        chunksInProgress.remove(guild.getIdLong());
+        resyncJobDataManager.saveJob(job);
+        logger.info("Started level role resync for guild {} with {} users", guild.getName(), job.total());
+        return true;
+    }
+
+    /**
+     * Pauses or resumes the resync of the guild.
+     *
+     * @param guild the guild
+     * @param paused true if the resync should be paused, false if it should be resumed
+     * @return false if there is no resync for the guild, otherwise true
+     */
+    public boolean setPaused(Guild guild, boolean paused) {
+        var job = jobs.computeIfPresent(guild.getIdLong(), (id, current) -> current.setPaused(paused));
+        if (job == null) return false;
+
+        if (paused) {
+            chunksInProgress.remove(guild.getIdLong());
+            roleSyncExecutor.cancelFullSyncs(guild.getIdLong());
+        }
+        resyncJobDataManager.saveJob(job);
+        return true;
+    }
+
+    /**
+     * Returns the progress of the guild's resync.
+     *
+     * @param guild the guild
+     * @return the resync job, or empty if there is no unfinished resync
+     */
+    public Optional<ResyncJob> getJob(Guild guild) {
+        return Optional.ofNullable(jobs.get(guild.getIdLong()));
+    }
+
+    /**
+     * Saves the progress of the current chunk once all of its role updates have been completed,
+     * and then loads the next chunk of users and hands their role updates to the {@link RoleSyncExecutor}.
+     * Does nothing while the resync is paused or the guild still has outstanding role updates.
+     *
+     * @param job the resync job
+     */
+    private void processNextChunk(ResyncJob job) {
+        long guildID = job.guildID();
+        if (job.paused()) return;
+        if (roleSyncExecutor.getPendingCount(guildID) > 0) return;
+
+        var chunk = chunksInProgress.get(guildID);
+        if (chunk != null) {
+            if (!chunk.submitted) return;
+
+            chunksInProgress.remove(guildID, chunk);
+            checkpoint(guildID, chunk.start, chunk.lastUserID, chunk.count);
+            return;
+        }
+
+        var guild = shardManager.getGuildById(guildID);
+        if (guild == null) {
+            if (isConnected(guildID)) {
+                logger.info("Guild {} is no longer available, cancelling level role resync", guildID);
+                finish(job);
+            }
+            return;
+        }
+
+        // on database failure, the job is kept and the chunk is loaded again on the next tick
+        var chunkOptional = levelDataManager.getLeaderboardChunk(guild, job.lastUserID(), CHUNK_SIZE);
+        if (chunkOptional.isEmpty()) return;
+
+        var rankings = chunkOptional.get();
+        if (rankings.isEmpty()) {
+            logger.info("Finished level role resync for guild {}", guild.getName());
+            finish(job);
+            return;
+        }
+
+        Map<Long, RankingData> rankingsByUser = rankings.stream()
+                .collect(Collectors.toMap(RankingData::userID, Function.identity()));
+        var newChunk = new Chunk(job.lastUserID(), rankings.getLast().userID(), rankings.size());
+
+        chunksInProgress.put(guildID, newChunk);
+        guild.retrieveMembersByIds(rankingsByUser.keySet())
+                .onSuccess(members -> {
+                    // the resync was paused or restarted in the meantime
+                    if (chunksInProgress.get(guildID) != newChunk) return;
+
+                    // members who left the guild aren't returned and don't need any roles
+                    for (var member : members) {
+                        roleSyncExecutor.submitFullSync(member, rankingsByUser.get(member.getIdLong()).levelData().level());
+                    }
+                    newChunk.submitted = true;
+                })
+                .onError(exception -> {
+                    logger.warn("Couldn't retrieve members for level role resync on guild {}", guild.getName(), exception);
+                    chunksInProgress.remove(guildID, newChunk);
+                });
+    }
+
+    /**
+     * Saves the progress after the role updates of a chunk have been completed.
+     *
+     * @param guildID the guild ID
+     * @param chunkStart the last user ID before the chunk, to detect resyncs that have been restarted in the meantime
+     * @param lastUserID the ID of the last user in the chunk
+     * @param count the number of users in the chunk
+     */
+    private void checkpoint(long guildID, long chunkStart, long lastUserID, int count) {
+        var job = jobs.computeIfPresent(guildID, (id, current) -> {
+            if (current.lastUserID() != chunkStart) return current;
+            return current.advance(lastUserID, count);
+        });
+        if (job != null) resyncJobDataManager.saveJob(job);
+    }
+
+    private void finish(ResyncJob job) {
+        // the resync may have been restarted in the meantime
+        if (!jobs.remove(job.guildID(), job)) return;
+
+        chunksInProgress.remove(job.guildID());
+        resyncJobDataManager.deleteJob(job.guildID());
+    }
+
+    /**
+     * Checks whether the shard of the guild is connected, so a missing guild means the bot is no longer a member.
+     *
+     * @param guildID the guild ID
+     * @return true if the guild's shard is connected
+     */
+    private boolean isConnected(long guildID) {
+        var shard = shardManager.getShardById(shardRange.shardOf(guildID));
+        return shard != null && shard.getStatus() == JDA.Status.CONNECTED;
+    }
+
+    /**
+     * A chunk of users whose role updates have been or are being handed to the {@link RoleSyncExecutor}.
+     */
+    private static final class Chunk {
+        private final long start;
+        private final long lastUserID;
+        private final int count;
+        // set once all role updates of the chunk have been submitted
+        private volatile boolean submitted;
+
+        /**
+         * Initializes the class.
+         *
+         * @param start the last user ID before the chunk
+         * @param lastUserID the ID of the last user in the chunk
+         * @param count the number of users in the chunk
+         */
+        private Chunk(long start, long lastUserID, int count) {
+            this.start = start;
+            this.lastUserID = lastUserID;
+            this.count = count;
+        }
+    }
+}
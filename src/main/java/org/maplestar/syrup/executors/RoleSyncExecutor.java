@@ -0,0 +1,288 @@
+package org.maplestar.syrup.executors;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.exceptions.HierarchyException;
+import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
+import org.jetbrains.annotations.Nullable;
+import org.maplestar.syrup.data.levelrole.LevelRoleDataManager;
+import org.maplestar.syrup.data.levelrole.RoleDiff;
+import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.listener.LevelChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler that applies level roles to members without blocking the caller.
+ * <p>
+ * Role updates for the same member are collected for a short time and combined into a single update,
+ * so that multiple level-ups in quick succession only result in one request to Discord.
+ * Requests are spaced out per guild to stay within Discord's rate limits.
+ * <p>
+ * Every update counts as outstanding from the moment it's submitted until Discord answered its request,
+ * or it turned out that no request is necessary, see {@link RoleSyncExecutor#getPendingCount(long)}.
+ */
+public class RoleSyncExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(RoleSyncExecutor.class);
+    private static final Duration COALESCE_WINDOW = Duration.ofSeconds(2);
+    private static final Duration GUILD_REQUEST_INTERVAL = Duration.ofMillis(250);
+
+    private final LevelRoleDataManager levelRoleDataManager;
+    private final GuildSettingsManager guildSettingsManager;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<MemberKey, PendingRoleSync> pendingSyncs = new ConcurrentHashMap<>();
+    private final Map<Long, Long> nextRequestTimes = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> outstandingUpdates = new ConcurrentHashMap<>();
+    // full syncs submitted before the generation of their guild changed are cancelled
+    private final Map<Long, Integer> fullSyncGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * Initializes the class.
+     *
+     * @param levelRoleDataManager the level role data manager
+     * @param guildSettingsManager the guild settings manager
+     */
+    public RoleSyncExecutor(LevelRoleDataManager levelRoleDataManager, GuildSettingsManager guildSettingsManager) {
+        this.levelRoleDataManager = levelRoleDataManager;
+        this.guildSettingsManager = guildSettingsManager;
+    }
+
+    /**
+     * Schedules a role update for a member whose level changed, see {@link LevelChangeListener#computeRoleDiff}.
+     * If an update for the member is already pending, the level changes are combined.
+     *
+     * @param guild the guild
+     * @param userID the ID of the member
+     * @param oldLevel the member's previous level
+     * @param newLevel the member's current level
+     */
+    public void submit(Guild guild, long userID, int oldLevel, int newLevel) {
+        submit(new PendingRoleSync(guild, userID, null, oldLevel, newLevel, false, 0));
+    }
+
+    /**
+     * Schedules a role update for a member whose level changed, without having to retrieve the member again.
+     *
+     * @param member the member
+     * @param oldLevel the member's previous level
+     * @param newLevel the member's current level
+     * @see RoleSyncExecutor#submit(Guild, long, int, int)
+     */
+    public void submit(Member member, int oldLevel, int newLevel) {
+        submit(new PendingRoleSync(member.getGuild(), member.getIdLong(), member, oldLevel, newLevel, false, 0));
+    }
+
+    /**
+     * Schedules a role update that gives the member exactly the level roles of their level,
+     * see {@link LevelChangeListener#computeTargetRoleDiff}.
+     * It can be cancelled until its request is sent, see {@link RoleSyncExecutor#cancelFullSyncs(long)}.
+     *
+     * @param member the member, whose roles are used to calculate the update
+     * @param level the member's current level
+     */
+    public void submitFullSync(Member member, int level) {
+        long guildID = member.getGuild().getIdLong();
+        submit(new PendingRoleSync(member.getGuild(), member.getIdLong(), member, level, level, true,
+                fullSyncGenerations.getOrDefault(guildID, 0)));
+    }
+
+    /**
+     * Cancels the full syncs of the guild whose requests haven't been sent yet, e.g. because the resync was paused.
+     * Full syncs that were combined with a level change still apply the level change.
+     *
+     * @param guildID the guild ID
+     */
+    public void cancelFullSyncs(long guildID) {
+        fullSyncGenerations.merge(guildID, 1, Integer::sum);
+    }
+
+    /**
+     * Returns the number of members in the guild whose role updates haven't been completed yet,
+     * including the ones waiting to be combined and the requests waiting for their time slot or an answer from Discord.
+     *
+     * @param guildID the guild ID
+     * @return the number of outstanding role updates
+     */
+    public int getPendingCount(long guildID) {
+        return outstandingUpdates.getOrDefault(guildID, 0);
+    }
+
+    private void submit(PendingRoleSync sync) {
+        var key = new MemberKey(sync.guild().getIdLong(), sync.userID());
+        pendingSyncs.compute(key, (k, pending) -> {
+            if (pending != null) return pending.merge(sync);
+
+            outstandingUpdates.merge(key.guildID(), 1, Integer::sum);
+            executor.schedule(() -> flush(key), COALESCE_WINDOW.toMillis(), TimeUnit.MILLISECONDS);
+            return sync;
+        });
+    }
+
+    /**
+     * Marks an update of the guild as completed, whether its request was successful or not.
+     *
+     * @param guildID the guild ID
+     */
+    private void complete(long guildID) {
+        outstandingUpdates.computeIfPresent(guildID, (id, count) -> count <= 1 ? null : count - 1);
+    }
+
+    private boolean isCancelled(PendingRoleSync sync) {
+        return sync.fullSync() && sync.generation() != fullSyncGenerations.getOrDefault(sync.guild().getIdLong(), 0);
+    }
+
+    /**
+     * Retrieves the member, if necessary, and applies the combined role update.
+     *
+     * @param key the member to update
+     */
+    private void flush(MemberKey key) {
+        var sync = pendingSyncs.remove(key);
+        if (sync == null) return;
+
+        if (isCancelled(sync)) {
+            // a level change that was combined with the full sync is still applied
+            if (sync.oldLevel() == sync.newLevel()) {
+                complete(key.guildID());
+                return;
+            }
+            sync = sync.withoutFullSync();
+        }
+
+        if (sync.member() != null) {
+            apply(sync, sync.member());
+            return;
+        }
+
+        var levelSync = sync;
+        sync.guild().retrieveMemberById(sync.userID()).queue(
+                member -> apply(levelSync, member),
+                exception -> {
+                    logger.warn("Couldn't retrieve member {} on guild {}", levelSync.userID(), levelSync.guild().getName(), exception);
+                    complete(key.guildID());
+                }
+        );
+    }
+
+    private void apply(PendingRoleSync sync, Member member) {
+        try {
+            if (!sendUpdate(sync, member)) complete(sync.guild().getIdLong());
+        } catch (RuntimeException exception) {
+            complete(sync.guild().getIdLong());
+            throw exception;
+        }
+    }
+
+    /**
+     * Calculates the role update and schedules its request in the next free time slot of the guild.
+     *
+     * @param sync the update
+     * @param member the member
+     * @return whether a request was scheduled, which completes the update once it's answered
+     */
+    private boolean sendUpdate(PendingRoleSync sync, Member member) {
+        var guild = sync.guild();
+        var settings = guildSettingsManager.getSettings(guild);
+        var roles = levelRoleDataManager.getLevelRoles(guild);
+        var memberRoleIDs = member.getRoles().stream()
+                .map(Role::getIdLong)
+                .toList();
+
+        RoleDiff diff;
+        if (sync.fullSync()) {
+            diff = LevelChangeListener.computeTargetRoleDiff(roles, settings.removeOldRoles(), memberRoleIDs, sync.newLevel());
+        } else {
+            diff = LevelChangeListener.computeRoleDiff(roles, settings.removeOldRoles(), memberRoleIDs, sync.oldLevel(), sync.newLevel());
+        }
+        if (diff.isEmpty()) return false;
+
+        var newRoles = diff.rolesToAdd().stream()
+                .map(guild::getRoleById)
+                .filter(Objects::nonNull)
+                .toList();
+        var removalRoles = diff.rolesToRemove().stream()
+                .map(guild::getRoleById)
+                .filter(Objects::nonNull)
+                .toList();
+        if (newRoles.isEmpty() && removalRoles.isEmpty()) return false;
+
+        long delay = reserveRequestSlot(guild.getIdLong());
+        executor.schedule(() -> {
+            if (isCancelled(sync)) {
+                complete(guild.getIdLong());
+                return;
+            }
+
+            try {
+                guild.modifyMemberRoles(member, newRoles, removalRoles).queue(
+                        success -> complete(guild.getIdLong()),
+                        exception -> {
+                            logger.warn("Couldn't update roles for user {} on guild {}", member.getUser().getName(), guild.getName(), exception);
+                            complete(guild.getIdLong());
+                        }
+                );
+            } catch (InsufficientPermissionException | HierarchyException exception) {
+                logger.warn("Couldn't update roles for user {} on guild {}", member.getUser().getName(), guild.getName(), exception);
+                complete(guild.getIdLong());
+            } catch (RuntimeException exception) {
+                complete(guild.getIdLong());
+                throw exception;
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * Reserves the next free time slot for a request to the guild.
+     *
+     * @param guildID the guild ID
+     * @return the delay until the reserved slot in nanoseconds
+     */
+    private long reserveRequestSlot(long guildID) {
+        long now = System.nanoTime();
+        long[] slot = new long[1];
+        nextRequestTimes.compute(guildID, (id, next) -> {
+            slot[0] = next == null ? now : Math.max(next, now);
+            return slot[0] + GUILD_REQUEST_INTERVAL.toNanos();
+        });
+
+        return slot[0] - now;
+    }
+
+    private record MemberKey(long guildID, long userID) {
+    }
+
+    /**
+     * A role update that hasn't been sent yet.
+     *
+     * @param guild the guild
+     * @param userID the ID of the member
+     * @param member the member, if already known
+     * @param oldLevel the level before the first of the combined level changes
+     * @param newLevel the level after the last of the combined level changes
+     * @param fullSync whether all level roles should be updated, not just the ones affected by the level change
+     * @param generation the generation of the guild's full syncs when the full sync was submitted, see {@link RoleSyncExecutor#cancelFullSyncs(long)}
+     */
+    private record PendingRoleSync(Guild guild, long userID, @Nullable Member member, int oldLevel, int newLevel, boolean fullSync,
+                                   int generation) {
+        PendingRoleSync merge(PendingRoleSync newer) {
+            var latestMember = newer.member() != null ? newer.member() : member;
+            int latestGeneration = newer.fullSync() ? newer.generation() : generation;
+            return new PendingRoleSync(newer.guild(), userID, latestMember, oldLevel, newer.newLevel(), fullSync || newer.fullSync(),
+                    latestGeneration);
+        }
+
+        PendingRoleSync withoutFullSync() {
+            return new PendingRoleSync(guild, userID, member, oldLevel, newLevel, false, generation);
+        }
+    }
+}
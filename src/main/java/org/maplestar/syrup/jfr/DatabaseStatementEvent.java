@@ -0,0 +1,23 @@
+package org.maplestar.syrup.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for an executed database statement. The duration only covers the execution, not reading the results.
+ */
+@Name("org.maplestar.syrup.DatabaseStatement")
+@Label("Database Statement")
+@Category({"Syrup", "Database"})
+@StackTrace(false)
+public class DatabaseStatementEvent extends Event {
+    @Label("Manager")
+    @Description("The class that ran the statement, usually a data manager")
+    public String manager;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Rows")
+    @Description("The rows read by a query or changed by an update")
+    public long rows;
+}
@@ -0,0 +1,55 @@
+package org.maplestar.syrup.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Continuous flight recording of the JVM and the bot's own events, for analyzing incidents afterwards with JDK Mission Control.
+ * <p>
+ * Uses JFR's low-overhead "default" settings. Data is kept on disk and discarded once it's older than the maximum age
+ * or the maximum size is exceeded. It can be saved at any time with "jcmd &lt;pid&gt; JFR.dump name=syrup filename=incident.jfr"
+ * and is saved automatically when the bot shuts down.
+ */
+public class FlightRecording {
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecording.class);
+    private static final String NAME = "syrup";
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Starts the recording.
+     *
+     * @param maxAge how long data is kept
+     * @param maxSize how much data is kept in bytes
+     * @param directory where the recording is saved on shutdown
+     */
+    public static void start(Duration maxAge, long maxSize, Path directory) {
+        try {
+            Files.createDirectories(directory);
+
+            var recording = new Recording(Configuration.getConfiguration("default"));
+            recording.setName(NAME);
+            recording.setToDisk(true);
+            recording.setMaxAge(maxAge);
+            recording.setMaxSize(maxSize);
+            recording.setDumpOnExit(true);
+            recording.setDestination(directory.resolve("syrup-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr"));
+            recording.start();
+
+            logger.info("Started flight recording, keeping {} or {} MB", maxAge, maxSize / 1024 / 1024);
+        } catch (IOException | ParseException exception) {
+            logger.warn("Couldn't start flight recording", exception);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.maplestar.syrup.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for drawing and encoding an image, see {@link org.maplestar.syrup.utils.ImageUtils}.
+ * The duration doesn't include downloading avatars and banners.
+ */
+@Name("org.maplestar.syrup.ImageRender")
+@Label("Image Render")
+@Category({"Syrup", "Rendering"})
+@StackTrace(false)
+public class ImageRenderEvent extends Event {
+    @Label("Kind")
+    public String kind;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,24 @@
+package org.maplestar.syrup.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for a level change, see {@link org.maplestar.syrup.listener.LevelChangeListener}.
+ */
+@Name("org.maplestar.syrup.LevelChange")
+@Label("Level Change")
+@Category({"Syrup", "Leveling"})
+@StackTrace(false)
+public class LevelChangeFlightEvent extends Event {
+    @Label("Guild ID")
+    public long guildID;
+
+    @Label("User ID")
+    public long userID;
+
+    @Label("Old Level")
+    public int oldLevel;
+
+    @Label("New Level")
+    public int newLevel;
+}
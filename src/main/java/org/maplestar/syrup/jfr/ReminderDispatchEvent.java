@@ -0,0 +1,20 @@
+package org.maplestar.syrup.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for a reminder that was sent, see {@link org.maplestar.syrup.executors.ReminderExecutor}.
+ */
+@Name("org.maplestar.syrup.ReminderDispatch")
+@Label("Reminder Dispatch")
+@Category({"Syrup", "Reminders"})
+@StackTrace(false)
+public class ReminderDispatchEvent extends Event {
+    @Label("Reminder ID")
+    public int reminderID;
+
+    @Label("Lateness")
+    @Description("Time between when the reminder was due and when it was sent")
+    @Timespan(Timespan.MILLISECONDS)
+    public long lateness;
+}
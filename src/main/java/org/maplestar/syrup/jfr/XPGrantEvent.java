@@ -0,0 +1,27 @@
+package org.maplestar.syrup.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event for a message that was checked for XP, see {@link org.maplestar.syrup.listener.ExpGainListener}.
+ */
+@Name("org.maplestar.syrup.XPGrant")
+@Label("XP Grant")
+@Category({"Syrup", "Leveling"})
+@Description("A guild message that was checked for XP")
+@StackTrace(false)
+public class XPGrantEvent extends Event {
+    @Label("Guild ID")
+    public long guildID;
+
+    @Label("User ID")
+    public long userID;
+
+    @Label("XP")
+    @Description("The XP granted, 0 if none")
+    public int xp;
+
+    @Label("Cache Hit")
+    @Description("Whether the message was rejected by the in-memory cooldown, without querying the database")
+    public boolean cacheHit;
+}
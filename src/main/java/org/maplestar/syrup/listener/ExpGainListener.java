@@ -1,38 +1,52 @@
 package org.maplestar.syrup.listener;
 
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.maplestar.syrup.data.block.BlockDataManager;
 import org.maplestar.syrup.data.rank.LevelDataManager;
 import org.maplestar.syrup.data.xpblock.XPBlockDataManager;
+import org.maplestar.syrup.data.xppolicy.XPPolicy;
+import org.maplestar.syrup.data.xppolicy.XPPolicyDataManager;
+import org.maplestar.syrup.jfr.XPGrantEvent;
 import org.maplestar.syrup.listener.event.LevelChangeEvent;
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Metrics;
 import org.maplestar.syrup.utils.CooldownProvider;
 
-import java.time.Duration;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Event listener that's called when a message is sent and handles XP updates.
+ * <p>
+ * The amount of XP and the cooldown are determined by the guild's {@link XPPolicy}.
  */
 public class ExpGainListener extends ListenerAdapter {
+    private static final Counter xpGrants = Metrics.counter("syrup_xp_grants_total", "Messages that granted XP");
+    private static final Counter xpGranted = Metrics.counter("syrup_xp_granted_total", "Amount of XP granted");
+    private static final Counter levelUps = Metrics.counter("syrup_level_ups_total", "Level changes caused by messages");
     private final LevelDataManager levelDataManager;
     private final BlockDataManager blockDataManager;
     private final XPBlockDataManager xpBlockDataManager;
+    private final XPPolicyDataManager xpPolicyDataManager;
     private final LevelChangeListener levelChangeListener;
-    private final CooldownProvider<User> cooldownProvider = CooldownProvider.withDuration(Duration.ofSeconds(10));
+    private final CooldownProvider<CooldownKey> cooldownProvider = CooldownProvider.withDuration(XPPolicy.DEFAULT.cooldown());
 
     /**
      * Initializes the class.
      *
      * @param levelDataManager the level data manager
      * @param blockDataManager the block data manager
+     * @param xpPolicyDataManager the XP policy data manager
      * @param levelChangeListener the level change listener, to notify when a user levels up
      */
-    public ExpGainListener(LevelDataManager levelDataManager, BlockDataManager blockDataManager, XPBlockDataManager xpBlockDataManager, LevelChangeListener levelChangeListener) {
+    public ExpGainListener(LevelDataManager levelDataManager, BlockDataManager blockDataManager, XPBlockDataManager xpBlockDataManager,
+                           XPPolicyDataManager xpPolicyDataManager, LevelChangeListener levelChangeListener) {
         this.levelDataManager = levelDataManager;
         this.blockDataManager = blockDataManager;
         this.xpBlockDataManager = xpBlockDataManager;
+        this.xpPolicyDataManager = xpPolicyDataManager;
         this.levelChangeListener = levelChangeListener;
     }
 
@@ -40,6 +54,7 @@ public class ExpGainListener extends ListenerAdapter {
      * Called when the bot receives a message either in a guild or private message.
      * <p>
      * Used to add XP to the user in case they're writing in a non-blocked guild channel and aren't on cooldown.
+     * The cooldown is checked first, as it doesn't need any database queries.
      *
      * @param event the event that has been fired
      * @see BlockDataManager
@@ -49,25 +64,70 @@ public class ExpGainListener extends ListenerAdapter {
         if (event.getAuthor().isBot()) return;
         if (!event.isFromGuild()) return;
 
+        var flightEvent = new XPGrantEvent();
+        flightEvent.begin();
+
         var guild = event.getGuild();
         var user = event.getAuthor();
+        var cooldownKey = new CooldownKey(guild.getIdLong(), user.getIdLong());
+        int grantedXP = 0;
+        boolean onCooldown = cooldownProvider.isOnCooldown(cooldownKey);
+        if (!onCooldown) grantedXP = grantXP(event, guild, user, cooldownKey);
+
+        flightEvent.end();
+        if (flightEvent.shouldCommit()) {
+            flightEvent.guildID = guild.getIdLong();
+            flightEvent.userID = user.getIdLong();
+            flightEvent.xp = grantedXP;
+            flightEvent.cacheHit = onCooldown;
+            flightEvent.commit();
+        }
+    }
+
+    /**
+     * Adds XP to the user according to the guild's XP policy unless the channel or user is blocked, and applies the cooldown.
+     *
+     * @param event the message event
+     * @param guild the guild
+     * @param user the author
+     * @param cooldownKey the author's cooldown on the guild
+     * @return the amount of XP added, 0 if none
+     */
+    private int grantXP(MessageReceivedEvent event, Guild guild, User user, CooldownKey cooldownKey) {
+        if (blockDataManager.isBlocked(event.getChannel(), guild)) return 0;
+        if (xpBlockDataManager.isBlocked(guild, event.getMember())) return 0;
 
-        if (blockDataManager.isBlocked(event.getChannel(), event.getGuild())) return;
-        if (xpBlockDataManager.isBlocked(guild, event.getMember())) return;
+        var policy = xpPolicyDataManager.getPolicy(guild);
+        if (!cooldownProvider.tryApplyCooldown(cooldownKey, policy.cooldown())) return 0;
 
-        if (cooldownProvider.isOnCooldown(user)) return;
-        cooldownProvider.applyCooldown(user);
+        int addXP = policy.rollXP(ThreadLocalRandom.current(), event.getChannel().getIdLong(), event.getMember().getRoles(), System.currentTimeMillis());
+        if (addXP <= 0) return 0;
 
-        var rand = ThreadLocalRandom.current();
-        int addXP = rand.nextInt(15, 31);
-        var oldLevelData = levelDataManager.getLevelData(user, guild);
-        if (oldLevelData.level() >= 420) return;
+        var update = levelDataManager.addXP(user, guild, addXP);
+        if (update.isEmpty()) return 0;
 
-        var newLevelData = oldLevelData.addXP(addXP);
-        levelDataManager.setLevelData(user, guild, newLevelData);
+        var oldLevelData = update.get().oldLevelData();
+        var newLevelData = update.get().newLevelData();
+        int grantedXP = (int) Math.max(0, newLevelData.xp() - oldLevelData.xp());
+        if (grantedXP == 0) return 0;
 
-        if (newLevelData.level() != oldLevelData.level()) {
+        xpGrants.inc();
+        xpGranted.inc(grantedXP);
+
+        if (update.get().levelChanged()) {
+            levelUps.inc();
             levelChangeListener.onLevelChange(new LevelChangeEvent(guild, user, oldLevelData, newLevelData));
         }
+
+        return grantedXP;
+    }
+
+    /**
+     * Cooldowns are tracked per guild, as each guild may configure a different cooldown.
+     *
+     * @param guildID the guild ID
+     * @param userID the user ID
+     */
+    private record CooldownKey(long guildID, long userID) {
     }
 }
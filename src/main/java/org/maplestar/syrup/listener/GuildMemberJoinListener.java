@@ -1,16 +1,19 @@
 package org.maplestar.syrup.listener;
 
 import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
-import org.maplestar.syrup.data.levelrole.LevelRoleDataManager;
 import org.maplestar.syrup.data.rank.LevelData;
 import org.maplestar.syrup.data.rank.LevelDataManager;
 import org.maplestar.syrup.data.settings.GuildSettingsManager;
-import org.maplestar.syrup.listener.event.LevelChangeEvent;
+import org.maplestar.syrup.executors.RoleSyncExecutor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -18,65 +21,75 @@ import java.util.concurrent.TimeUnit;
 /**
  * Event listener that's called when a new member joins the guild.
  * Used to automatically re-apply roles if the guild settings are configured that way.
+ * <p>
+ * Joins are handled in batches per guild, so that a mass-join only results in a single database query per guild.
  */
 public class GuildMemberJoinListener extends ListenerAdapter {
+    private static final int JOIN_DELAY_SECONDS = 10;
+
     private final GuildSettingsManager guildSettingsManager;
     private final LevelDataManager levelDataManager;
-    private final LevelChangeListener levelChangeListener;
-    private final LevelRoleDataManager levelRoleDataManager;
+    private final RoleSyncExecutor roleSyncExecutor;
 
     private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Long, List<Member>> pendingJoins = new ConcurrentHashMap<>();
 
     /**
      * Initializes the class.
      *
      * @param guildSettingsManager the guild settings manager
      * @param levelDataManager the level data manager
-     * @param levelChangeListener the level change listener, to notify of the indirect level up
-     * @param levelRoleDataManager the level role data manager
+     * @param roleSyncExecutor the role sync executor, which applies the level roles
      */
-    public GuildMemberJoinListener(GuildSettingsManager guildSettingsManager, LevelDataManager levelDataManager,
-                                   LevelChangeListener levelChangeListener, LevelRoleDataManager levelRoleDataManager) {
+    public GuildMemberJoinListener(GuildSettingsManager guildSettingsManager, LevelDataManager levelDataManager, RoleSyncExecutor roleSyncExecutor) {
         this.guildSettingsManager = guildSettingsManager;
         this.levelDataManager = levelDataManager;
-        this.levelChangeListener = levelChangeListener;
-        this.levelRoleDataManager = levelRoleDataManager;
+        this.roleSyncExecutor = roleSyncExecutor;
     }
 
     /**
      * Called when a member joins a guild. Re-assigns level roles according to the guild settings.
+     * <p>
+     * The member is added to the guild's current batch, which is handled {@value JOIN_DELAY_SECONDS} seconds after the first join.
      *
      * @param event the event that has been fired
      * @see org.maplestar.syrup.data.settings.GuildSettings
      */
     @Override
     public void onGuildMemberJoin(@NotNull GuildMemberJoinEvent event) {
-        executor.schedule(() -> {
-            var user = event.getUser();
-            var guild = event.getGuild();
-
-            var guildSettings = guildSettingsManager.getSettings(guild);
-            if (!guildSettings.addOnRejoin()) return;
-
-            var levelData = levelDataManager.getLevelData(user, guild);
-            if (levelData.level() == 0) {
-                applyDefaultRole(guild, user);
-            } else {
-                levelChangeListener.onLevelChange(new LevelChangeEvent(guild, user, LevelData.ZERO, levelData));
+        var guild = event.getGuild();
+        pendingJoins.compute(guild.getIdLong(), (guildID, members) -> {
+            if (members == null) {
+                members = new ArrayList<>();
+                executor.schedule(() -> handleJoins(guild), JOIN_DELAY_SECONDS, TimeUnit.SECONDS);
             }
-        }, 10, TimeUnit.SECONDS);
+
+            members.add(event.getMember());
+            return members;
+        });
     }
 
-    private void applyDefaultRole(Guild guild, User user) {
-        var levelRoles = levelRoleDataManager.getLevelRoles(guild);
-        for (var levelRole : levelRoles) {
-            if (levelRole.level() == 0) {
-                var role = guild.getRoleById(levelRole.roleID());
-                if (role == null) return;
+    /**
+     * Re-assigns the level roles of all members of the guild's current batch.
+     * Members without a level receive the level roles for level 0, if there are any.
+     *
+     * @param guild the guild
+     */
+    private void handleJoins(Guild guild) {
+        var members = pendingJoins.remove(guild.getIdLong());
+        if (members == null) return;
+
+        var guildSettings = guildSettingsManager.getSettings(guild);
+        if (!guildSettings.addOnRejoin()) return;
 
-                guild.addRoleToMember(user, role).queue();
-                return;
-            }
+        var userIDs = members.stream()
+                .map(Member::getIdLong)
+                .toList();
+        var levelData = levelDataManager.getLevelData(guild, userIDs);
+
+        for (var member : members) {
+            int level = levelData.getOrDefault(member.getIdLong(), LevelData.ZERO).level();
+            roleSyncExecutor.submit(member, 0, level);
         }
     }
 }
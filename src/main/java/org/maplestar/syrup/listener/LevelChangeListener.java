@@ -1,21 +1,15 @@
 package org.maplestar.syrup.listener;
 
-import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.Role;
-import net.dv8tion.jda.api.exceptions.HierarchyException;
-import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
 import org.maplestar.syrup.data.levelrole.LevelRoleData;
-import org.maplestar.syrup.data.levelrole.LevelRoleDataManager;
-import org.maplestar.syrup.data.settings.GuildSettings;
-import org.maplestar.syrup.data.settings.GuildSettingsManager;
+import org.maplestar.syrup.data.levelrole.RoleDiff;
+import org.maplestar.syrup.executors.RankPrerenderExecutor;
+import org.maplestar.syrup.executors.RoleSyncExecutor;
+import org.maplestar.syrup.jfr.LevelChangeFlightEvent;
 import org.maplestar.syrup.listener.event.LevelChangeEvent;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 
 // oh my god our own event???
@@ -24,39 +18,63 @@ import java.util.Set;
  * Event listener that's called when the level of a user gets updated.
  */
 public class LevelChangeListener {
-    private final Logger logger = LoggerFactory.getLogger(LevelChangeListener.class);
-    private final LevelRoleDataManager levelRoleDataManager;
-    private final GuildSettingsManager guildSettingsManager;
+    private final RoleSyncExecutor roleSyncExecutor;
+    private final RankPrerenderExecutor rankPrerenderExecutor;
 
     /**
      * Initializes the class.
      *
-     * @param levelRoleDataManager the level role manager
-     * @param guildSettingsManager the guild settings manager
+     * @param roleSyncExecutor the role sync executor, which applies the level roles
+     * @param rankPrerenderExecutor the rank pre-render executor, which renders the rank card in advance after a level-up
      */
-    public LevelChangeListener(LevelRoleDataManager levelRoleDataManager, GuildSettingsManager guildSettingsManager) {
-        this.levelRoleDataManager = levelRoleDataManager;
-        this.guildSettingsManager = guildSettingsManager;
+    public LevelChangeListener(RoleSyncExecutor roleSyncExecutor, RankPrerenderExecutor rankPrerenderExecutor) {
+        this.roleSyncExecutor = roleSyncExecutor;
+        this.rankPrerenderExecutor = rankPrerenderExecutor;
     }
 
     /**
      * Called when the level of a user gets updated.
+     * <p>
+     * The level roles aren't updated immediately, but by the {@link RoleSyncExecutor},
+     * which combines multiple level changes of the same member into a single update.
+     * After a level-up, the member's rank card is rendered in advance if there's capacity, see {@link RankPrerenderExecutor}.
      *
      * @param event the event that has been fired, see {@link LevelChangeEvent}
      */
     public void onLevelChange(LevelChangeEvent event) {
-        var guild = event.guild();
-        var settings = guildSettingsManager.getSettings(guild);
-        var roles = levelRoleDataManager.getLevelRoles(guild);
+        var flightEvent = new LevelChangeFlightEvent();
+        if (flightEvent.shouldCommit()) {
+            flightEvent.guildID = event.guild().getIdLong();
+            flightEvent.userID = event.user().getIdLong();
+            flightEvent.oldLevel = event.oldLevelData().level();
+            flightEvent.newLevel = event.newLevelData().level();
+            flightEvent.commit();
+        }
 
-        var member = guild.retrieveMember(event.user()).submit().join();
+        roleSyncExecutor.submit(event.guild(), event.user().getIdLong(), event.oldLevelData().level(), event.newLevelData().level());
+        if (event.newLevelData().level() > event.oldLevelData().level()) {
+            rankPrerenderExecutor.submit(event.guild(), event.user());
+        }
+    }
 
+    /**
+     * Calculates which level roles should be added and removed when a member's level changes.
+     * Only considers the roles affected by the level change, so roles the member received otherwise are kept.
+     * <p>
+     * Will only remove roles if they aren't to be added and ignore any roles the member may already have.
+     *
+     * @param roles all level roles of the guild
+     * @param removeOldRoles whether level roles should be removed when a user acquires a higher one
+     * @param memberRoleIDs the IDs of the roles the member currently has
+     * @param oldLevel the member's previous level
+     * @param newLevel the member's current level
+     * @return the roles to add and remove
+     */
+    public static RoleDiff computeRoleDiff(List<LevelRoleData> roles, boolean removeOldRoles, Collection<Long> memberRoleIDs,
+                                           int oldLevel, int newLevel) {
         // if rank increases, consider role: oldLevel < role.level <= newLevel
         // if rank decreases, consider role: newLevel < role.level <= oldLevel
 
-        int oldLevel = event.oldLevelData().level();
-        int newLevel = event.newLevelData().level();
-
         int minLevel = Math.min(oldLevel, newLevel);
         int maxLevel = Math.max(oldLevel, newLevel);
 
@@ -65,15 +83,14 @@ public class LevelChangeListener {
                 .filter(levelRole -> minLevel < levelRole.level() && levelRole.level() <= maxLevel)
                 .toList();
 
-        Set<Role> newRoles = new HashSet<>();
-        Set<Role> removalRoles = new HashSet<>();
+        Set<Long> newRoles = new HashSet<>();
+        Set<Long> removalRoles = new HashSet<>();
 
         // removes ALL old roles (if removeOldRoles)
-        if (settings.removeOldRoles()) {
+        if (removeOldRoles) {
             roles.stream()
-                    .map(levelRole -> guild.getRoleById(levelRole.roleID()))
-                    .filter(Objects::nonNull)
-                    .filter(member.getRoles()::contains)
+                    .map(LevelRoleData::roleID)
+                    .filter(memberRoleIDs::contains)
                     .forEach(removalRoles::add);
         }
 
@@ -86,8 +103,7 @@ public class LevelChangeListener {
             // either affectedRoles is empty and this does nothing or newLevel is less than oldLevel and
             // we should indeed be removing affectedRoles
             affectedRoles.stream()
-                    .map(levelRole -> guild.getRoleById(levelRole.roleID()))
-                    .filter(Objects::nonNull)
+                    .map(LevelRoleData::roleID)
                     .forEach(removalRoles::add);
 
             // Processing lower roles
@@ -97,17 +113,50 @@ public class LevelChangeListener {
 
             // add all lower roles because removeOldRoles is false
             if (!lowerRoles.isEmpty()) {
-                newRoles.addAll(getRolesToAdd(guild, settings, lowerRoles));
+                newRoles.addAll(getRolesToAdd(removeOldRoles, lowerRoles));
             }
+        } else {
+            // add all affected roles because removeOldRoles is false
+            newRoles.addAll(getRolesToAdd(removeOldRoles, affectedRoles));
+        }
+
+        // newRoles overrides removalRoles in case of conflicts
+        removalRoles.removeIf(roleID -> newRoles.contains(roleID) || !memberRoleIDs.contains(roleID));
+        newRoles.removeIf(memberRoleIDs::contains);
+        return new RoleDiff(newRoles, removalRoles);
+    }
 
-            // newRoles overrides removalRoles in case of conflicts
-            applyRoles(member, guild, newRoles, removalRoles);
-            return;
+    /**
+     * Calculates which level roles should be added and removed so that a member has exactly the level roles of their level.
+     * Unlike {@link LevelChangeListener#computeRoleDiff(List, boolean, Collection, int, int)}, this also fixes roles
+     * that are out of date because the level roles or settings of the guild changed.
+     *
+     * @param roles all level roles of the guild
+     * @param removeOldRoles whether only the highest level role should be kept
+     * @param memberRoleIDs the IDs of the roles the member currently has
+     * @param level the member's level
+     * @return the roles to add and remove
+     */
+    public static RoleDiff computeTargetRoleDiff(List<LevelRoleData> roles, boolean removeOldRoles, Collection<Long> memberRoleIDs, int level) {
+        var lowerRoles = roles.stream()
+                .filter(levelRole -> levelRole.level() <= level)
+                .toList();
+
+        Set<Long> targetRoles = new HashSet<>();
+        if (!lowerRoles.isEmpty()) {
+            targetRoles.addAll(getRolesToAdd(removeOldRoles, lowerRoles));
         }
 
-        // add all affected roles because removeOldRoles is false
-        newRoles.addAll(getRolesToAdd(guild, settings, affectedRoles));
-        applyRoles(member, guild, newRoles, removalRoles);
+        Set<Long> newRoles = new HashSet<>(targetRoles);
+        newRoles.removeIf(memberRoleIDs::contains);
+
+        Set<Long> removalRoles = new HashSet<>();
+        roles.stream()
+                .map(LevelRoleData::roleID)
+                .filter(roleID -> !targetRoles.contains(roleID) && memberRoleIDs.contains(roleID))
+                .forEach(removalRoles::add);
+
+        return new RoleDiff(newRoles, removalRoles);
     }
 
     /**
@@ -116,46 +165,23 @@ public class LevelChangeListener {
      * <p>
      * I'm on television!! -maple
      *
-     * @param guild the guild
-     * @param settings the guild's settings
-     * @param rolesToProcess quite literally, the roles to process
-     * @return a list of roles given the rules explained above. This list should be added to newRoles
+     * @param removeOldRoles whether level roles should be removed when a user acquires a higher one
+     * @param rolesToProcess quite literally, the roles to process. Must not be empty
+     * @return a list of role IDs given the rules explained above. This list should be added to newRoles
      */
-    private List<Role> getRolesToAdd(Guild guild, GuildSettings settings, List<LevelRoleData> rolesToProcess) {
-        if (settings.removeOldRoles()) {
+    private static List<Long> getRolesToAdd(boolean removeOldRoles, List<LevelRoleData> rolesToProcess) {
+        if (removeOldRoles) {
             // get the max lower role level and add that role to member
             var maxLevelRole = rolesToProcess.getFirst();
             for (var levelRole : rolesToProcess) {
                 if (levelRole.level() > maxLevelRole.level()) maxLevelRole = levelRole;
             }
 
-            var theRole = guild.getRoleById(maxLevelRole.roleID());
-            if (theRole == null) return List.of();
-            return List.of(theRole);
+            return List.of(maxLevelRole.roleID());
         } else {
             return rolesToProcess.stream()
-                    .map(levelRole -> guild.getRoleById(levelRole.roleID()))
-                    .filter(Objects::nonNull)
+                    .map(LevelRoleData::roleID)
                     .toList();
         }
     }
-
-    /**
-     * Attempts to add and remove the provided roles to the member on the specified guild.
-     * Will only remove roles if they aren't to be added and ignore any roles the user may already have.
-     *
-     * @param member the member
-     * @param guild the guild the member is on
-     * @param newRoles the roles that should be added to the member
-     * @param removalRoles the roles that should be removed from the member
-     */
-    private void applyRoles(Member member, Guild guild, Set<Role> newRoles, Set<Role> removalRoles) {
-        try {
-            removalRoles.removeIf(role -> newRoles.contains(role) || !member.getRoles().contains(role));
-            newRoles.removeIf(member.getRoles()::contains);
-            guild.modifyMemberRoles(member, newRoles, removalRoles).queue();
-        } catch (InsufficientPermissionException | HierarchyException exception) {
-            logger.warn("Couldn't update roles for user {} on guild {}", member.getUser().getName(), guild.getName(), exception);
-        }
-    }
 }
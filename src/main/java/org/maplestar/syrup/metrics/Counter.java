@@ -0,0 +1,59 @@
+package org.maplestar.syrup.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A value that only goes up, e.g. the number of executed commands. Use {@code rate()} in Prometheus to get it per second.
+ */
+public final class Counter extends Metric<Counter.Child> {
+    Counter(String name, String help, String... labelNames) {
+        super(name, help, labelNames);
+    }
+
+    /**
+     * Increments the counter without labels by 1.
+     */
+    public void inc() {
+        labels().inc();
+    }
+
+    /**
+     * Increments the counter without labels.
+     *
+     * @param amount the amount, must not be negative
+     */
+    public void inc(double amount) {
+        labels().inc(amount);
+    }
+
+    @Override
+    Child newChild() {
+        return new Child();
+    }
+
+    @Override
+    String type() {
+        return "counter";
+    }
+
+    @Override
+    void writeSamples(StringBuilder output, String labels, Child child) {
+        writeSample(output, name(), labels, child.value.sum());
+    }
+
+    /**
+     * The counter for one combination of label values.
+     */
+    public static final class Child {
+        private final DoubleAdder value = new DoubleAdder();
+
+        public void inc() {
+            value.add(1);
+        }
+
+        public void inc(double amount) {
+            if (amount < 0) throw new IllegalArgumentException("Counters can't decrease");
+            value.add(amount);
+        }
+    }
+}
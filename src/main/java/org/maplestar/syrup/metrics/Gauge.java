@@ -0,0 +1,47 @@
+package org.maplestar.syrup.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value that's read whenever the metrics are scraped, e.g. the gateway ping.
+ */
+public final class Gauge extends Metric<Gauge.Child> {
+    Gauge(String name, String help, String... labelNames) {
+        super(name, help, labelNames);
+    }
+
+    /**
+     * Sets the source of the gauge without labels.
+     *
+     * @param supplier supplies the current value
+     */
+    public void set(DoubleSupplier supplier) {
+        labels().set(supplier);
+    }
+
+    @Override
+    Child newChild() {
+        return new Child();
+    }
+
+    @Override
+    String type() {
+        return "gauge";
+    }
+
+    @Override
+    void writeSamples(StringBuilder output, String labels, Child child) {
+        writeSample(output, name(), labels, child.supplier.getAsDouble());
+    }
+
+    /**
+     * The gauge for one combination of label values.
+     */
+    public static final class Child {
+        private volatile DoubleSupplier supplier = () -> Double.NaN;
+
+        public void set(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+    }
+}
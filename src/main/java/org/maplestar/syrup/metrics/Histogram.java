@@ -0,0 +1,91 @@
+package org.maplestar.syrup.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations, e.g. durations in seconds, in buckets with fixed upper bounds.
+ * Use {@code histogram_quantile()} in Prometheus to get percentiles.
+ */
+public final class Histogram extends Metric<Histogram.Child> {
+    /**
+     * Buckets for durations in seconds, from 1 ms to 10 s.
+     */
+    public static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final double[] upperBounds;
+
+    Histogram(String name, String help, double[] upperBounds, String... labelNames) {
+        super(name, help, labelNames);
+        this.upperBounds = upperBounds.clone();
+    }
+
+    /**
+     * Records an observation of the histogram without labels.
+     *
+     * @param value the value
+     */
+    public void observe(double value) {
+        labels().observe(value);
+    }
+
+    @Override
+    Child newChild() {
+        return new Child(upperBounds);
+    }
+
+    @Override
+    String type() {
+        return "histogram";
+    }
+
+    @Override
+    void writeSamples(StringBuilder output, String labels, Child child) {
+        var prefix = labels.isEmpty() ? "" : labels + ",";
+
+        // bucket counts are cumulative in the exposition format
+        long cumulativeCount = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulativeCount += child.bucketCounts[i].sum();
+            writeSample(output, name() + "_bucket", prefix + "le=\"" + formatValue(upperBounds[i]) + "\"", cumulativeCount);
+        }
+        cumulativeCount += child.bucketCounts[upperBounds.length].sum();
+        writeSample(output, name() + "_bucket", prefix + "le=\"+Inf\"", cumulativeCount);
+        writeSample(output, name() + "_sum", labels, child.sum.sum());
+        writeSample(output, name() + "_count", labels, cumulativeCount);
+    }
+
+    /**
+     * The histogram for one combination of label values.
+     */
+    public static final class Child {
+        private final double[] upperBounds;
+        private final LongAdder[] bucketCounts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Child(double[] upperBounds) {
+            this.upperBounds = upperBounds;
+            this.bucketCounts = new LongAdder[upperBounds.length + 1];
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            int bucket = 0;
+            while (bucket < upperBounds.length && value > upperBounds[bucket]) bucket++;
+
+            bucketCounts[bucket].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Records a duration in seconds.
+         *
+         * @param startNanos the start of the duration, from {@link System#nanoTime()}
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.maplestar.syrup.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A metric family with a fixed set of label names, holding one child per combination of label values.
+ *
+ * @param <C> the type of the children, which hold the actual values
+ */
+public abstract sealed class Metric<C> permits Counter, Gauge, Histogram {
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final Map<List<String>, C> children = new ConcurrentHashMap<>();
+
+    Metric(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = List.of(labelNames);
+    }
+
+    /**
+     * Returns the child for the label values, creating it if necessary.
+     *
+     * @param labelValues the values, in the order of the label names
+     * @return the child
+     * @throws IllegalArgumentException if the number of values doesn't match the label names
+     */
+    public C labels(String... labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException("Metric " + name + " expects labels " + labelNames);
+        }
+
+        return children.computeIfAbsent(List.of(labelValues), values -> newChild());
+    }
+
+    public String name() {
+        return name;
+    }
+
+    abstract C newChild();
+
+    abstract String type();
+
+    /**
+     * Writes the samples of a child in the Prometheus text format.
+     *
+     * @param output the output
+     * @param labels the formatted labels of the child, e.g. {@code command="rank"}, may be empty
+     * @param child the child
+     */
+    abstract void writeSamples(StringBuilder output, String labels, C child);
+
+    void write(StringBuilder output) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(' ').append(type()).append('\n');
+        children.forEach((values, child) -> writeSamples(output, formatLabels(values), child));
+    }
+
+    private String formatLabels(List<String> values) {
+        var labels = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) labels.append(',');
+            labels.append(labelNames.get(i)).append("=\"").append(escape(values.get(i))).append('"');
+        }
+        return labels.toString();
+    }
+
+    static void writeSample(StringBuilder output, String name, String labels, double value) {
+        output.append(name);
+        if (!labels.isEmpty()) output.append('{').append(labels).append('}');
+        output.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) return "+Inf";
+        if (value == Double.NEGATIVE_INFINITY) return "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
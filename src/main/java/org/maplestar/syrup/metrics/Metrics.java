@@ -0,0 +1,87 @@
+package org.maplestar.syrup.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * The registry of all metrics of the bot, which are exposed via the {@link MetricsServer}.
+ * <p>
+ * Metrics are usually registered once in a static field of the class that records them.
+ * Registering a name again returns the existing metric.
+ */
+public final class Metrics {
+    private static final Map<String, Metric<?>> metrics = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers a counter.
+     *
+     * @param name the name, should end in "_total"
+     * @param help the description
+     * @param labelNames the names of the labels
+     * @return the counter
+     */
+    public static Counter counter(String name, String help, String... labelNames) {
+        return register(name, Counter.class, () -> new Counter(name, help, labelNames));
+    }
+
+    /**
+     * Registers a gauge.
+     *
+     * @param name the name
+     * @param help the description
+     * @param labelNames the names of the labels
+     * @return the gauge
+     */
+    public static Gauge gauge(String name, String help, String... labelNames) {
+        return register(name, Gauge.class, () -> new Gauge(name, help, labelNames));
+    }
+
+    /**
+     * Registers a histogram of durations in seconds, see {@link Histogram#LATENCY_BUCKETS}.
+     *
+     * @param name the name, should end in "_seconds"
+     * @param help the description
+     * @param labelNames the names of the labels
+     * @return the histogram
+     */
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return histogram(name, help, Histogram.LATENCY_BUCKETS, labelNames);
+    }
+
+    /**
+     * Registers a histogram.
+     *
+     * @param name the name
+     * @param help the description
+     * @param upperBounds the upper bounds of the buckets in ascending order
+     * @param labelNames the names of the labels
+     * @return the histogram
+     */
+    public static Histogram histogram(String name, String help, double[] upperBounds, String... labelNames) {
+        return register(name, Histogram.class, () -> new Histogram(name, help, upperBounds, labelNames));
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics
+     */
+    public static String scrape() {
+        var output = new StringBuilder();
+        metrics.values().forEach(metric -> metric.write(output));
+        return output.toString();
+    }
+
+    private static <M extends Metric<?>> M register(String name, Class<M> type, Supplier<M> factory) {
+        var metric = metrics.computeIfAbsent(name, key -> factory.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalStateException("Metric " + name + " is already registered as " + metric.type());
+        }
+
+        return type.cast(metric);
+    }
+}
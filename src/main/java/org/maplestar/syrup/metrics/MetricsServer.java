@@ -0,0 +1,63 @@
+package org.maplestar.syrup.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server that exposes the {@link Metrics} at "/metrics" for Prometheus to scrape.
+ */
+public class MetricsServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    private MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param port the port to listen on
+     * @return the running server
+     * @throws IOException if the port can't be bound
+     */
+    public static MetricsServer start(int port) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", MetricsServer::handleScrape);
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.start();
+
+        logger.info("Serving metrics on port {}", port);
+        return new MetricsServer(server);
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void handleScrape(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            var body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+}
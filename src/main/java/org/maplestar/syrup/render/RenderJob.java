@@ -0,0 +1,64 @@
+package org.maplestar.syrup.render;
+
+import org.jetbrains.annotations.Nullable;
+import org.maplestar.syrup.data.rank.RankPosition;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.maplestar.syrup.utils.RenderQuality;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * An image for a {@link RenderWorker} to draw, with everything it needs so it doesn't have to access Discord.
+ * The images are passed as their encoded bytes, as they were downloaded.
+ */
+public sealed interface RenderJob {
+    /**
+     * The quality to draw the image in, never {@link RenderQuality#TEXT}.
+     *
+     * @return the quality
+     */
+    RenderQuality quality();
+
+    /**
+     * The image of /rank, see {@link ImageUtils#renderRankImage}.
+     *
+     * @param name the displayed name of the user
+     * @param avatar the user's avatar
+     * @param banner the user's banner, or null if the accent color should be used instead
+     * @param accentColor the user's accent color, or null if they don't have one
+     * @param rankingData the user's ranking
+     * @param rankPosition the user's position relative to the other users, or null if it's unknown
+     * @param quality the quality
+     */
+    record Rank(String name, byte[] avatar, @Nullable byte[] banner, @Nullable Color accentColor, RankingData rankingData,
+                @Nullable RankPosition rankPosition, RenderQuality quality) implements RenderJob {
+    }
+
+    /**
+     * The image of /leaderboard, see {@link ImageUtils#renderLeaderboardImage}.
+     *
+     * @param guildName the name of the guild
+     * @param guildAvatar the icon of the guild
+     * @param you the user who requested the leaderboard
+     * @param entries the ranked users on the page
+     * @param currentPage the page
+     * @param totalPages the number of pages
+     * @param quality the quality
+     */
+    record Leaderboard(String guildName, byte[] guildAvatar, Entry you, List<Entry> entries, int currentPage, int totalPages,
+                       RenderQuality quality) implements RenderJob {
+    }
+
+    /**
+     * A user on a leaderboard page, see {@link ImageUtils.LeaderboardEntry}.
+     *
+     * @param rankingData the user's ranking
+     * @param name the displayed name of the user
+     * @param avatarUrl the URL of the user's avatar, which the rows are cached by
+     * @param avatar the user's avatar
+     */
+    record Entry(RankingData rankingData, String name, String avatarUrl, byte[] avatar) {
+    }
+}
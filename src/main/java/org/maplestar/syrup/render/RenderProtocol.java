@@ -0,0 +1,237 @@
+package org.maplestar.syrup.render;
+
+import org.maplestar.syrup.data.rank.LevelData;
+import org.maplestar.syrup.data.rank.RankPosition;
+import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.utils.RenderQuality;
+
+import java.awt.*;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The messages between the bot and its {@link RenderWorker}s.
+ * <p>
+ * The bot sends a request, which is a type byte followed by the job, and the worker answers with a status byte
+ * followed by the PNG or an error message. Requests are handled one after another, so they don't need IDs.
+ * Byte arrays and strings are prefixed with their length, and a missing value with a length of -1.
+ */
+final class RenderProtocol {
+    static final int PING = 0;
+    static final int RANK = 1;
+    static final int LEADERBOARD = 2;
+
+    private static final int OK = 0;
+    private static final int FAILED = 1;
+    // guards against allocating absurd arrays if the stream is out of sync
+    private static final int MAX_LENGTH = 256 * 1024 * 1024;
+
+    private RenderProtocol() {
+    }
+
+    /**
+     * Writes a request that only checks whether the worker responds.
+     *
+     * @param out the stream to the worker
+     * @throws IOException if the request can't be written
+     */
+    static void writePing(DataOutputStream out) throws IOException {
+        out.writeByte(PING);
+        out.flush();
+    }
+
+    /**
+     * Writes a request to render the job.
+     *
+     * @param out the stream to the worker
+     * @param job the job
+     * @throws IOException if the request can't be written
+     */
+    static void writeJob(DataOutputStream out, RenderJob job) throws IOException {
+        switch (job) {
+            case RenderJob.Rank rank -> {
+                out.writeByte(RANK);
+                writeString(out, rank.name());
+                writeBytes(out, rank.avatar());
+                writeBytes(out, rank.banner());
+                out.writeBoolean(rank.accentColor() != null);
+                if (rank.accentColor() != null) out.writeInt(rank.accentColor().getRGB());
+                writeRankingData(out, rank.rankingData());
+                out.writeBoolean(rank.rankPosition() != null);
+                if (rank.rankPosition() != null) {
+                    out.writeDouble(rank.rankPosition().percentile());
+                    out.writeInt(rank.rankPosition().nextRank());
+                    out.writeLong(rank.rankPosition().xpToNextRank());
+                }
+                out.writeByte(rank.quality().ordinal());
+            }
+            case RenderJob.Leaderboard leaderboard -> {
+                out.writeByte(LEADERBOARD);
+                writeString(out, leaderboard.guildName());
+                writeBytes(out, leaderboard.guildAvatar());
+                writeEntry(out, leaderboard.you());
+                out.writeInt(leaderboard.entries().size());
+                for (var entry : leaderboard.entries()) {
+                    writeEntry(out, entry);
+                }
+                out.writeInt(leaderboard.currentPage());
+                out.writeInt(leaderboard.totalPages());
+                out.writeByte(leaderboard.quality().ordinal());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the job of a request after its type.
+     *
+     * @param in the stream from the bot
+     * @param type the type of the request, {@link RenderProtocol#RANK} or {@link RenderProtocol#LEADERBOARD}
+     * @return the job
+     * @throws IOException if the job can't be read
+     */
+    static RenderJob readJob(DataInputStream in, int type) throws IOException {
+        return switch (type) {
+            case RANK -> {
+                var name = readString(in);
+                var avatar = readBytes(in);
+                var banner = readBytes(in);
+                var accentColor = in.readBoolean() ? new Color(in.readInt(), true) : null;
+                var rankingData = readRankingData(in);
+                var rankPosition = in.readBoolean() ? new RankPosition(in.readDouble(), in.readInt(), in.readLong()) : null;
+                yield new RenderJob.Rank(name, avatar, banner, accentColor, rankingData, rankPosition, readQuality(in));
+            }
+            case LEADERBOARD -> {
+                var guildName = readString(in);
+                var guildAvatar = readBytes(in);
+                var you = readEntry(in);
+                int count = in.readInt();
+                List<RenderJob.Entry> entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    entries.add(readEntry(in));
+                }
+                yield new RenderJob.Leaderboard(guildName, guildAvatar, you, entries, in.readInt(), in.readInt(), readQuality(in));
+            }
+            default -> throw new StreamCorruptedException("Unknown request type " + type);
+        };
+    }
+
+    /**
+     * Writes a successful response.
+     *
+     * @param out the stream to the bot
+     * @param png the rendered image, empty for pings
+     * @throws IOException if the response can't be written
+     */
+    static void writeResult(DataOutputStream out, byte[] png) throws IOException {
+        out.writeByte(OK);
+        writeBytes(out, png);
+        out.flush();
+    }
+
+    /**
+     * Writes a response for a job that couldn't be rendered.
+     *
+     * @param out the stream to the bot
+     * @param message the reason
+     * @throws IOException if the response can't be written
+     */
+    static void writeFailure(DataOutputStream out, String message) throws IOException {
+        out.writeByte(FAILED);
+        writeString(out, message);
+        out.flush();
+    }
+
+    /**
+     * Reads the response to a request.
+     *
+     * @param in the stream from the worker
+     * @return the rendered image, empty for pings
+     * @throws RenderFailedException if the worker couldn't render the job, but is still usable
+     * @throws IOException if the response can't be read
+     */
+    static byte[] readResult(DataInputStream in) throws IOException {
+        int status = in.readUnsignedByte();
+        return switch (status) {
+            case OK -> readBytes(in);
+            case FAILED -> throw new RenderFailedException(readString(in));
+            default -> throw new StreamCorruptedException("Unknown response status " + status);
+        };
+    }
+
+    private static void writeEntry(DataOutputStream out, RenderJob.Entry entry) throws IOException {
+        writeRankingData(out, entry.rankingData());
+        writeString(out, entry.name());
+        writeString(out, entry.avatarUrl());
+        writeBytes(out, entry.avatar());
+    }
+
+    private static RenderJob.Entry readEntry(DataInputStream in) throws IOException {
+        return new RenderJob.Entry(readRankingData(in), readString(in), readString(in), readBytes(in));
+    }
+
+    private static void writeRankingData(DataOutputStream out, RankingData rankingData) throws IOException {
+        out.writeLong(rankingData.userID());
+        out.writeInt(rankingData.rank());
+        out.writeInt(rankingData.levelData().level());
+        out.writeLong(rankingData.levelData().xp());
+    }
+
+    private static RankingData readRankingData(DataInputStream in) throws IOException {
+        long userID = in.readLong();
+        int rank = in.readInt();
+        return new RankingData(userID, rank, new LevelData(in.readInt(), in.readLong()));
+    }
+
+    private static RenderQuality readQuality(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= RenderQuality.values().length) throw new StreamCorruptedException("Unknown quality " + ordinal);
+        return RenderQuality.values()[ordinal];
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = readBytes(in);
+        if (bytes == null) throw new StreamCorruptedException("Missing string");
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) return null;
+        if (length < 0 || length > MAX_LENGTH) throw new StreamCorruptedException("Invalid length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * A job the worker couldn't render, e.g. because an image couldn't be decoded.
+     */
+    static final class RenderFailedException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        RenderFailedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.maplestar.syrup.render;
+
+import org.maplestar.syrup.Main;
+import org.maplestar.syrup.config.Config;
+import org.maplestar.syrup.utils.ImageUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The entry point of a render worker, a separate process started by the {@link RenderWorkerPool} of the bot.
+ * <p>
+ * Connects to the Unix domain socket of the bot and renders the jobs it receives until the connection is closed,
+ * which is also how it notices that the bot stopped. The encoder settings are loaded from the same ".env" as the bot.
+ */
+public class RenderWorker {
+    private static final Logger logger = LoggerFactory.getLogger(RenderWorker.class);
+
+    /**
+     * Runs the worker.
+     *
+     * @param args the path of the socket and the number of threads to render with
+     * @throws IOException if the connection to the bot fails
+     */
+    public static void main(String[] args) throws IOException {
+        var socketPath = Path.of(args[0]);
+        int threads = Integer.parseInt(args[1]);
+
+        Main.loadFonts();
+        ImageIO.setUseCache(false); // the images are decoded from memory, there's no need to cache them on disk
+        ImageUtils.setPngEncoder(Config.load().pngEncoder());
+        ImageUtils.setRenderPool(new ForkJoinPool(threads));
+
+        try (var channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            logger.info("Render worker connected to {}", socketPath);
+
+            int type;
+            while ((type = in.read()) >= 0) {
+                if (type == RenderProtocol.PING) {
+                    RenderProtocol.writeResult(out, new byte[0]);
+                    continue;
+                }
+
+                var job = RenderProtocol.readJob(in, type);
+                byte[] png;
+                try {
+                    png = render(job);
+                } catch (Exception exception) {
+                    logger.error("Couldn't render {}", job.getClass().getSimpleName(), exception);
+                    RenderProtocol.writeFailure(out, String.valueOf(exception.getMessage()));
+                    continue;
+                }
+                RenderProtocol.writeResult(out, png);
+            }
+        }
+
+        logger.info("Render worker disconnected, shutting down");
+        System.exit(0);
+    }
+
+    private static byte[] render(RenderJob job) throws IOException {
+        return switch (job) {
+            case RenderJob.Rank rank -> ImageUtils.encodePNG(ImageUtils.renderRankImage(
+                    rank.name(),
+                    decode(rank.avatar()),
+                    rank.banner() == null ? null : decode(rank.banner()),
+                    rank.accentColor(),
+                    rank.rankingData(),
+                    rank.rankPosition(),
+                    rank.quality()
+            ));
+            case RenderJob.Leaderboard leaderboard -> {
+                // only the avatars of the rows that aren't cached are decoded
+                Map<String, byte[]> avatars = new HashMap<>();
+                avatars.put(leaderboard.you().avatarUrl(), leaderboard.you().avatar());
+                List<ImageUtils.LeaderboardEntry> entries = new ArrayList<>(leaderboard.entries().size());
+                for (var entry : leaderboard.entries()) {
+                    avatars.put(entry.avatarUrl(), entry.avatar());
+                    entries.add(toLeaderboardEntry(entry));
+                }
+                yield ImageUtils.encodePNG(ImageUtils.renderLeaderboardImage(
+                        leaderboard.guildName(),
+                        decode(leaderboard.guildAvatar()),
+                        toLeaderboardEntry(leaderboard.you()),
+                        entries,
+                        leaderboard.currentPage(),
+                        leaderboard.totalPages(),
+                        leaderboard.quality(),
+                        url -> decode(avatars.get(url))
+                ));
+            }
+        };
+    }
+
+    private static ImageUtils.LeaderboardEntry toLeaderboardEntry(RenderJob.Entry entry) {
+        return new ImageUtils.LeaderboardEntry(entry.rankingData(), entry.name(), entry.avatarUrl());
+    }
+
+    private static BufferedImage decode(byte[] bytes) throws IOException {
+        var image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) throw new IOException("Unsupported image format");
+        return image;
+    }
+}
@@ -0,0 +1,293 @@
+package org.maplestar.syrup.render;
+
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders images in separate processes, so the garbage of a burst of renders doesn't pause the bot,
+ * which would delay the heartbeats of the gateway and the processing of messages.
+ * <p>
+ * Every worker is a child JVM running {@link RenderWorker}, connected to the bot through its own Unix domain socket.
+ * A worker renders one job at a time, so jobs wait for a free worker. Workers that crash, stop responding to the
+ * regular health check, or exceed the timeout of a job are killed and replaced by a new process.
+ * <p>
+ * Is safe to use from multiple threads.
+ */
+public class RenderWorkerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(RenderWorkerPool.class);
+    private static final Counter restarts = Metrics.counter("syrup_render_worker_restarts_total",
+            "Render workers that were replaced after they failed");
+
+    private static final Duration JOB_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration RESTART_DELAY = Duration.ofSeconds(5);
+    private static final Duration HEALTH_CHECK_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration PING_TIMEOUT = Duration.ofSeconds(5);
+
+    private final int threadsPerWorker;
+    private final String heapSize;
+    private final Path socketDirectory;
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+    // only for timers, everything that blocks runs on virtual threads
+    private final ScheduledThreadPoolExecutor scheduler;
+    private volatile boolean closed;
+
+    /**
+     * Initializes the class and starts the workers in the background.
+     *
+     * @param workerCount the number of worker processes
+     * @param threadsPerWorker the number of threads each worker renders with
+     * @param heapSize the maximum heap size of each worker, e.g. "512m"
+     * @throws UncheckedIOException if the directory for the sockets can't be created
+     */
+    public RenderWorkerPool(int workerCount, int threadsPerWorker, String heapSize) {
+        this.threadsPerWorker = threadsPerWorker;
+        this.heapSize = heapSize;
+        try {
+            this.socketDirectory = Files.createTempDirectory("syrup-render");
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("render-worker-scheduler").daemon().factory());
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.scheduleWithFixedDelay(this::checkHealth,
+                HEALTH_CHECK_INTERVAL.toMillis(), HEALTH_CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+
+        Metrics.gauge("syrup_render_workers", "Running render worker processes").set(workers::size);
+
+        for (int id = 0; id < workerCount; id++) {
+            int workerID = id;
+            Thread.ofVirtual().name("render-worker-start-" + id).start(() -> startWorker(workerID));
+        }
+    }
+
+    /**
+     * Renders the job on the next free worker. The job may wait for a worker and render for up to the timeout each.
+     *
+     * @param job the job
+     * @return the image encoded as PNG
+     * @throws IOException if no worker is free in time, the worker fails or takes too long, or the job can't be rendered
+     */
+    public byte[] render(RenderJob job) throws IOException {
+        Worker worker;
+        try {
+            worker = idleWorkers.poll(JOB_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a render worker");
+        }
+        if (worker == null) throw new IOException("No render worker became available within " + JOB_TIMEOUT);
+
+        return exchange(worker, JOB_TIMEOUT.toNanos(), () -> RenderProtocol.writeJob(worker.out, job));
+    }
+
+    // sends a request and reads the response, and replaces the worker if that fails or takes too long
+    private byte[] exchange(Worker worker, long timeoutNanos, Request request) throws IOException {
+        var timedOut = new AtomicBoolean();
+        var deadlineTask = scheduler.schedule(() -> {
+            timedOut.set(true);
+            worker.closeChannel();
+        }, Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+
+        byte[] result;
+        try {
+            request.write();
+            result = RenderProtocol.readResult(worker.in);
+        } catch (RenderProtocol.RenderFailedException exception) {
+            releaseOrReplace(worker, deadlineTask);
+            throw exception;
+        } catch (IOException exception) {
+            deadlineTask.cancel(false);
+            replace(worker, timedOut.get() ? "timed out" : exception.toString());
+            if (timedOut.get()) throw new IOException("Render worker " + worker.id + " timed out", exception);
+            throw new IOException("Render worker " + worker.id + " failed", exception);
+        }
+
+        releaseOrReplace(worker, deadlineTask);
+        return result;
+    }
+
+    private void releaseOrReplace(Worker worker, Future<?> deadlineTask) {
+        // the deadline may have closed the connection right after the response arrived
+        if (deadlineTask.cancel(false)) {
+            worker.lastUsed = System.nanoTime();
+            idleWorkers.add(worker);
+        } else {
+            replace(worker, "timed out");
+        }
+    }
+
+    // pings the worker that has been idle the longest, one at a time so jobs don't find every worker busy with a ping,
+    // and workers that just finished a job have shown that they're responding
+    private void checkHealth() {
+        long now = System.nanoTime();
+        Worker oldest = null;
+        for (var worker : idleWorkers) {
+            if (now - worker.lastUsed < HEALTH_CHECK_INTERVAL.toNanos()) continue;
+            if (oldest == null || worker.lastUsed < oldest.lastUsed) oldest = worker;
+        }
+        if (oldest == null || !idleWorkers.remove(oldest)) return;
+
+        var worker = oldest;
+        Thread.ofVirtual().name("render-worker-health-" + worker.id).start(() -> {
+            try {
+                exchange(worker, PING_TIMEOUT.toNanos(), () -> RenderProtocol.writePing(worker.out));
+            } catch (IOException exception) {
+                logger.warn("Render worker {} failed its health check", worker.id, exception);
+            }
+        });
+    }
+
+    // kills the worker and starts a new one in its place, unless that already happened
+    private void replace(Worker worker, String reason) {
+        if (closed || !workers.remove(worker)) return;
+
+        idleWorkers.remove(worker);
+        worker.destroy();
+        restarts.inc();
+        logger.warn("Replacing render worker {}: {}", worker.id, reason);
+        startWorkerLater(worker.id);
+    }
+
+    private void startWorkerLater(int id) {
+        if (closed) return;
+        scheduler.schedule(() -> Thread.ofVirtual().name("render-worker-start-" + id).start(() -> startWorker(id)),
+                RESTART_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void startWorker(int id) {
+        if (closed) return;
+
+        var socketPath = socketDirectory.resolve("worker-" + id + ".sock");
+        Process process = null;
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(socketPath);
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            process = new ProcessBuilder(workerCommand(socketPath)).inheritIO().start();
+
+            // a worker that exits or doesn't connect in time is given up on, closing the socket stops waiting for it
+            var startupTimeout = scheduler.schedule(() -> closeQuietly(server), STARTUP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            var startupExit = process.onExit().thenRun(() -> closeQuietly(server));
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } finally {
+                startupTimeout.cancel(false);
+                startupExit.cancel(false);
+                Files.deleteIfExists(socketPath);
+            }
+
+            var worker = new Worker(id, process, channel);
+            workers.add(worker);
+            idleWorkers.add(worker);
+            process.onExit().thenRun(() -> replace(worker, "exited with code " + worker.process.exitValue()));
+            logger.info("Started render worker {} (pid {})", id, process.pid());
+
+            if (closed) worker.destroy();
+        } catch (IOException exception) {
+            logger.error("Couldn't start render worker {}, trying again", id, exception);
+            if (process != null) process.destroyForcibly();
+            startWorkerLater(id);
+        }
+    }
+
+    private List<String> workerCommand(Path socketPath) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heapSize);
+        command.add("-XX:+ExitOnOutOfMemoryError"); // a worker without memory is replaced rather than left half-broken
+        command.add("-Djava.awt.headless=true");
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            command.add("--add-modules");
+            command.add("jdk.incubator.vector");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RenderWorker.class.getName());
+        command.add(socketPath.toString());
+        command.add(String.valueOf(threadsPerWorker));
+        return command;
+    }
+
+    /**
+     * Stops all workers. Jobs that are still waiting or rendering fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        for (var worker : workers) {
+            worker.destroy();
+        }
+        workers.clear();
+        idleWorkers.clear();
+
+        try {
+            Files.deleteIfExists(socketDirectory);
+        } catch (IOException exception) {
+            logger.warn("Couldn't delete the render worker sockets in {}", socketDirectory, exception);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // the worker is replaced anyway
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        void write() throws IOException;
+    }
+
+    /**
+     * A running worker process and the connection to it.
+     */
+    private static final class Worker {
+        private final int id;
+        private final Process process;
+        private final SocketChannel channel;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        // when the worker last responded, see System#nanoTime()
+        private volatile long lastUsed = System.nanoTime();
+
+        private Worker(int id, Process process, SocketChannel channel) {
+            this.id = id;
+            this.process = process;
+            this.channel = channel;
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        }
+
+        private void closeChannel() {
+            closeQuietly(channel);
+        }
+
+        private void destroy() {
+            closeChannel();
+            process.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.maplestar.syrup.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The coverage of a shape as one byte per pixel, which cuts images into that shape in place,
+ * e.g. avatars into circles or bars into rounded rectangles.
+ * <p>
+ * Drawing an image into another one with a clip goes through the slow, general path of Java2D and needs a second image
+ * for the result. A mask instead only scales the alpha of the pixels the shape doesn't fully cover, directly in the
+ * pixel array of the image, with the Vector API if the {@code jdk.incubator.vector} module is available.
+ * Rows are only processed outside the span the shape fully covers, so for rounded rectangles that's just the corners.
+ * <p>
+ * Masks are cached by their shape and size, as the same few shapes are used for every image.
+ */
+final class AlphaMask {
+    private static final Logger logger = LoggerFactory.getLogger(AlphaMask.class);
+    private static final int MAX_CACHED_MASKS = 64;
+    private static final boolean vectorized = isVectorApiAvailable();
+    private static final Map<Key, AlphaMask> masks = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, AlphaMask> eldest) {
+            return size() > MAX_CACHED_MASKS;
+        }
+    });
+
+    private final int width;
+    private final int height;
+    private final byte[] coverage;
+    // the span of every row that's fully covered, which doesn't need to be processed
+    private final int[] coveredFrom;
+    private final int[] coveredTo;
+
+    private AlphaMask(int width, int height, byte[] coverage) {
+        this.width = width;
+        this.height = height;
+        this.coverage = coverage;
+        this.coveredFrom = new int[height];
+        this.coveredTo = new int[height];
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int from = 0;
+            while (from < width && coverage[row + from] != -1) from++;
+            int to = from;
+            while (to < width && coverage[row + to] == -1) to++;
+
+            // only a single span per row is skipped, a shape with holes is processed wherever the first span ends
+            coveredFrom[y] = from;
+            coveredTo[y] = to;
+        }
+    }
+
+    /**
+     * Returns the mask of a shape, rasterized like a clip of the same shape, so it cuts out exactly the same pixels.
+     *
+     * @param shape the shape in the coordinates of the image before scaling, which must implement equals like the shapes of {@link java.awt.geom}
+     * @param width the width of the image in pixels
+     * @param height the height of the image in pixels
+     * @param scale the factor the shape is scaled by, see {@link RenderQuality#scale()}
+     * @return the mask
+     */
+    static AlphaMask of(Shape shape, int width, int height, double scale) {
+        var key = new Key(shape, width, height, scale);
+        var mask = masks.get(key);
+        if (mask == null) {
+            mask = rasterize(shape, width, height, scale);
+            masks.put(key, mask);
+        }
+        return mask;
+    }
+
+    private static AlphaMask rasterize(Shape shape, int width, int height, double scale) {
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        var g2d = image.createGraphics();
+        g2d.scale(scale, scale);
+        g2d.setClip(shape);
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, (int) Math.ceil(width / scale), (int) Math.ceil(height / scale));
+        g2d.dispose();
+
+        return new AlphaMask(width, height, ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+    }
+
+    /**
+     * Cuts the image into the shape of the mask: pixels outside of it become fully transparent,
+     * and the alpha of pixels on its edge is scaled by their coverage.
+     *
+     * @param image the image, which must have the type {@link BufferedImage#TYPE_INT_ARGB} and the size of the mask
+     * @throws IllegalArgumentException if the image doesn't match the mask
+     */
+    void apply(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB || image.getWidth() != width || image.getHeight() != height
+                || !(image.getRaster().getDataBuffer() instanceof DataBufferInt buffer) || buffer.getData().length != width * height) {
+            throw new IllegalArgumentException("The image doesn't match the mask");
+        }
+
+        int[] pixels = buffer.getData();
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            apply(pixels, coverage, row, coveredFrom[y]);
+            apply(pixels, coverage, row + coveredTo[y], width - coveredTo[y]);
+        }
+    }
+
+    private static void apply(int[] pixels, byte[] coverage, int offset, int length) {
+        if (length == 0) return;
+
+        if (vectorized) {
+            VectorizedMasking.apply(pixels, coverage, offset, length);
+        } else {
+            applyScalar(pixels, coverage, offset, length);
+        }
+    }
+
+    /**
+     * Scales the alpha of the ARGB pixels by the coverage, where 255 is full coverage,
+     * and clears the pixels that end up fully transparent.
+     *
+     * @param pixels the pixels
+     * @param coverage the coverage of every pixel
+     * @param offset the index of the first pixel
+     * @param length the number of pixels
+     */
+    static void applyScalar(int[] pixels, byte[] coverage, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int alpha = multiply(pixels[i] >>> 24, coverage[i] & 0xFF);
+            pixels[i] = alpha == 0 ? 0 : alpha << 24 | pixels[i] & 0xFFFFFF;
+        }
+    }
+
+    // a * b / 255, rounded to the nearest integer
+    private static int multiply(int a, int b) {
+        int product = a * b + 128;
+        return (product + (product >>> 8)) >>> 8;
+    }
+
+    private static boolean isVectorApiAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            logger.debug("Applying alpha masks without the Vector API, add the module jdk.incubator.vector to use it");
+            return false;
+        }
+
+        // compares the results on every possible alpha and coverage, in case the vectorized version is broken on this platform
+        try {
+            int[] expected = new int[256 * 256];
+            byte[] coverage = new byte[expected.length];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = (i >>> 8) << 24 | 0x123456;
+                coverage[i] = (byte) i;
+            }
+            int[] actual = expected.clone();
+            applyScalar(expected, coverage, 0, expected.length);
+            VectorizedMasking.apply(actual, coverage, 0, actual.length);
+
+            if (!Arrays.equals(expected, actual)) {
+                logger.warn("Applying alpha masks without the Vector API, as its results differ");
+                return false;
+            }
+            return true;
+        } catch (LinkageError error) {
+            logger.warn("Applying alpha masks without the Vector API, as it can't be loaded", error);
+            return false;
+        }
+    }
+
+    private record Key(Shape shape, int width, int height, double scale) {
+    }
+}
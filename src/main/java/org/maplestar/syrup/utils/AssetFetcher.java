@@ -0,0 +1,292 @@
+package org.maplestar.syrup.utils;
+
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Histogram;
+import org.maplestar.syrup.metrics.Metrics;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Serial;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads avatars, banners and guild icons from Discord's CDN with a shared {@link HttpClient},
+ * which keeps connections open and multiplexes the downloads over HTTP/2.
+ * <p>
+ * Unlike {@link ImageSource#fromURL()}, every download has a deadline that also covers reading the body,
+ * so a stalled connection can't block a render forever. Bodies larger than the size limit are aborted
+ * instead of being decoded, and only a limited number of downloads run at once, the others wait for their turn
+ * within their deadline. Images are decoded while they're downloaded, without buffering the whole body first.
+ * <p>
+ * Is safe to use from multiple threads.
+ */
+public final class AssetFetcher implements ImageSource {
+    private static final Histogram fetchDuration = Metrics.histogram("syrup_asset_fetch_duration_seconds",
+            "Time to download and decode avatars, banners and guild icons", "host");
+    private static final Counter fetchErrors = Metrics.counter("syrup_asset_fetch_errors_total",
+            "Failed downloads of avatars, banners and guild icons", "host", "reason");
+
+    private static final Duration MAX_CONNECT_TIMEOUT = Duration.ofSeconds(3);
+    // closes the bodies of downloads that are past their deadline, which unblocks the thread reading them
+    private static final ScheduledThreadPoolExecutor deadlines = createDeadlineExecutor();
+
+    private final HttpClient httpClient;
+    private final Duration timeout;
+    private final long maxBytes;
+    private final Semaphore permits;
+
+    /**
+     * Initializes the class with a timeout of 10 seconds, a limit of 8 MB and at most 16 downloads at once.
+     */
+    public AssetFetcher() {
+        this(Duration.ofSeconds(10), 8 * 1024 * 1024, 16);
+    }
+
+    /**
+     * Initializes the class.
+     *
+     * @param timeout the maximum duration of a download, including waiting for its turn and decoding the image
+     * @param maxBytes the maximum size of a downloaded image
+     * @param maxConcurrentDownloads the maximum number of downloads at once
+     * @throws IllegalArgumentException if a limit isn't positive
+     */
+    public AssetFetcher(Duration timeout, long maxBytes, int maxConcurrentDownloads) {
+        if (timeout.isNegative() || timeout.isZero() || maxBytes <= 0 || maxConcurrentDownloads <= 0) {
+            throw new IllegalArgumentException("The limits must be positive");
+        }
+
+        this.timeout = timeout;
+        this.maxBytes = maxBytes;
+        this.permits = new Semaphore(maxConcurrentDownloads, true);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(timeout.compareTo(MAX_CONNECT_TIMEOUT) < 0 ? timeout : MAX_CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Downloads and decodes the image behind the URL.
+     *
+     * @param url the URL of the image
+     * @return the image
+     * @throws IOException if the download fails, takes too long or is too large, or the body isn't an image
+     */
+    @Override
+    public BufferedImage loadImage(String url) throws IOException {
+        return fetch(url, (imageStream, uri) -> {
+            var image = ImageIO.read(imageStream);
+            if (image == null) {
+                // closes the stream itself, unless there's no reader for the format
+                imageStream.close();
+                throw new FetchException("invalid", "Unsupported image format: " + uri);
+            }
+            return image;
+        });
+    }
+
+    /**
+     * Downloads the image behind the URL without decoding it, with the same limits as {@link AssetFetcher#loadImage(String)}.
+     *
+     * @param url the URL of the image
+     * @return the encoded image
+     * @throws IOException if the download fails, takes too long or is too large
+     */
+    @Override
+    public byte[] loadImageBytes(String url) throws IOException {
+        return fetch(url, (imageStream, uri) -> {
+            try (imageStream) {
+                var bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = imageStream.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, count);
+                }
+                return bytes.toByteArray();
+            }
+        });
+    }
+
+    private <T> T fetch(String url, BodyReader<T> bodyReader) throws IOException {
+        var uri = URI.create(url);
+        String host = uri.getHost() == null ? "unknown" : uri.getHost().toLowerCase(Locale.ROOT);
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+
+        try {
+            var result = fetch(uri, deadline, bodyReader);
+            fetchDuration.labels(host).observeSince(start);
+            return result;
+        } catch (FetchException exception) {
+            fetchErrors.labels(host, exception.reason).inc();
+            throw exception;
+        } catch (HttpTimeoutException exception) {
+            fetchErrors.labels(host, "timeout").inc();
+            throw exception;
+        } catch (IOException exception) {
+            fetchErrors.labels(host, "io").inc();
+            throw exception;
+        }
+    }
+
+    private <T> T fetch(URI uri, long deadline, BodyReader<T> bodyReader) throws IOException {
+        try {
+            if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new FetchException("busy", "Too many downloads in progress to download " + uri);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to download " + uri);
+        }
+
+        try {
+            return download(uri, deadline, bodyReader);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private <T> T download(URI uri, long deadline, BodyReader<T> bodyReader) throws IOException {
+        var request = HttpRequest.newBuilder(uri)
+                .timeout(remaining(deadline, uri))
+                .GET()
+                .build();
+
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + uri);
+        }
+
+        var timedOut = new AtomicBoolean();
+        try (var body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new FetchException("status", "Unexpected status " + response.statusCode() + " for " + uri);
+            }
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (contentLength > maxBytes) {
+                throw new FetchException("too_large", "Image of " + contentLength + " bytes is too large: " + uri);
+            }
+
+            var deadlineTask = deadlines.schedule(() -> {
+                timedOut.set(true);
+                closeQuietly(body);
+            }, remaining(deadline, uri).toNanos(), TimeUnit.NANOSECONDS);
+            try {
+                return bodyReader.read(new MemoryCacheImageInputStream(new LimitedInputStream(body, maxBytes, uri)), uri);
+            } finally {
+                deadlineTask.cancel(false);
+            }
+        } catch (IOException exception) {
+            if (timedOut.get()) throw new HttpTimeoutException("Download timed out: " + uri);
+            // the image readers wrap the exceptions of the stream, e.g. when it exceeds the limit
+            if (exception.getCause() instanceof FetchException fetchException) throw fetchException;
+            throw exception;
+        }
+    }
+
+    private static Duration remaining(long deadline, URI uri) throws HttpTimeoutException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) throw new HttpTimeoutException("Download timed out: " + uri);
+        return Duration.ofNanos(remaining);
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+            // the download is aborted anyway
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createDeadlineExecutor() {
+        var executor = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("asset-fetch-deadlines").daemon().factory());
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Reads the body of a download, which may be cut off once it exceeds the limit or deadline.
+     *
+     * @param <T> the result
+     */
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(ImageInputStream imageStream, URI uri) throws IOException;
+    }
+
+    /**
+     * Fails once more than the maximum number of bytes has been read, so large bodies aren't downloaded entirely.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private final URI uri;
+        private long bytesRead;
+
+        private LimitedInputStream(InputStream in, long maxBytes, URI uri) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.uri = uri;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) count(1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) count(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long bytes) throws FetchException {
+            bytesRead += bytes;
+            if (bytesRead > maxBytes) throw new FetchException("too_large", "Image exceeds " + maxBytes + " bytes: " + uri);
+        }
+    }
+
+    /**
+     * A failed download, with the reason to report in the metrics.
+     */
+    private static final class FetchException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final String reason;
+
+        private FetchException(String reason, String message) {
+            super(message);
+            this.reason = reason;
+        }
+    }
+}
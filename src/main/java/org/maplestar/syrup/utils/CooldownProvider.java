@@ -1,16 +1,17 @@
 package org.maplestar.syrup.utils;
 
 import java.time.Duration;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for applying and checking cooldowns for multiple unique objects.
+ * Is safe to use from multiple threads, e.g. the event threads of multiple shards.
  *
  * @param <T> the type that should be put on cooldown
  */
 public class CooldownProvider<T> {
-    private final Map<T, Duration> cooldownTimes = new HashMap<>();
+    private final Map<T, Duration> cooldownTimes = new ConcurrentHashMap<>();
     private final Duration duration;
 
     private CooldownProvider(Duration duration) {
@@ -25,9 +26,10 @@ public class CooldownProvider<T> {
      * @return true if this object is still on cooldown
      */
     public boolean isOnCooldown(T t) {
-        if (!cooldownTimes.containsKey(t)) return false;
+        var cooldownTime = cooldownTimes.get(t);
+        if (cooldownTime == null) return false;
 
-        return cooldownTimes.get(t).toMillis() > System.currentTimeMillis();
+        return cooldownTime.toMillis() > System.currentTimeMillis();
     }
 
     /**
@@ -39,6 +41,38 @@ public class CooldownProvider<T> {
         cooldownTimes.put(t, duration.plusMillis(System.currentTimeMillis()));
     }
 
+    /**
+     * Applies the cooldown for an object unless it's already on cooldown, as a single atomic step.
+     * Unlike checking {@link CooldownProvider#isOnCooldown(Object)} first, this doesn't let concurrent callers both pass.
+     *
+     * @param t the object
+     * @return true if the cooldown was applied, false if the object was already on cooldown
+     */
+    public boolean tryApplyCooldown(T t) {
+        return tryApplyCooldown(t, duration);
+    }
+
+    /**
+     * Applies a cooldown with a different duration than the one provided during initialization of this class,
+     * unless the object is already on cooldown, see {@link CooldownProvider#tryApplyCooldown(Object)}.
+     *
+     * @param t the object
+     * @param duration the cooldown length
+     * @return true if the cooldown was applied, false if the object was already on cooldown
+     */
+    public boolean tryApplyCooldown(T t, Duration duration) {
+        long now = System.currentTimeMillis();
+        boolean[] applied = new boolean[1];
+        cooldownTimes.compute(t, (key, cooldownTime) -> {
+            if (cooldownTime != null && cooldownTime.toMillis() > now) return cooldownTime;
+
+            applied[0] = true;
+            return duration.plusMillis(now);
+        });
+
+        return applied[0];
+    }
+
     /**
      * Returns a new instance with the provided {@link Duration}.
      *
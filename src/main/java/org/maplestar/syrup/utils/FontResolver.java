@@ -0,0 +1,170 @@
+package org.maplestar.syrup.utils;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.text.AttributedString;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility class for drawing text that may contain characters the preferred font doesn't have, e.g. CJK or emoji in names.
+ * <p>
+ * Instead of leaving the fallback to AWT, which searches all installed fonts, every character is drawn with the first
+ * font of a fixed chain that can display it: the preferred font, then Kiwi Maru, Noto Sans JP, Noto Sans CJK and
+ * the Noto emoji fonts, and finally AWT's own fallback for anything else. Fonts that aren't installed are skipped.
+ * The font chosen for every character is cached, as are the fonts themselves and the measured text,
+ * so rendering the same name again doesn't measure it again.
+ */
+public final class FontResolver {
+    /**
+     * The fonts that are tried after the preferred font, in order.
+     */
+    public static final List<String> FALLBACK_FAMILIES = List.of("Kiwi Maru", "Noto Sans JP", "Noto Sans CJK JP", "Noto Emoji", "Noto Color Emoji");
+
+    // the same as the default of images without rendering hints, so the text looks the same as when drawn by AWT
+    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, false, false);
+    private static final int MAX_CACHED_LAYOUTS = 4096;
+
+    private static final Map<String, Chain> chains = new ConcurrentHashMap<>();
+    private static final Map<FontKey, Font> fonts = new ConcurrentHashMap<>();
+    private static final Map<LayoutKey, TextLayout> layouts = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LayoutKey, TextLayout> eldest) {
+            return size() > MAX_CACHED_LAYOUTS;
+        }
+    });
+    private static volatile Set<String> installedFamilies;
+
+    private FontResolver() {
+    }
+
+    /**
+     * Returns the font, which is only created once for every family, style and size.
+     *
+     * @param family the font family, e.g. "Noto Sans JP"
+     * @param style the style, e.g. {@link Font#BOLD}
+     * @param size the size
+     * @return the font
+     */
+    public static Font font(String family, int style, int size) {
+        return fonts.computeIfAbsent(new FontKey(family, style, size), key -> new Font(key.family(), key.style(), key.size()));
+    }
+
+    /**
+     * Measures the width of the text when drawn with {@link FontResolver#drawString}.
+     *
+     * @param text the text
+     * @param family the preferred font family
+     * @param style the style, e.g. {@link Font#BOLD}
+     * @param size the size
+     * @return the width in pixels
+     */
+    public static int width(String text, String family, int style, int size) {
+        var layout = layout(text, family, style, size);
+        return layout == null ? 0 : (int) Math.ceil(layout.getAdvance());
+    }
+
+    /**
+     * Draws the text in the current color of the graphics, with the fallback fonts for characters the preferred font can't display.
+     *
+     * @param g2d the graphics to draw on
+     * @param text the text
+     * @param family the preferred font family
+     * @param style the style, e.g. {@link Font#BOLD}
+     * @param size the size
+     * @param x the x coordinate of the start of the text
+     * @param y the y coordinate of the baseline
+     */
+    public static void drawString(Graphics2D g2d, String text, String family, int style, int size, float x, float y) {
+        var layout = layout(text, family, style, size);
+        if (layout != null) layout.draw(g2d, x, y);
+    }
+
+    /**
+     * Lays out the text with the font chain of the preferred font, or returns a cached layout.
+     *
+     * @param text the text
+     * @param family the preferred font family
+     * @param style the style, e.g. {@link Font#BOLD}
+     * @param size the size
+     * @return the layout, or null if the text is empty
+     */
+    public static TextLayout layout(String text, String family, int style, int size) {
+        if (text.isEmpty()) return null;
+
+        var key = new LayoutKey(text, family, style, size);
+        var layout = layouts.get(key);
+        if (layout == null) {
+            layout = createLayout(text, chains.computeIfAbsent(family, Chain::new), style, size);
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    private static TextLayout createLayout(String text, Chain chain, int style, int size) {
+        var attributedText = new AttributedString(text);
+        int runStart = 0;
+        int runFont = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            int font = chain.resolve(codePoint);
+            if (font != runFont) {
+                if (runFont >= 0) {
+                    attributedText.addAttribute(TextAttribute.FONT, font(chain.families[runFont], style, size), runStart, i);
+                }
+                runStart = i;
+                runFont = font;
+            }
+            i += Character.charCount(codePoint);
+        }
+        attributedText.addAttribute(TextAttribute.FONT, font(chain.families[runFont], style, size), runStart, text.length());
+
+        return new TextLayout(attributedText.getIterator(), FONT_RENDER_CONTEXT);
+    }
+
+    private static Set<String> installedFamilies() {
+        if (installedFamilies == null) {
+            // fonts registered later, e.g. from the resources, wouldn't be included, so this waits for the first render
+            installedFamilies = Set.of(GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames(Locale.ROOT));
+        }
+        return installedFamilies;
+    }
+
+    /**
+     * The fonts to try for a preferred font, with the index of the font to use for every character.
+     */
+    private static final class Chain {
+        private final String[] families;
+        private final Font[] fonts;
+        private final Map<Integer, Integer> fontByCodePoint = new ConcurrentHashMap<>();
+
+        private Chain(String preferredFamily) {
+            var chain = new LinkedHashSet<String>();
+            chain.add(preferredFamily);
+            chain.addAll(FALLBACK_FAMILIES);
+            chain.removeIf(family -> !installedFamilies().contains(family));
+            chain.add(Font.DIALOG); // AWT's own fallback, which can display the most characters
+
+            this.families = chain.toArray(String[]::new);
+            this.fonts = Arrays.stream(families).map(family -> font(family, Font.PLAIN, 1)).toArray(Font[]::new);
+        }
+
+        private int resolve(int codePoint) {
+            return fontByCodePoint.computeIfAbsent(codePoint, key -> {
+                for (int i = 0; i < fonts.length - 1; i++) {
+                    if (fonts[i].canDisplay(key)) return i;
+                }
+                return fonts.length - 1;
+            });
+        }
+    }
+
+    private record FontKey(String family, int style, int size) {
+    }
+
+    private record LayoutKey(String text, String family, int style, int size) {
+    }
+}
@@ -0,0 +1,47 @@
+package org.maplestar.syrup.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Source of the remote images (avatars, banners and guild icons) used by {@link ImageUtils}.
+ * Can be replaced to render images without access to Discord, e.g. in benchmarks.
+ */
+@FunctionalInterface
+public interface ImageSource {
+    /**
+     * Loads the image behind the URL.
+     *
+     * @param url the URL of the image
+     * @return the image
+     * @throws IOException if the image can't be loaded
+     */
+    BufferedImage loadImage(String url) throws IOException;
+
+    /**
+     * Loads the image behind the URL without decoding it, e.g. to send it to a render worker.
+     * Sources that don't have the original bytes encode the loaded image as PNG.
+     *
+     * @param url the URL of the image
+     * @return the encoded image
+     * @throws IOException if the image can't be loaded
+     */
+    default byte[] loadImageBytes(String url) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        ImageIO.write(loadImage(url), "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns an image source that downloads the images directly from their URL, without any timeouts or limits.
+     * {@link AssetFetcher} should be preferred.
+     *
+     * @return the image source
+     */
+    static ImageSource fromURL() {
+        return url -> ImageIO.read(URI.create(url).toURL());
+    }
+}
@@ -3,20 +3,34 @@ package org.maplestar.syrup.utils;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
+import org.jetbrains.annotations.Nullable;
 import org.maplestar.syrup.Main;
+import org.maplestar.syrup.data.rank.RankPosition;
 import org.maplestar.syrup.data.rank.RankingData;
+import org.maplestar.syrup.jfr.ImageRenderEvent;
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Histogram;
+import org.maplestar.syrup.metrics.Metrics;
+import org.maplestar.syrup.render.RenderJob;
+import org.maplestar.syrup.render.RenderWorkerPool;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
-import java.net.URL;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Utility class for generating images via the AWT library.
@@ -24,6 +38,62 @@ import java.util.List;
 public class ImageUtils {
     private static final String kiwiMaruFont = "Kiwi Maru";
     private static final String notoSansFont = "Noto Sans JP";
+    private static final Histogram renderDuration = Metrics.histogram("syrup_render_duration_seconds",
+            "Time to draw and encode images, excluding downloads", "image", "phase");
+    private static final Histogram outputSize = Metrics.histogram("syrup_render_output_bytes",
+            "Size of the encoded images", new double[]{64e3, 128e3, 256e3, 512e3, 1e6, 2e6, 4e6, 8e6}, "image");
+    private static final BufferedImage syrupIcon = loadSyrupIcon();
+    private static volatile ImageSource imageSource = new AssetFetcher();
+    private static volatile PngEncoder pngEncoder = PngEncoder.DEFAULT;
+    private static volatile ForkJoinPool renderPool = ForkJoinPool.commonPool();
+    private static volatile @Nullable RenderWorkerPool renderWorkers;
+
+    // a row is about half a megabyte at full quality, a pill about a tenth
+    private static final int MAX_CACHED_ROWS = 128;
+    private static final int MAX_CACHED_RANK_NUMBERS = 256;
+    private static final int MAX_PARALLEL_ROWS = 4;
+    private static final Counter cachedTiles = Metrics.counter("syrup_render_tile_cache_total",
+            "Lookups of cached parts of the leaderboard image", "tile", "result");
+    private static final Map<RenderQuality, BufferedImage> leaderboardBackgrounds = new ConcurrentHashMap<>();
+    private static final Map<RowKey, BufferedImage> leaderboardRows = lruCache(MAX_CACHED_ROWS);
+    private static final Map<Long, BufferedImage> rankNumberImages = lruCache(MAX_CACHED_RANK_NUMBERS);
+
+    /**
+     * Replaces the source of avatars, banners and guild icons, which downloads them from Discord with an {@link AssetFetcher} by default.
+     *
+     * @param imageSource the image source
+     */
+    public static void setImageSource(ImageSource imageSource) {
+        ImageUtils.imageSource = imageSource;
+    }
+
+    /**
+     * Replaces the encoder for the generated images, which uses the same settings as ImageIO by default.
+     *
+     * @param pngEncoder the encoder
+     */
+    public static void setPngEncoder(PngEncoder pngEncoder) {
+        ImageUtils.pngEncoder = pngEncoder;
+    }
+
+    /**
+     * Replaces the pool that leaderboard rows are drawn on and large images are encoded on in parallel, which is the common pool by default.
+     *
+     * @param renderPool the pool
+     */
+    public static void setRenderPool(ForkJoinPool renderPool) {
+        ImageUtils.renderPool = renderPool;
+    }
+
+    /**
+     * Sets the worker processes that the images of /rank and /leaderboard are drawn and encoded in.
+     * The images are drawn in this process if there are none, which is the default.
+     *
+     * @param renderWorkers the workers, or null to draw in this process
+     */
+    public static void setRenderWorkers(@Nullable RenderWorkerPool renderWorkers) {
+        ImageUtils.renderWorkers = renderWorkers;
+    }
 
     /**
      * Creates an image containing a user's name, rank, level, XP amount, and remaining XP until level-up.
@@ -31,21 +101,74 @@ public class ImageUtils {
      *
      * @param member the member
      * @param rankingData the member's ranking
+     * @param rankPosition the member's position relative to the other users, or null if it's unknown
+     * @param quality the quality, must not be {@link RenderQuality#TEXT}
      * @return the image in its byte representation
      * @throws IOException if there's a problem fetching the images from Discord or encoding the newly created image
      */
-    public static byte[] generateRankImage(Member member, User user, RankingData rankingData) throws IOException {
+    public static byte[] generateRankImage(Member member, User user, RankingData rankingData, @Nullable RankPosition rankPosition,
+                                           RenderQuality quality) throws IOException {
         // Load the avatar & banner from Discord
         var profile = user.retrieveProfile().complete();
-        var bannerUrl = profile.getBannerUrl();
-        var accentColor = profile.getAccentColor();
-        BufferedImage avatarImage = loadMemberAvatar(member, user, user.getIdLong());
-        BufferedImage bannerImage;
+        var bannerUrl = profile.getBannerUrl() != null ? profile.getBannerUrl() + "?size=1024" : null;
+        var avatarUrl = memberAvatarUrl(member, user, user.getIdLong());
 
-        // If there's no banner, use a cropped version of the avatar
-        if (bannerUrl != null) {
-            bannerImage = loadImageFromUrl(bannerUrl + "?size=1024");
+        String name;
+        if(member == null) {
+            name = user.getEffectiveName();
         } else {
+            name = member.getEffectiveName();
+        }
+
+        var workers = renderWorkers;
+        if (workers != null) {
+            var job = new RenderJob.Rank(name, imageSource.loadImageBytes(avatarUrl),
+                    bannerUrl != null ? imageSource.loadImageBytes(bannerUrl) : null,
+                    profile.getAccentColor(), rankingData, rankPosition, quality);
+            return renderOnWorker("rank", workers, job);
+        }
+
+        BufferedImage avatarImage = imageSource.loadImage(avatarUrl);
+        BufferedImage bannerImage = bannerUrl != null ? imageSource.loadImage(bannerUrl) : null;
+
+        var flightEvent = new ImageRenderEvent();
+        flightEvent.begin();
+        long start = System.nanoTime();
+        var image = renderRankImage(name, avatarImage, bannerImage, profile.getAccentColor(), rankingData, rankPosition, quality);
+        renderDuration.labels("rank", "compose").observeSince(start);
+        return timedEncodePNG("rank", image, flightEvent);
+    }
+
+    /**
+     * Describes the position of a user in a short line, e.g. "Top 5% · 1,234 XP to #41".
+     *
+     * @param rankPosition the position of the user
+     * @return the description
+     */
+    public static String formatRankPosition(RankPosition rankPosition) {
+        String topPercent = "Top " + rankPosition.topPercent() + "%";
+        if (rankPosition.isFirst()) return topPercent;
+
+        return String.format("%s · %,d XP to #%d", topPercent, rankPosition.xpToNextRank(), rankPosition.nextRank());
+    }
+
+    /**
+     * Draws the rank image from already loaded images, see {@link ImageUtils#generateRankImage(Member, User, RankingData, RankPosition, RenderQuality)}.
+     *
+     * @param name the displayed name of the user
+     * @param avatarImage the user's avatar
+     * @param bannerImage the user's banner, or null if the accent color should be used instead
+     * @param accentColor the user's accent color
+     * @param rankingData the user's ranking
+     * @param rankPosition the user's position relative to the other users, or null if it's unknown
+     * @param quality the quality, must not be {@link RenderQuality#TEXT}
+     * @return the image
+     */
+    public static BufferedImage renderRankImage(String name, BufferedImage avatarImage, @Nullable BufferedImage bannerImage,
+                                                Color accentColor, RankingData rankingData, @Nullable RankPosition rankPosition,
+                                                RenderQuality quality) {
+        // If there's no banner, use a cropped version of the avatar
+        if (bannerImage == null) {
             bannerImage = new BufferedImage(1024, 360, BufferedImage.TYPE_INT_ARGB);
             var g2dBanner = bannerImage.createGraphics();
             g2dBanner.setColor(accentColor);
@@ -53,32 +176,17 @@ public class ImageUtils {
             g2dBanner.dispose();
         }
 
-        BufferedImage preClippedImage = new BufferedImage(1600, 1300, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2dClip = preClippedImage.createGraphics();
-
-        // Antialiasing & better quality images
-        g2dClip.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); // idk what the heck this means
+        BufferedImage image = createImage(1600, 1300, quality);
+        Graphics2D g2d = createGraphics(image, quality);
 
         // Draw the banner
-        g2dClip.setColor(new Color(15, 15, 15));
-        g2dClip.fillRect(0, 0, 1600, 1300);
+        g2d.setColor(new Color(15, 15, 15));
+        g2d.fillRect(0, 0, 1600, 1300);
 
-        g2dClip.drawImage(bannerImage, 0, 0, 1600, 562, null);
-
-        g2dClip.dispose();
-
-        BufferedImage image = new BufferedImage(1600, 1300, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = image.createGraphics();
-
-        RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double(0, 0, preClippedImage.getWidth(), preClippedImage.getHeight(), 100, 100);
-        g2d.setClip(roundRect);
-        g2d.drawImage(preClippedImage, 0, 0, image.getWidth(), image.getHeight(), null);
+        g2d.drawImage(bannerImage, 0, 0, 1600, 562, null);
 
         // Draw Syrup Icon
-        URL url = Main.class.getResource("/images/syrupicon.png");
-        InputStream inputStream = url.openStream();
-        BufferedImage imageSyrup = ImageIO.read(inputStream);
-        g2d.drawImage(imageSyrup, 1375, 570, 192, 192, null);
+        g2d.drawImage(syrupIcon, 1375, 570, 192, 192, null);
 
         // Draw the avatar
         int avatarX = 52, avatarY = 200;
@@ -92,29 +200,33 @@ public class ImageUtils {
 
         // Draw the username and fit it appropriately
         int textX = 50, textY = 880;
-        String name;
-        if(member == null) {
-            name = user.getEffectiveName();
-        } else {
-            name = member.getEffectiveName();
-        }
-
         int nameInitialSize = 120;
-        int nameSize = fitText(name, (int) (image.getWidth() * 0.9), notoSansFont, nameInitialSize, g2d);
-        g2d.setFont(new Font(notoSansFont, Font.BOLD, nameSize));
+        int nameSize = fitText(name, (int) (1600 * 0.9), notoSansFont, nameInitialSize);
         g2d.setColor(Color.WHITE);
-        g2d.drawString(name, textX, textY);
+        FontResolver.drawString(g2d, name, notoSansFont, Font.BOLD, nameSize, textX, textY);
 
 
         // Draw Rank + Level + XP
         int normalTextSize = 80;
         int rankingX = 70, rankingY = 1150;
-        g2d.setFont(new Font(notoSansFont, Font.BOLD, normalTextSize));
+        g2d.setFont(FontResolver.font(notoSansFont, Font.BOLD, normalTextSize));
         int rankHeight = g2d.getFontMetrics().getHeight(); // to anchor it top-left
         g2d.setColor(Color.WHITE);
-        g2d.drawString("Rank " + (rankingData.isInvalid() ? "Invalid" : "#" + rankingData.rank()), rankingX - 10, textY + rankHeight);
+        String rankText = "Rank " + (rankingData.isInvalid() ? "Invalid" : "#" + rankingData.rank());
+        int rankWidth = FontResolver.width(rankText, notoSansFont, Font.BOLD, normalTextSize);
+        g2d.drawString(rankText, rankingX - 10, textY + rankHeight);
         g2d.drawString("Level " + rankingData.levelData().level(), rankingX, rankingY);
 
+        // Draw the percentile and the XP to the next rank next to the rank, shrunk to the remaining width
+        if (rankPosition != null && !rankingData.isInvalid()) {
+            String positionText = formatRankPosition(rankPosition);
+            int positionX = rankingX + rankWidth + 30;
+            int positionSize = fitText(positionText, 1600 - textX - positionX, notoSansFont, 60);
+            g2d.setFont(FontResolver.font(notoSansFont, Font.PLAIN, positionSize));
+            g2d.setColor(new Color(180, 180, 180));
+            g2d.drawString(positionText, positionX, textY + rankHeight);
+        }
+
         BufferedImage imageXP = new BufferedImage(1500, 25, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2dXP = imageXP.createGraphics();
 
@@ -146,7 +258,7 @@ public class ImageUtils {
         // Draw XP remaining
         if (rankingData.levelData().level() < 420) {
             int smallerTextSize = 60;
-            g2d.setFont(new Font(notoSansFont, Font.PLAIN, smallerTextSize));
+            g2d.setFont(FontResolver.font(notoSansFont, Font.PLAIN, smallerTextSize));
             g2d.setColor(Color.WHITE);
             g2d.drawString(String.format("%,d remaining XP", remainingXP), 1125 - ("" + remainingXP).length() * 33, xpY - 50);
         }
@@ -154,59 +266,45 @@ public class ImageUtils {
         // Free graphics object to save resources
         g2d.dispose();
 
-        // Write output image
-        var outputStream = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", outputStream);
-        return outputStream.toByteArray();
-    }
+        // Round the corners, nothing is drawn close enough to them to be cut off
+        RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double(0, 0, 1600, 1300, 100, 100);
+        AlphaMask.of(roundRect, image.getWidth(), image.getHeight(), quality.scale()).apply(image);
 
-    public static byte[] generateLeaderboardImage(List<RankingData> rankedUsers, RankingData userRank,
-                                                  Guild guild, int currentPage, int totalPages) throws IOException {
-        BufferedImage image = new BufferedImage(2000, 1400, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = image.createGraphics();
-
-        g2d.setColor(new Color(43, 43, 43));
-        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
-
-        // Leaderboard Avatar and Title
-        g2d.drawImage(generateAvatar(loadGuildAvatar(guild)), 60, 85, 185, 185, null);
-
-        // Set font and size for title appropriately
-        String titleText = "Leaderboard for " + guild.getName();
-        int titleFontSize = fitText(titleText, (int) (image.getWidth() * 0.75),  kiwiMaruFont,80, g2d);
-        g2d.setFont(new Font(kiwiMaruFont, Font.BOLD, titleFontSize));
+        return image;
+    }
 
-        g2d.setColor(Color.WHITE);
-        g2d.drawString(titleText, 290, 200);
-        // Syrup Icon
-        URL url = Main.class.getResource("/images/syrupicon.png");
-        InputStream inputStream = url.openStream();
-        BufferedImage imageSyrup = ImageIO.read(inputStream);
-        g2d.drawImage(imageSyrup, 1710, 1110, 256, 256, null);
+    /**
+     * Encodes the image as PNG, large images in parallel on the render pool.
+     *
+     * @param image the image
+     * @return the image in its byte representation
+     * @throws IOException if there's a problem encoding the image
+     */
+    public static byte[] encodePNG(BufferedImage image) throws IOException {
+        return pngEncoder.encode(image, renderPool);
+    }
 
-        // Footer (current page, total pages)
-        String footerText = "Page " + currentPage + " / " + totalPages;
-        g2d.setFont(new Font(notoSansFont, Font.BOLD, 30));
-        FontMetrics fontMetrics = g2d.getFontMetrics();
-        int length = fontMetrics.charsWidth(footerText.toCharArray(), 0, footerText.length());
-        g2d.drawString(footerText, image.getWidth() / 2 - length / 2, 1350);
+    /**
+     * Creates an image of a leaderboard page, containing the avatar, name, level and XP amount of every ranked user on the page
+     * and the ranking of the user who requested it.
+     *
+     * @param rankedUsers the ranked users on the page
+     * @param userRank the ranking of the user who requested the leaderboard
+     * @param guild the guild
+     * @param currentPage the page
+     * @param totalPages the number of pages
+     * @param quality the quality, must not be {@link RenderQuality#TEXT}
+     * @return the image in its byte representation
+     * @throws IOException if there's a problem fetching the images from Discord or encoding the newly created image
+     */
+    public static byte[] generateLeaderboardImage(List<RankingData> rankedUsers, RankingData userRank,
+                                                  Guild guild, int currentPage, int totalPages, RenderQuality quality) throws IOException {
+        var guildAvatarUrl = guild.getIconUrl() + "?size=256";
 
         // You
         var memberYou = guild.retrieveMemberById(userRank.userID()).submit().join();
         var userYou = memberYou.getUser();
-        int youX = image.getWidth() / 2 - 375;
-        int youY = 1140;
-        g2d.drawImage(generateLeaderboardRankImage(userRank, "You", true), youX, youY, 750, 140, null);
-        g2d.drawImage(generateAvatar(loadMemberAvatar(memberYou, userYou, userRank.userID())), youX - 20, youY - 20, 160, 160, null);
-        var youRankImage = generateRankNumberImage(userRank.rank());
-        double scaleFactor = 0.6 - 0.3 * (("" + (userRank.rank())).length() / 5.0);
-        g2d.drawImage(youRankImage,
-                youX + 140 - (int) (youRankImage.getWidth() * scaleFactor / 2),
-                youY + 100,
-                (int) (youRankImage.getWidth() * 0.5),
-                (int) (youRankImage.getHeight() * 0.5),
-                null
-        );
+        var youAvatarUrl = memberAvatarUrl(memberYou, userYou, userRank.userID());
 
         // All ranking people
         var ids = rankedUsers.stream()
@@ -214,10 +312,10 @@ public class ImageUtils {
                 .toList();
 
         var members = guild.retrieveMembersByIds(ids).get();
-        for (int i = 0; i < rankedUsers.size(); i++) {
-            long userID = rankedUsers.get(i).userID();
-            double setX = 220 + 784 * Math.floor((i + 0.001) / 5.0);
-            double setY = 290 + 160 * (i % 5);
+        List<String> names = new ArrayList<>();
+        List<String> avatarUrls = new ArrayList<>();
+        for (var rankingData : rankedUsers) {
+            long userID = rankingData.userID();
 
             Member member = null;
             User user = guild.getJDA().retrieveUserById(userID).complete();
@@ -235,14 +333,120 @@ public class ImageUtils {
                 memberName = user.getEffectiveName();
             }
 
-            g2d.drawImage(generateLeaderboardRankImage(rankedUsers.get(i), memberName, userID == userRank.userID()), (int) setX, (int) setY, 750, 140, null);
-            g2d.drawImage(generateAvatar(loadMemberAvatar(member, user, userID)), (int) setX - 10, (int) setY - 10, 160, 160, null);
+            names.add(memberName);
+            avatarUrls.add(memberAvatarUrl(member, user, userID));
         }
 
+        var workers = renderWorkers;
+        if (workers != null) {
+            // the rows are cached by the workers, so the bot can't tell which avatars they still need
+            var you = new RenderJob.Entry(userRank, "You", youAvatarUrl, imageSource.loadImageBytes(youAvatarUrl));
+            List<RenderJob.Entry> entries = new ArrayList<>();
+            for (int i = 0; i < rankedUsers.size(); i++) {
+                entries.add(new RenderJob.Entry(rankedUsers.get(i), names.get(i), avatarUrls.get(i),
+                        imageSource.loadImageBytes(avatarUrls.get(i))));
+            }
+            var job = new RenderJob.Leaderboard(guild.getName(), imageSource.loadImageBytes(guildAvatarUrl), you, entries,
+                    currentPage, totalPages, quality);
+            return renderOnWorker("leaderboard", workers, job);
+        }
+
+        var guildAvatar = imageSource.loadImage(guildAvatarUrl);
+        var you = new LeaderboardEntry(userRank, "You", youAvatarUrl);
+        List<LeaderboardEntry> entries = new ArrayList<>();
         for (int i = 0; i < rankedUsers.size(); i++) {
+            entries.add(new LeaderboardEntry(rankedUsers.get(i), names.get(i), avatarUrls.get(i)));
+        }
+
+        // only the avatars of rows that aren't cached are downloaded, while drawing, so they're excluded from the duration
+        var source = imageSource;
+        long[] downloadNanos = new long[1];
+        ImageSource avatars = url -> {
+            long downloadStart = System.nanoTime();
+            try {
+                return source.loadImage(url);
+            } finally {
+                downloadNanos[0] += System.nanoTime() - downloadStart;
+            }
+        };
+
+        var flightEvent = new ImageRenderEvent();
+        flightEvent.begin();
+        long start = System.nanoTime();
+        var image = renderLeaderboardImage(guild.getName(), guildAvatar, you, entries, currentPage, totalPages, quality, avatars);
+        renderDuration.labels("leaderboard", "compose").observe((System.nanoTime() - start - downloadNanos[0]) / 1e9);
+        return timedEncodePNG("leaderboard", image, flightEvent);
+    }
+
+    /**
+     * Draws a leaderboard page from already loaded images,
+     * see {@link ImageUtils#generateLeaderboardImage(List, RankingData, Guild, int, int, RenderQuality)}.
+     * The background, the rows and the rank pills are cached, so only what changed since the last page is drawn again.
+     * Avatars are only loaded for the rows that aren't cached.
+     *
+     * @param guildName the name of the guild
+     * @param guildAvatar the icon of the guild
+     * @param you the user who requested the leaderboard
+     * @param entries the ranked users on the page
+     * @param currentPage the page
+     * @param totalPages the number of pages
+     * @param quality the quality, must not be {@link RenderQuality#TEXT}
+     * @param avatars the source of the avatars, by the URLs of the entries
+     * @return the image
+     * @throws IOException if an avatar can't be loaded
+     */
+    public static BufferedImage renderLeaderboardImage(String guildName, BufferedImage guildAvatar, LeaderboardEntry you,
+                                                       List<LeaderboardEntry> entries, int currentPage, int totalPages,
+                                                       RenderQuality quality, ImageSource avatars) throws IOException {
+        int width = 2000, height = 1400;
+        var userRank = you.rankingData();
+        var rows = leaderboardRows(you, entries, quality, avatars);
+
+        BufferedImage image = createImage(width, height, quality);
+        leaderboardBackground(quality).copyData(image.getRaster());
+        Graphics2D g2d = createGraphics(image, quality);
+
+        // Leaderboard Avatar and Title
+        g2d.drawImage(generateAvatar(guildAvatar), 60, 85, 185, 185, null);
+
+        // Set font and size for title appropriately
+        String titleText = "Leaderboard for " + guildName;
+        int titleFontSize = fitText(titleText, (int) (width * 0.75), kiwiMaruFont, 80);
+
+        g2d.setColor(Color.WHITE);
+        FontResolver.drawString(g2d, titleText, kiwiMaruFont, Font.BOLD, titleFontSize, 290, 200);
+
+        // Footer (current page, total pages)
+        String footerText = "Page " + currentPage + " / " + totalPages;
+        int length = FontResolver.width(footerText, notoSansFont, Font.BOLD, 30);
+        FontResolver.drawString(g2d, footerText, notoSansFont, Font.BOLD, 30, width / 2 - length / 2, 1350);
+
+        // You
+        int youX = width / 2 - 375;
+        int youY = 1140;
+        g2d.drawImage(rows[entries.size()], youX - 20, youY - 20, 770, 160, null);
+        var youRankImage = rankNumberImage(userRank.rank());
+        double scaleFactor = 0.6 - 0.3 * (("" + (userRank.rank())).length() / 5.0);
+        g2d.drawImage(youRankImage,
+                youX + 140 - (int) (youRankImage.getWidth() * scaleFactor / 2),
+                youY + 100,
+                (int) (youRankImage.getWidth() * 0.5),
+                (int) (youRankImage.getHeight() * 0.5),
+                null
+        );
+
+        // All ranking people
+        for (int i = 0; i < entries.size(); i++) {
+            double setX = 220 + 784 * Math.floor((i + 0.001) / 5.0);
+            double setY = 290 + 160 * (i % 5);
+            g2d.drawImage(rows[i], (int) setX - 10, (int) setY - 10, 760, 160, null);
+        }
+
+        // The pills are drawn last, as they overlap the row below
+        for (int i = 0; i < entries.size(); i++) {
             double setX = 220 + 784 * Math.floor((i + 0.001) / 5.0);
             double setY = 290 + 160 * (i % 5);
-            var rankImage = generateRankNumberImage(rankedUsers.get(i).rank());
+            var rankImage = rankNumberImage(entries.get(i).rankingData().rank());
             double scaleFactor2 = 0.6 - 0.25 * (("" + (i + 1)).length() / 5.0);
             g2d.drawImage(rankImage,
                     (int)setX + 140 - (int) (rankImage.getWidth() * scaleFactor2 / 2),
@@ -253,21 +457,137 @@ public class ImageUtils {
             );
         }
 
-        BufferedImage imageClipped = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2dClip = imageClipped.createGraphics();
+        g2d.dispose();
+
+        return image;
+    }
+
+    // the empty leaderboard with its rounded corners, nothing drawn on top of it reaches into the corners
+    private static BufferedImage leaderboardBackground(RenderQuality quality) {
+        return leaderboardBackgrounds.computeIfAbsent(quality, key -> {
+            int width = 2000, height = 1400;
+            BufferedImage background = createImage(width, height, quality);
+            Graphics2D g2d = createGraphics(background, quality);
+
+            g2d.setClip(new RoundRectangle2D.Double(0, 0, width, height, 300, 300));
+            g2d.setColor(new Color(43, 43, 43));
+            g2d.fillRect(0, 0, width, height);
+            // Syrup Icon
+            g2d.drawImage(syrupIcon, 1710, 1110, 256, 256, null);
+
+            g2d.dispose();
+            return background;
+        });
+    }
+
+    /**
+     * Returns the bars and avatars of the users on a leaderboard page, already scaled to the size they're drawn in.
+     * Rows are cached by everything that's drawn on them, the avatar by its URL, which changes along with the avatar.
+     * A page only loads the avatars of and draws the rows that changed since it was last drawn.
+     * The rows that aren't cached are drawn in parallel on the render pool, by at most {@value MAX_PARALLEL_ROWS} tasks
+     * per page so concurrent pages share the pool.
+     *
+     * @param you the user who requested the leaderboard
+     * @param entries the ranked users on the page
+     * @param quality the quality
+     * @param avatars the source of the avatars
+     * @return the rows of the entries, followed by the row of the user who requested the leaderboard.
+     * Each is 760 by 160 pixels at full quality, the one of the user 770, with the avatar at the top left
+     * @throws IOException if an avatar can't be loaded
+     */
+    private static BufferedImage[] leaderboardRows(LeaderboardEntry you, List<LeaderboardEntry> entries, RenderQuality quality,
+                                                   ImageSource avatars) throws IOException {
+        var keys = new RowKey[entries.size() + 1];
+        for (int i = 0; i < entries.size(); i++) {
+            var entry = entries.get(i);
+            boolean isYou = entry.rankingData().userID() == you.rankingData().userID();
+            keys[i] = RowKey.of(entry, isYou, 10, quality);
+        }
+        keys[entries.size()] = RowKey.of(you, true, 20, quality);
+
+        var rows = new BufferedImage[keys.length];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            rows[i] = leaderboardRows.get(keys[i]);
+            if (rows[i] == null) missing.add(i);
+        }
+        cachedTiles.labels("row", "hit").inc(keys.length - missing.size());
+        cachedTiles.labels("row", "miss").inc(missing.size());
 
-        RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double(0, 0, image.getWidth(), image.getHeight(), 300, 300);
-        g2dClip.setClip(roundRect);
-        g2dClip.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
+        var avatarImages = new BufferedImage[keys.length];
+        for (int i : missing) {
+            avatarImages[i] = avatars.loadImage(keys[i].avatarUrl());
+        }
 
+        var pool = renderPool;
+        int taskCount = Math.min(Math.min(missing.size(), MAX_PARALLEL_ROWS), pool.getParallelism());
+        if (taskCount < 2) {
+            for (int i : missing) {
+                rows[i] = drawLeaderboardRow(i < entries.size() ? entries.get(i) : you, avatarImages[i], keys[i]);
+            }
+        } else {
+            // every task draws every n-th missing row, the tasks write to different elements of the array
+            List<Callable<Void>> tasks = new ArrayList<>(taskCount);
+            for (int task = 0; task < taskCount; task++) {
+                int firstRow = task;
+                tasks.add(() -> {
+                    for (int j = firstRow; j < missing.size(); j += taskCount) {
+                        int i = missing.get(j);
+                        rows[i] = drawLeaderboardRow(i < entries.size() ? entries.get(i) : you, avatarImages[i], keys[i]);
+                    }
+                    return null;
+                });
+            }
+            for (var future : pool.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while drawing the leaderboard rows", exception);
+                } catch (ExecutionException exception) {
+                    throw new IllegalStateException("Couldn't draw leaderboard row", exception.getCause());
+                }
+            }
+        }
+
+        for (int i : missing) {
+            leaderboardRows.put(keys[i], rows[i]);
+        }
+        return rows;
+    }
+
+    private static BufferedImage drawLeaderboardRow(LeaderboardEntry entry, BufferedImage avatar, RowKey key) {
+        int avatarOffset = key.avatarOffset();
+        var row = createImage(750 + avatarOffset, 160, key.quality());
+        Graphics2D g2d = createGraphics(row, key.quality());
+        g2d.drawImage(generateLeaderboardRankImage(entry.rankingData(), entry.name(), key.isYou()), avatarOffset, avatarOffset, 750, 140, null);
+        g2d.drawImage(generateAvatar(avatar), 0, 0, 160, 160, null);
         g2d.dispose();
-        g2dClip.dispose();
+        return row;
+    }
 
-        var outputStream = new ByteArrayOutputStream();
-        ImageIO.write(imageClipped, "png", outputStream);
-        return outputStream.toByteArray();
+    // the pill of a rank on the leaderboard, see generateRankNumberImage
+    private static BufferedImage rankNumberImage(long rank) {
+        var image = rankNumberImages.get(rank);
+        if (image != null) {
+            cachedTiles.labels("rank_number", "hit").inc();
+            return image;
+        }
+
+        cachedTiles.labels("rank_number", "miss").inc();
+        image = generateRankNumberImage(rank);
+        rankNumberImages.put(rank, image);
+        return image;
     }
 
+    /**
+     * Draws the bar of a single user on the leaderboard, containing their name, level and XP amount.
+     *
+     * @param rankingData the user's ranking
+     * @param name the displayed name of the user
+     * @param isYou whether the user requested the leaderboard, which highlights the bar
+     * @return the image
+     */
     public static BufferedImage generateLeaderboardRankImage(RankingData rankingData, String name, boolean isYou) {
         BufferedImage image = new BufferedImage(800, 150, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2d = image.createGraphics();
@@ -278,54 +598,49 @@ public class ImageUtils {
 
         int textX = 220, textY = 65;
         double fontSize = 50;
-        g2d.setFont(new Font(notoSansFont, Font.PLAIN, 50));
-        var fontMetrics = g2d.getFontMetrics();
-
-        int length = fontMetrics.charsWidth(name.toCharArray(), 0, name.length());
+        int length = FontResolver.width(name, notoSansFont, Font.PLAIN, 50);
         int maxLength = 550;
         if (length > maxLength) {
             if (length > maxLength * 2) length = maxLength * 2;
             fontSize *= maxLength / (double) length;
         }
 
-        g2d.setFont(new Font(notoSansFont, Font.PLAIN, (int) fontSize));
         g2d.setColor(Color.WHITE);
-        g2d.drawString(name, textX, textY);
+        FontResolver.drawString(g2d, name, notoSansFont, Font.PLAIN, (int) fontSize, textX, textY);
 
-        g2d.setFont(new Font(notoSansFont, Font.PLAIN, 35));
+        g2d.setFont(FontResolver.font(notoSansFont, Font.PLAIN, 35));
         g2d.drawString("Level " + rankingData.levelData().level(), textX, textY + 55);
         g2d.drawString("|", textX + 200, textY + 55);
         g2d.drawString(String.format("%,d XP", rankingData.levelData().xp()), textX  + 265, textY + 55);
 
         // The finishing touches
-        RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double(0, 0, image.getWidth(), image.getHeight(), image.getHeight(), image.getHeight());
-        BufferedImage imageClipped = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2dClip = imageClipped.createGraphics();
-
-        g2dClip.setClip(roundRect);
-        g2dClip.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
-
         g2d.dispose();
-        g2dClip.dispose();
+        RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double(0, 0, image.getWidth(), image.getHeight(), image.getHeight(), image.getHeight());
+        AlphaMask.of(roundRect, image.getWidth(), image.getHeight(), 1).apply(image);
 
-        return imageClipped;
+        return image;
     }
 
     private static BufferedImage generateAvatar(BufferedImage avatarImage) {
         BufferedImage image = new BufferedImage(avatarImage.getWidth(), avatarImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2d = image.createGraphics();
+        g2d.drawImage(avatarImage, 0, 0, null);
+        g2d.dispose();
 
         Ellipse2D.Double circle = new Ellipse2D.Double(0, 0, avatarImage.getWidth(), avatarImage.getHeight());
-        g2d.setClip(circle);
-        g2d.drawImage(avatarImage, 0, 0, avatarImage.getWidth(), avatarImage.getHeight(), null);
-
-        g2d.dispose();
+        AlphaMask.of(circle, image.getWidth(), image.getHeight(), 1).apply(image);
 
         return image;
     }
 
-    private static BufferedImage generateRankNumberImage(long rank) {
-        Font font = new Font(notoSansFont, Font.PLAIN, 100);
+    /**
+     * Draws the pill containing a user's rank on the leaderboard.
+     *
+     * @param rank the rank
+     * @return the image
+     */
+    public static BufferedImage generateRankNumberImage(long rank) {
+        Font font = FontResolver.font(notoSansFont, Font.PLAIN, 100);
 
         BufferedImage bufferedImage = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2dFont = bufferedImage.createGraphics();
@@ -333,7 +648,7 @@ public class ImageUtils {
         String rankStr = String.valueOf(rank);
         g2dFont.setFont(font);
         FontMetrics fontMetrics = g2dFont.getFontMetrics();
-        int width = fontMetrics.charsWidth(rankStr.toCharArray(), 0, rankStr.length());
+        int width = FontResolver.width(rankStr, notoSansFont, Font.PLAIN, 100);
         int height = fontMetrics.getHeight() - 60;
 
         int paddingX = 40, paddingY = 20;
@@ -347,28 +662,60 @@ public class ImageUtils {
         g2d.setFont(font);
         g2d.drawString(rankStr, paddingX, paddingY + height);
 
+        g2dFont.dispose();
+        g2d.dispose();
+
         int minLength = Math.min(image.getWidth(), image.getHeight());
         RoundRectangle2D.Double roundRect = new RoundRectangle2D.Double(0, 0, image.getWidth(), image.getHeight(), minLength, minLength);
-        BufferedImage imageClipped = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2dClip = imageClipped.createGraphics();
-
-        g2dClip.setClip(roundRect);
-        g2dClip.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
+        AlphaMask.of(roundRect, image.getWidth(), image.getHeight(), 1).apply(image);
+        return image;
+    }
 
-        g2dFont.dispose();
-        g2d.dispose();
-        g2dClip.dispose();
-        return imageClipped;
+    /**
+     * Encodes the image and records the metrics and flight recorder event of the render.
+     *
+     * @param imageName the kind of image
+     * @param image the image
+     * @param flightEvent the event, which began before the image was drawn
+     * @return the image in its byte representation
+     * @throws IOException if there's a problem encoding the image
+     */
+    private static byte[] timedEncodePNG(String imageName, BufferedImage image, ImageRenderEvent flightEvent) throws IOException {
+        long start = System.nanoTime();
+        var bytes = encodePNG(image);
+        renderDuration.labels(imageName, "encode").observeSince(start);
+        outputSize.labels(imageName).observe(bytes.length);
+
+        flightEvent.end();
+        if (flightEvent.shouldCommit()) {
+            flightEvent.kind = imageName;
+            flightEvent.bytes = bytes.length;
+            flightEvent.commit();
+        }
+        return bytes;
     }
 
-    private static BufferedImage loadImageFromUrl(String url) throws IOException {
-        var imageURL = URI.create(url).toURL();
-        return ImageIO.read(imageURL);
+    /**
+     * Draws and encodes the image in a worker process, and records the same metrics as {@link ImageUtils#timedEncodePNG}
+     * under the phase "worker".
+     *
+     * @param imageName the kind of image
+     * @param workers the worker processes
+     * @param job the image to draw
+     * @return the image in its byte representation
+     * @throws IOException if the worker fails or takes too long
+     */
+    private static byte[] renderOnWorker(String imageName, RenderWorkerPool workers, RenderJob job) throws IOException {
+        long start = System.nanoTime();
+        var bytes = workers.render(job);
+        renderDuration.labels(imageName, "worker").observeSince(start);
+        outputSize.labels(imageName).observe(bytes.length);
+        return bytes;
     }
 
-    private static BufferedImage loadMemberAvatar(Member member, User user, long userID) throws IOException {
+    private static String memberAvatarUrl(Member member, User user, long userID) {
         if (member == null && user == null) {
-            return loadImageFromUrl("https://cdn.discordapp.com/embed/avatars/" + (userID % 5) + ".png?size=256");
+            return "https://cdn.discordapp.com/embed/avatars/" + (userID % 5) + ".png?size=256";
         }
 
         String avatarUrl;
@@ -378,23 +725,69 @@ public class ImageUtils {
             avatarUrl = member.getEffectiveAvatarUrl();
         }
 
-        return loadImageFromUrl(avatarUrl + "?size=256");
+        return avatarUrl + "?size=256";
+    }
+
+    private static BufferedImage loadSyrupIcon() {
+        try (InputStream inputStream = Main.class.getResourceAsStream("/images/syrupicon.png")) {
+            return ImageIO.read(inputStream);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    // creates an image that's scaled down by the quality, see createGraphics
+    private static BufferedImage createImage(int width, int height, RenderQuality quality) {
+        if (quality == RenderQuality.TEXT) throw new IllegalArgumentException("Text quality doesn't draw images");
+        return new BufferedImage((int) Math.ceil(width * quality.scale()), (int) Math.ceil(height * quality.scale()), BufferedImage.TYPE_INT_ARGB);
     }
 
-    private static BufferedImage loadGuildAvatar(Guild guild) throws IOException {
-        var avatarUrl = guild.getIconUrl();
-        return loadImageFromUrl(avatarUrl + "?size=256");
+    // creates graphics that take the coordinates of the full quality image, and draw faster for the lower quality
+    private static Graphics2D createGraphics(BufferedImage image, RenderQuality quality) {
+        var g2d = image.createGraphics();
+        if (quality != RenderQuality.FULL) {
+            g2d.scale(quality.scale(), quality.scale());
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+        return g2d;
     }
 
-    private static int fitText(String text, int maxWidth, String font, int initialFontSize, Graphics2D g2d) {
+    private static int fitText(String text, int maxWidth, String font, int initialFontSize) {
         int finalFontSize = initialFontSize;
-        g2d.setFont(new Font(font, Font.BOLD, finalFontSize));
-        var fontMetrics = g2d.getFontMetrics();
-        int length = fontMetrics.charsWidth(text.toCharArray(), 0, text.length());
+        int length = FontResolver.width(text, font, Font.BOLD, finalFontSize);
         if (length > maxWidth) {
             finalFontSize = (int) (finalFontSize * (maxWidth / (double) length));
         }
 
         return finalFontSize;
     }
+
+    private static <K, V> Map<K, V> lruCache(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    private record RowKey(long userID, int level, long xp, String name, String avatarUrl, boolean isYou, int avatarOffset,
+                          RenderQuality quality) {
+        private static RowKey of(LeaderboardEntry entry, boolean isYou, int avatarOffset, RenderQuality quality) {
+            var levelData = entry.rankingData().levelData();
+            return new RowKey(entry.rankingData().userID(), levelData.level(), levelData.xp(), entry.name(),
+                    entry.avatarUrl(), isYou, avatarOffset, quality);
+        }
+    }
+
+    /**
+     * A user on a leaderboard page.
+     *
+     * @param rankingData the user's ranking
+     * @param name the displayed name of the user
+     * @param avatarUrl the URL of the user's avatar, which contains the hash of the avatar
+     */
+    public record LeaderboardEntry(RankingData rankingData, String name, String avatarUrl) {
+    }
 }
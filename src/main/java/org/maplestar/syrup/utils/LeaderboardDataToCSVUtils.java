@@ -1,5 +1,6 @@
 package org.maplestar.syrup.utils;
 
+import org.maplestar.syrup.data.rank.LeaderboardSnapshot;
 import org.maplestar.syrup.data.rank.LevelData;
 import org.maplestar.syrup.data.rank.RankingData;
 
@@ -29,6 +30,25 @@ public class LeaderboardDataToCSVUtils {
         return contents.getBytes();
     }
 
+    /**
+     * Converts the provided leaderboard into a CSV byte array, in the same format as {@link LeaderboardDataToCSVUtils#createCSVFileFromData(List)}.
+     * Writes the values directly instead of formatting each line.
+     *
+     * @param leaderboard the leaderboard
+     * @return bytes representing the contents of the CSV
+     */
+    public static byte[] createCSVFileFromData(LeaderboardSnapshot leaderboard) {
+        var contents = new StringBuilder(leaderboard.size() * 32);
+        for (var rankingData : leaderboard.asList()) {
+            if (!contents.isEmpty()) contents.append('\n');
+            contents.append(rankingData.userID()).append(';')
+                    .append(rankingData.levelData().level()).append(';')
+                    .append(rankingData.levelData().xp());
+        }
+
+        return contents.toString().getBytes();
+    }
+
     public static List<RankingData> createDataFromCSVFile(File file)
     {
         List<RankingData> result = new ArrayList<>();
@@ -0,0 +1,263 @@
+package org.maplestar.syrup.utils;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the colors of an image to a palette for {@link PngEncoder}, including their transparency.
+ * <p>
+ * Images with few enough colors keep all of them. Otherwise, the palette is chosen by median cut:
+ * the colors are repeatedly split into two boxes at the weighted median of their widest channel,
+ * and each box is replaced by the average of its colors. Pixels aren't dithered, as dithering makes
+ * the flat areas of the images noisy and compress worse.
+ */
+final class PaletteQuantizer {
+    private PaletteQuantizer() {
+    }
+
+    /**
+     * The palette and the palette index of every pixel.
+     * Translucent colors come first, so the transparency chunk of the PNG can be cut short.
+     *
+     * @param colors the colors in ARGB format
+     * @param indices the palette index of every pixel
+     */
+    record Palette(int[] colors, byte[] indices) {
+    }
+
+    /**
+     * Reduces the pixels to a palette.
+     * Every pixel is mapped to the average of its box rather than the closest palette color, which is nearly as accurate
+     * and doesn't require searching the palette.
+     *
+     * @param pixels the pixels in ARGB format
+     * @param maxColors the maximum size of the palette, at most 256
+     * @return the palette
+     */
+    static Palette quantize(int[] pixels, int maxColors) {
+        var histogram = new ColorHistogram();
+        for (int pixel : pixels) {
+            histogram.add(normalize(pixel));
+        }
+
+        int[] colors = histogram.colors();
+        int[] counts = histogram.counts();
+        int[] entries = new int[colors.length];
+        int[] palette;
+        if (colors.length <= maxColors) {
+            palette = colors.clone();
+            for (int i = 0; i < entries.length; i++) entries[i] = i;
+        } else {
+            palette = medianCut(colors, counts, maxColors, entries);
+        }
+
+        int[] newPositions = sortTranslucentFirst(palette);
+        for (int i = 0; i < colors.length; i++) {
+            histogram.setValue(colors[i], newPositions[entries[i]]);
+        }
+
+        byte[] indices = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            indices[i] = (byte) histogram.getValue(normalize(pixels[i]));
+        }
+        return new Palette(palette, indices);
+    }
+
+    // all fully transparent pixels look the same, so they should share a palette entry
+    private static int normalize(int pixel) {
+        return pixel >>> 24 == 0 ? 0 : pixel;
+    }
+
+    // returns the palette and writes the palette entry of every color to entries
+    private static int[] medianCut(int[] colors, int[] counts, int maxColors, int[] entries) {
+        int[] order = new int[colors.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        long[] sortKeys = new long[colors.length];
+
+        // boxes are ranges of the order array
+        int[] boxFrom = new int[maxColors];
+        int[] boxTo = new int[maxColors];
+        int[] boxChannel = new int[maxColors];
+        double[] boxScore = new double[maxColors];
+        boxTo[0] = colors.length;
+        measure(colors, counts, order, 0, boxFrom, boxTo, boxChannel, boxScore);
+        int boxCount = 1;
+
+        while (boxCount < maxColors) {
+            int box = -1;
+            double bestScore = 0;
+            for (int i = 0; i < boxCount; i++) {
+                if (boxScore[i] > bestScore) {
+                    bestScore = boxScore[i];
+                    box = i;
+                }
+            }
+            if (box < 0) break;
+
+            int from = boxFrom[box];
+            int to = boxTo[box];
+            for (int j = from; j < to; j++) {
+                sortKeys[j] = (long) channel(colors[order[j]], boxChannel[box]) << 32 | order[j];
+            }
+            Arrays.sort(sortKeys, from, to);
+
+            long totalWeight = 0;
+            for (int j = from; j < to; j++) {
+                order[j] = (int) sortKeys[j];
+                totalWeight += counts[order[j]];
+            }
+
+            int split = from + 1;
+            long weight = counts[order[from]];
+            while (split < to - 1 && weight * 2 < totalWeight) {
+                weight += counts[order[split++]];
+            }
+
+            boxTo[box] = split;
+            boxFrom[boxCount] = split;
+            boxTo[boxCount] = to;
+            measure(colors, counts, order, box, boxFrom, boxTo, boxChannel, boxScore);
+            measure(colors, counts, order, boxCount, boxFrom, boxTo, boxChannel, boxScore);
+            boxCount++;
+        }
+
+        int[] palette = new int[boxCount];
+        for (int i = 0; i < boxCount; i++) {
+            long a = 0, r = 0, g = 0, b = 0, weight = 0;
+            for (int j = boxFrom[i]; j < boxTo[i]; j++) {
+                int color = colors[order[j]];
+                long count = counts[order[j]];
+                a += (color >>> 24) * count;
+                r += (color >> 16 & 0xFF) * count;
+                g += (color >> 8 & 0xFF) * count;
+                b += (color & 0xFF) * count;
+                weight += count;
+                entries[order[j]] = i;
+            }
+            palette[i] = (int) ((a + weight / 2) / weight) << 24 | (int) ((r + weight / 2) / weight) << 16
+                    | (int) ((g + weight / 2) / weight) << 8 | (int) ((b + weight / 2) / weight);
+        }
+        return palette;
+    }
+
+    // finds the widest channel of the box and how much splitting it is worth
+    private static void measure(int[] colors, int[] counts, int[] order, int box,
+                                int[] boxFrom, int[] boxTo, int[] boxChannel, double[] boxScore) {
+        int[] min = {255, 255, 255, 255};
+        int[] max = {0, 0, 0, 0};
+        long weight = 0;
+        for (int j = boxFrom[box]; j < boxTo[box]; j++) {
+            int color = colors[order[j]];
+            for (int c = 0; c < 4; c++) {
+                int value = channel(color, c);
+                if (value < min[c]) min[c] = value;
+                if (value > max[c]) max[c] = value;
+            }
+            weight += counts[order[j]];
+        }
+
+        int widestChannel = 0;
+        for (int c = 1; c < 4; c++) {
+            if (max[c] - min[c] > max[widestChannel] - min[widestChannel]) widestChannel = c;
+        }
+
+        // favors wide boxes, but also boxes covering many pixels, so large gradients get enough colors
+        boxChannel[box] = widestChannel;
+        boxScore[box] = boxTo[box] - boxFrom[box] < 2 ? 0 : (max[widestChannel] - min[widestChannel]) * Math.sqrt(weight);
+    }
+
+    private static int channel(int color, int channel) {
+        return color >>> (24 - channel * 8) & 0xFF;
+    }
+
+    // moves the translucent colors to the front and returns the new position of every color
+    private static int[] sortTranslucentFirst(int[] palette) {
+        int[] original = palette.clone();
+        int[] newPositions = new int[palette.length];
+        int next = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < original.length; i++) {
+                boolean translucent = original[i] >>> 24 != 0xFF;
+                if (translucent == (pass == 0)) {
+                    newPositions[i] = next;
+                    palette[next++] = original[i];
+                }
+            }
+        }
+        return newPositions;
+    }
+
+    /**
+     * Counts the pixels of each color and stores a value per color, in an open addressing hash table
+     * so the colors don't have to be boxed.
+     */
+    private static final class ColorHistogram {
+        private int[] keys = new int[4096];
+        private int[] counts = new int[4096]; // 0 marks an empty slot
+        private int[] values = new int[4096];
+        private int size;
+
+        void add(int color) {
+            int slot = slot(keys, counts, color);
+            if (counts[slot] == 0) {
+                keys[slot] = color;
+                if (++size * 2 > keys.length) {
+                    counts[slot] = 1;
+                    grow();
+                    return;
+                }
+            }
+            counts[slot]++;
+        }
+
+        void setValue(int color, int value) {
+            values[slot(keys, counts, color)] = value;
+        }
+
+        int getValue(int color) {
+            return values[slot(keys, counts, color)];
+        }
+
+        int[] colors() {
+            int[] colors = new int[size];
+            int i = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (counts[slot] != 0) colors[i++] = keys[slot];
+            }
+            return colors;
+        }
+
+        // in the same order as colors()
+        int[] counts() {
+            int[] result = new int[size];
+            int i = 0;
+            for (int count : counts) {
+                if (count != 0) result[i++] = count;
+            }
+            return result;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new int[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] == 0) continue;
+
+                int slot = slot(keys, counts, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+
+        private static int slot(int[] keys, int[] counts, int color) {
+            int mask = keys.length - 1;
+            int slot = (color * 0x9E3779B9) >>> 7 & mask;
+            while (counts[slot] != 0 && keys[slot] != color) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
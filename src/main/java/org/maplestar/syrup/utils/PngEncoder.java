@@ -0,0 +1,448 @@
+package org.maplestar.syrup.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes images as PNG without going through ImageIO, with a configurable compression level and row filter.
+ * <p>
+ * Fully opaque images are written without an alpha channel. Optionally, the image is reduced to a palette of
+ * at most 256 colors (including transparency) first, see {@link PaletteQuantizer}, which makes the rank and
+ * leaderboard images a fraction of the size since they mostly consist of solid colors. Photos like avatars
+ * and banners lose some detail when quantized, so it's disabled by default.
+ * <p>
+ * Instances are immutable and can be used from multiple threads.
+ */
+public final class PngEncoder {
+    /**
+     * The encoder used unless configured otherwise, with the same settings as ImageIO's PNG writer.
+     */
+    public static final PngEncoder DEFAULT = new PngEncoder(4, Filter.ADAPTIVE, false);
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int MIN_STRIP_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final int compressionLevel;
+    private final Filter filter;
+    private final boolean quantize;
+
+    /**
+     * Initializes the class.
+     *
+     * @param compressionLevel the deflate level from 0 (none) to 9 (smallest, slowest)
+     * @param filter the filter applied to each row before compressing it
+     * @param quantize whether the image should be reduced to a palette of at most 256 colors
+     * @throws IllegalArgumentException if the compression level is out of range
+     */
+    public PngEncoder(int compressionLevel, Filter filter, boolean quantize) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + compressionLevel);
+        }
+
+        this.compressionLevel = compressionLevel;
+        this.filter = filter;
+        this.quantize = quantize;
+    }
+
+    /**
+     * The filters that can be applied to each row, see the PNG specification.
+     * Filters only store the difference to neighboring pixels, which compresses better for smooth images.
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        /**
+         * Picks the filter per row that's likely to compress best, by the smallest sum of absolute differences.
+         * Palette images are never filtered, as the differences between palette indices are meaningless.
+         */
+        ADAPTIVE;
+
+        /**
+         * Parses a filter case-insensitively, e.g. "paeth".
+         *
+         * @param name the name of the filter
+         * @return the filter
+         * @throws IllegalArgumentException if there's no filter with that name
+         */
+        public static Filter parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Encodes the image as PNG on the current thread.
+     *
+     * @param image the image
+     * @return the image in its byte representation
+     * @throws IOException if there's a problem encoding the image
+     */
+    public byte[] encode(BufferedImage image) throws IOException {
+        return encode(image, null);
+    }
+
+    /**
+     * Encodes the image as PNG, filtering and compressing strips of at least 256 KB in parallel on the pool.
+     * <p>
+     * Every strip is compressed on its own, with the end of the previous strip as preset dictionary so matches
+     * across strips are still found, and the strips are joined into a single zlib stream. The output is slightly
+     * larger than when compressing everything at once, as the compressor starts over at every strip.
+     * Small images, and pools without parallelism, are encoded on the current thread instead.
+     *
+     * @param image the image
+     * @param pool the pool to compress on, or null to encode on the current thread
+     * @return the image in its byte representation
+     * @throws IOException if there's a problem encoding the image
+     */
+    public byte[] encode(BufferedImage image, @Nullable ForkJoinPool pool) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = getPixels(image);
+
+        int colorType;
+        int bytesPerPixel;
+        byte[] raw;
+        PaletteQuantizer.Palette palette = null;
+        if (quantize) {
+            palette = PaletteQuantizer.quantize(pixels, 256);
+            colorType = COLOR_TYPE_PALETTE;
+            bytesPerPixel = 1;
+            raw = palette.indices();
+        } else {
+            boolean opaque = isOpaque(pixels);
+            colorType = opaque ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA;
+            bytesPerPixel = opaque ? 3 : 4;
+            raw = toBytes(pixels, opaque);
+        }
+
+        var out = new ByteArrayOutputStream(width * height / 4);
+        out.write(SIGNATURE);
+
+        var header = new ByteArrayOutputStream(13);
+        var headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8); // bit depth
+        headerData.writeByte(colorType);
+        headerData.writeByte(0); // compression: deflate
+        headerData.writeByte(0); // filter method: adaptive filtering with five filter types
+        headerData.writeByte(0); // no interlacing
+        writeChunk(out, "IHDR", header.toByteArray());
+
+        if (palette != null) {
+            writePalette(out, palette.colors());
+        }
+
+        var rowFilter = palette != null && filter == Filter.ADAPTIVE ? Filter.NONE : filter;
+        int rowLength = width * bytesPerPixel;
+        byte[] filtered = new byte[(rowLength + 1) * height];
+
+        // strips of whole rows, so they can be filtered independently as well
+        int stripRows = Math.max(1, MIN_STRIP_SIZE / (rowLength + 1));
+        int stripCount = (height + stripRows - 1) / stripRows;
+        if (pool == null || pool.getParallelism() < 2 || stripCount < 2) {
+            filterRows(raw, 0, height, rowLength, bytesPerPixel, rowFilter, filtered);
+            writeChunk(out, "IDAT", deflate(filtered));
+        } else {
+            List<Callable<Void>> filterTasks = new ArrayList<>(stripCount);
+            for (int i = 0; i < stripCount; i++) {
+                int fromRow = i * stripRows;
+                int toRow = Math.min(fromRow + stripRows, height);
+                filterTasks.add(() -> {
+                    filterRows(raw, fromRow, toRow, rowLength, bytesPerPixel, rowFilter, filtered);
+                    return null;
+                });
+            }
+            for (var future : pool.invokeAll(filterTasks)) {
+                try {
+                    future.get();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while filtering", exception);
+                } catch (ExecutionException exception) {
+                    throw new IOException("Couldn't filter strip", exception.getCause());
+                }
+            }
+            writeChunk(out, "IDAT", deflateParallel(filtered, stripRows * (rowLength + 1), pool));
+        }
+
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // the images drawn by ImageUtils already store their pixels in this format, so there's no need to convert them
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1 && buffer.getOffset() == 0 && buffer.getData().length == width * height) {
+            return buffer.getData();
+        }
+
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    private static boolean isOpaque(int[] pixels) {
+        for (int pixel : pixels) {
+            if (pixel >>> 24 != 0xFF) return false;
+        }
+        return true;
+    }
+
+    private static byte[] toBytes(int[] pixels, boolean opaque) {
+        int bytesPerPixel = opaque ? 3 : 4;
+        byte[] bytes = new byte[pixels.length * bytesPerPixel];
+        int i = 0;
+        for (int pixel : pixels) {
+            bytes[i++] = (byte) (pixel >> 16);
+            bytes[i++] = (byte) (pixel >> 8);
+            bytes[i++] = (byte) pixel;
+            if (!opaque) bytes[i++] = (byte) (pixel >>> 24);
+        }
+        return bytes;
+    }
+
+    private static void writePalette(ByteArrayOutputStream out, int[] colors) throws IOException {
+        byte[] rgb = new byte[colors.length * 3];
+        int lastTranslucent = -1;
+        for (int i = 0; i < colors.length; i++) {
+            rgb[i * 3] = (byte) (colors[i] >> 16);
+            rgb[i * 3 + 1] = (byte) (colors[i] >> 8);
+            rgb[i * 3 + 2] = (byte) colors[i];
+            if (colors[i] >>> 24 != 0xFF) lastTranslucent = i;
+        }
+        writeChunk(out, "PLTE", rgb);
+
+        // entries after the last translucent one are opaque implicitly
+        if (lastTranslucent >= 0) {
+            byte[] alpha = new byte[lastTranslucent + 1];
+            for (int i = 0; i <= lastTranslucent; i++) {
+                alpha[i] = (byte) (colors[i] >>> 24);
+            }
+            writeChunk(out, "tRNS", alpha);
+        }
+    }
+
+    // filters the rows from fromRow to toRow of the raw image into the filtered image, each prefixed with its filter type
+    private static void filterRows(byte[] raw, int fromRow, int toRow, int rowLength, int bytesPerPixel,
+                                   Filter rowFilter, byte[] filtered) {
+        byte[] emptyRow = new byte[rowLength];
+        byte[][] candidates = rowFilter == Filter.ADAPTIVE ? new byte[Filter.ADAPTIVE.ordinal()][rowLength + 1] : null;
+
+        for (int y = fromRow; y < toRow; y++) {
+            byte[] previous = y == 0 ? emptyRow : raw;
+            int previousStart = y == 0 ? 0 : (y - 1) * rowLength;
+            int rowStart = y * rowLength;
+            int targetStart = y * (rowLength + 1);
+
+            if (rowFilter == Filter.ADAPTIVE) {
+                byte[] best = null;
+                long bestSum = Long.MAX_VALUE;
+                for (var candidate : Filter.values()) {
+                    if (candidate == Filter.ADAPTIVE) continue;
+
+                    byte[] target = candidates[candidate.ordinal()];
+                    long sum = applyFilter(candidate, raw, rowStart, previous, previousStart, rowLength, bytesPerPixel, target, 0);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = target;
+                    }
+                }
+                System.arraycopy(best, 0, filtered, targetStart, rowLength + 1);
+            } else {
+                applyFilter(rowFilter, raw, rowStart, previous, previousStart, rowLength, bytesPerPixel, filtered, targetStart);
+            }
+        }
+    }
+
+    // writes the filter type and the filtered row to the target, returns the sum of the absolute filtered values
+    private static long applyFilter(Filter filter, byte[] current, int currentStart, byte[] previous, int previousStart,
+                                    int length, int bytesPerPixel, byte[] target, int targetStart) {
+        target[targetStart] = (byte) filter.ordinal();
+        int out = targetStart + 1;
+        switch (filter) {
+            case NONE -> System.arraycopy(current, currentStart, target, out, length);
+            case SUB -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bytesPerPixel ? current[currentStart + i - bytesPerPixel] : 0;
+                    target[out + i] = (byte) (current[currentStart + i] - a);
+                }
+            }
+            case UP -> {
+                for (int i = 0; i < length; i++) {
+                    target[out + i] = (byte) (current[currentStart + i] - previous[previousStart + i]);
+                }
+            }
+            case AVERAGE -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bytesPerPixel ? current[currentStart + i - bytesPerPixel] & 0xFF : 0;
+                    target[out + i] = (byte) (current[currentStart + i] - ((a + (previous[previousStart + i] & 0xFF)) >>> 1));
+                }
+            }
+            case PAETH -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bytesPerPixel ? current[currentStart + i - bytesPerPixel] & 0xFF : 0;
+                    int c = i >= bytesPerPixel ? previous[previousStart + i - bytesPerPixel] & 0xFF : 0;
+                    target[out + i] = (byte) (current[currentStart + i] - paeth(a, previous[previousStart + i] & 0xFF, c));
+                }
+            }
+            case ADAPTIVE -> throw new IllegalArgumentException();
+        }
+
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs(target[out + i]);
+        }
+        return sum;
+    }
+
+    // compresses the filtered image as a single zlib stream
+    private byte[] deflate(byte[] filtered) {
+        var deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(filtered);
+            deflater.finish();
+            var compressed = new ByteArrayOutputStream(filtered.length / 8);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // compresses the strips of the filtered image in parallel and joins them into a single zlib stream, like pigz
+    private byte[] deflateParallel(byte[] filtered, int stripLength, ForkJoinPool pool) throws IOException {
+        int stripCount = (filtered.length + stripLength - 1) / stripLength;
+        List<Callable<Strip>> tasks = new ArrayList<>(stripCount);
+        for (int i = 0; i < stripCount; i++) {
+            int from = i * stripLength;
+            int to = Math.min(from + stripLength, filtered.length);
+            tasks.add(() -> deflateStrip(filtered, from, to));
+        }
+
+        var compressed = new ByteArrayOutputStream(filtered.length / 8);
+        compressed.write(0x78); // deflate with a 32 KB window
+        int flags = (compressionLevel < 2 ? 0 : compressionLevel < 6 ? 1 : compressionLevel == 6 ? 2 : 3) << 6;
+        compressed.write(flags + 31 - (0x78 * 256 + flags) % 31);
+
+        long adler = 1;
+        for (var future : pool.invokeAll(tasks)) {
+            Strip strip;
+            try {
+                strip = future.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing", exception);
+            } catch (ExecutionException exception) {
+                throw new IOException("Couldn't compress strip", exception.getCause());
+            }
+
+            compressed.write(strip.data());
+            adler = combineAdler32(adler, strip.adler32(), strip.length());
+        }
+
+        compressed.write((int) (adler >>> 24));
+        compressed.write((int) (adler >>> 16));
+        compressed.write((int) (adler >>> 8));
+        compressed.write((int) adler);
+        return compressed.toByteArray();
+    }
+
+    // compresses a strip as raw deflate data, so the strips can be concatenated
+    private Strip deflateStrip(byte[] filtered, int from, int to) {
+        boolean last = to == filtered.length;
+        var deflater = new Deflater(compressionLevel, true);
+        try {
+            // primes the window with the end of the previous strip, so matches across strips aren't lost
+            if (from > 0) {
+                int dictionaryStart = Math.max(0, from - DICTIONARY_SIZE);
+                deflater.setDictionary(filtered, dictionaryStart, from - dictionaryStart);
+            }
+            deflater.setInput(filtered, from, to - from);
+
+            var compressed = new ByteArrayOutputStream((to - from) / 8);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // ends the strip on a byte boundary without marking it as the final block
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+
+            var adler32 = new Adler32();
+            adler32.update(filtered, from, to - from);
+            return new Strip(compressed.toByteArray(), adler32.getValue(), to - from);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private record Strip(byte[] data, long adler32, int length) {
+    }
+
+    // the checksum of two concatenated parts from their checksums, see adler32_combine in zlib
+    private static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = remainder * sum1 % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += (adler1 >>> 16 & 0xFFFF) + (adler2 >>> 16 & 0xFFFF) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | sum2 << 16;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        // the distances of p = a + b - c to a, b and c
+        int pa = Math.abs(b - c);
+        int pb = Math.abs(a - c);
+        int pc = Math.abs(a + b - c - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        var crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        var dataOut = new DataOutputStream(out);
+        dataOut.writeInt(data.length);
+        dataOut.write(typeBytes);
+        dataOut.write(data);
+        dataOut.writeInt((int) crc.getValue());
+    }
+}
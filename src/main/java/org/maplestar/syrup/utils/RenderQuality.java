@@ -0,0 +1,34 @@
+package org.maplestar.syrup.utils;
+
+/**
+ * How much effort goes into the images of /rank and /leaderboard, lowered by the {@link RenderQualityController} under load.
+ */
+public enum RenderQuality {
+    /**
+     * The images in full resolution.
+     */
+    FULL(1),
+    /**
+     * The images in half the resolution with faster scaling, which is about four times cheaper to draw and encode.
+     */
+    REDUCED(0.5),
+    /**
+     * No image at all, the information is sent as an embed instead.
+     */
+    TEXT(0);
+
+    private final double scale;
+
+    RenderQuality(double scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * Returns the factor the width and height of the images are scaled by.
+     *
+     * @return the scale, 0 if no image should be drawn
+     */
+    public double scale() {
+        return scale;
+    }
+}
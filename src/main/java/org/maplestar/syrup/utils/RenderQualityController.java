@@ -0,0 +1,282 @@
+package org.maplestar.syrup.utils;
+
+import org.maplestar.syrup.metrics.Counter;
+import org.maplestar.syrup.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lowers the {@link RenderQuality} of images when rendering falls behind, and raises it again once it caught up.
+ * <p>
+ * Every render is tracked from the moment it's requested until it's sent, including the time it waits for its turn.
+ * The quality is lowered as soon as the 99th percentile of those durations within the last minute or the number of
+ * renders in progress exceeds a threshold, both for all guilds and for every single guild, so a guild with a slow
+ * leaderboard doesn't slow down the others. It's only raised again by one tier at a time, once both values have
+ * dropped well below the thresholds and the quality hasn't changed for a while, so it doesn't keep flipping back and forth.
+ * <p>
+ * Is safe to use from multiple threads.
+ */
+public class RenderQualityController {
+    private static final Counter renders = Metrics.counter("syrup_renders_total",
+            "Rendered images by the quality they were rendered in", "quality");
+
+    private static final Duration WINDOW = Duration.ofMinutes(1);
+    private static final Duration RECOVERY_DELAY = Duration.ofSeconds(30);
+    private static final Duration EVALUATION_INTERVAL = Duration.ofSeconds(1);
+    // fewer samples aren't enough for a meaningful percentile, a single slow download would lower the quality
+    private static final int MIN_SAMPLES = 10;
+
+    private final Thresholds globalThresholds;
+    private final Thresholds guildThresholds;
+    private final State global;
+    private final Map<Long, State> guilds = new ConcurrentHashMap<>();
+    private volatile long lastCleanup = System.nanoTime();
+
+    /**
+     * Initializes the class with the default thresholds: reduced quality from a p99 of 2 seconds or 8 renders in progress,
+     * text only from 6 seconds or 24 renders in progress, and a quarter of the renders in progress for a single guild.
+     */
+    public RenderQualityController() {
+        this(new Thresholds(Duration.ofSeconds(2), Duration.ofSeconds(6), 8, 24),
+                new Thresholds(Duration.ofSeconds(2), Duration.ofSeconds(6), 2, 6));
+    }
+
+    /**
+     * Initializes the class.
+     *
+     * @param globalThresholds the thresholds for all renders
+     * @param guildThresholds the thresholds for the renders of a single guild
+     */
+    public RenderQualityController(Thresholds globalThresholds, Thresholds guildThresholds) {
+        this.globalThresholds = globalThresholds;
+        this.guildThresholds = guildThresholds;
+        this.global = new State(-1, 512);
+
+        Metrics.gauge("syrup_render_quality", "The current render quality for all guilds, 0 is full quality")
+                .set(() -> global.quality.ordinal());
+    }
+
+    /**
+     * The latency and load at which the quality is lowered.
+     *
+     * @param reducedP99 the 99th percentile of the render duration from which the quality is reduced
+     * @param textP99 the 99th percentile of the render duration from which only text is sent
+     * @param reducedInProgress the number of renders in progress from which the quality is reduced
+     * @param textInProgress the number of renders in progress from which only text is sent
+     */
+    public record Thresholds(Duration reducedP99, Duration textP99, int reducedInProgress, int textInProgress) {
+        private RenderQuality qualityFor(long p99Nanos, int inProgress, double factor) {
+            if (p99Nanos >= textP99.toNanos() * factor || inProgress >= textInProgress * factor) return RenderQuality.TEXT;
+            if (p99Nanos >= reducedP99.toNanos() * factor || inProgress >= reducedInProgress * factor) return RenderQuality.REDUCED;
+            return RenderQuality.FULL;
+        }
+    }
+
+    /**
+     * Registers a render for a guild, which counts as in progress until the returned render is closed.
+     * The render should be closed in any case, e.g. with try-with-resources.
+     *
+     * @param guildID the ID of the guild
+     * @return the render
+     */
+    public Render begin(long guildID) {
+        return begin(guildID, System.nanoTime());
+    }
+
+    /**
+     * Registers a render for a guild that was requested earlier, e.g. before the data it shows was loaded.
+     * Its duration is recorded from the provided start, but it only counts as in progress from now on.
+     *
+     * @param guildID the ID of the guild
+     * @param start when the render was requested, see {@link System#nanoTime()}
+     * @return the render
+     * @see RenderQualityController#begin(long)
+     */
+    public Render begin(long guildID, long start) {
+        var guild = guilds.computeIfAbsent(guildID, id -> new State(id, 64));
+        global.inProgress.incrementAndGet();
+        guild.inProgress.incrementAndGet();
+        return new Render(guild, start);
+    }
+
+    /**
+     * Registers a render that isn't urgent, e.g. one done in advance. It doesn't belong to a guild and its duration isn't
+     * recorded, but it counts as in progress for all guilds until the returned render is closed, so the renders that were
+     * requested are aware of it and {@link #isIdle()} is false meanwhile.
+     * The render should be closed in any case, e.g. with try-with-resources.
+     *
+     * @return the render
+     */
+    public BackgroundRender beginBackground() {
+        global.background.incrementAndGet();
+        return new BackgroundRender();
+    }
+
+    /**
+     * Returns the current quality for a guild, the lower one of the quality for all guilds and the one for the guild.
+     *
+     * @param guildID the ID of the guild
+     * @return the quality
+     */
+    public RenderQuality getQuality(long guildID) {
+        long now = System.nanoTime();
+        var globalQuality = global.evaluate(globalThresholds, now);
+
+        var guild = guilds.get(guildID);
+        var guildQuality = guild == null ? RenderQuality.FULL : guild.evaluate(guildThresholds, now);
+
+        if (now - lastCleanup > WINDOW.toNanos()) {
+            lastCleanup = now;
+            removeIdleGuilds(now);
+        }
+        return globalQuality.compareTo(guildQuality) >= 0 ? globalQuality : guildQuality;
+    }
+
+    /**
+     * Checks whether nothing is being rendered at the moment, including background renders, and the quality for all guilds is full,
+     * so there's capacity for work that isn't urgent.
+     *
+     * @return whether rendering is idle
+     */
+    public boolean isIdle() {
+        return global.inProgress.get() == 0 && global.background.get() == 0 && global.evaluate(globalThresholds, System.nanoTime()) == RenderQuality.FULL;
+    }
+
+    // guilds that stopped rendering are forgotten, unless their quality is still lowered
+    private void removeIdleGuilds(long now) {
+        guilds.values().removeIf(guild -> guild.inProgress.get() == 0 && guild.quality == RenderQuality.FULL && guild.isIdle(now));
+    }
+
+    /**
+     * A render in progress, see {@link RenderQualityController#begin(long)}.
+     */
+    public final class Render implements AutoCloseable {
+        private final State guild;
+        private final long start;
+        private boolean closed;
+
+        private Render(State guild, long start) {
+            this.guild = guild;
+            this.start = start;
+        }
+
+        /**
+         * Decides the quality of the image right before drawing it, after it may have waited for its turn.
+         *
+         * @return the quality
+         */
+        public RenderQuality quality() {
+            var quality = getQuality(guild.guildID);
+            renders.labels(quality.name().toLowerCase(Locale.ROOT)).inc();
+            return quality;
+        }
+
+        /**
+         * Marks the render as done and records how long it took.
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+
+            long now = System.nanoTime();
+            global.inProgress.decrementAndGet();
+            guild.inProgress.decrementAndGet();
+            global.record(now, now - start);
+            guild.record(now, now - start);
+        }
+    }
+
+    /**
+     * A render that isn't urgent, see {@link RenderQualityController#beginBackground()}.
+     */
+    public final class BackgroundRender implements AutoCloseable {
+        private boolean closed;
+
+        private BackgroundRender() {
+        }
+
+        /**
+         * Marks the render as done.
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+
+            global.background.decrementAndGet();
+        }
+    }
+
+    /**
+     * The recent render durations and the current quality, either of all guilds or of a single guild.
+     */
+    private static final class State {
+        private final long guildID;
+        private final AtomicInteger inProgress = new AtomicInteger();
+        // renders that aren't urgent, only ever counted for all guilds
+        private final AtomicInteger background = new AtomicInteger();
+        private final long[] timestamps;
+        private final long[] durations;
+        private int next;
+        private int count;
+        private volatile RenderQuality quality = RenderQuality.FULL;
+        private long lastChange = System.nanoTime();
+        private long lastEvaluation = lastChange - EVALUATION_INTERVAL.toNanos();
+
+        private State(long guildID, int capacity) {
+            this.guildID = guildID;
+            this.timestamps = new long[capacity];
+            this.durations = new long[capacity];
+        }
+
+        private synchronized void record(long now, long duration) {
+            timestamps[next] = now;
+            durations[next] = duration;
+            next = (next + 1) % timestamps.length;
+            count = Math.min(count + 1, timestamps.length);
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return count == 0 || now - timestamps[(next - 1 + timestamps.length) % timestamps.length] > WINDOW.toNanos();
+        }
+
+        private synchronized RenderQuality evaluate(Thresholds thresholds, long now) {
+            if (now - lastEvaluation < EVALUATION_INTERVAL.toNanos()) return quality;
+            lastEvaluation = now;
+
+            long p99 = p99(now);
+            int renders = inProgress.get() + background.get();
+
+            // lowers the quality immediately, but only raises it by one tier once well below the thresholds
+            var target = thresholds.qualityFor(p99, renders, 1);
+            if (target.compareTo(quality) > 0) {
+                quality = target;
+                lastChange = now;
+            } else if (quality != RenderQuality.FULL && now - lastChange >= RECOVERY_DELAY.toNanos()
+                    && thresholds.qualityFor(p99, renders, 0.5).compareTo(quality) < 0) {
+                quality = RenderQuality.values()[quality.ordinal() - 1];
+                lastChange = now;
+            }
+            return quality;
+        }
+
+        // the 99th percentile of the durations within the window, 0 if there are too few
+        private long p99(long now) {
+            long[] recent = new long[count];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (now - timestamps[i] <= WINDOW.toNanos()) recent[size++] = durations[i];
+            }
+            if (size < MIN_SAMPLES) return 0;
+
+            Arrays.sort(recent, 0, size);
+            return recent[(int) Math.ceil(size * 0.99) - 1];
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.maplestar.syrup.utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Vector API version of {@link AlphaMask#applyScalar}, which processes as many pixels at once as the CPU supports.
+ * Requires the module {@code jdk.incubator.vector}, so it's only used by {@link AlphaMask} once that's known to be available.
+ */
+final class VectorizedMasking {
+    private static final VectorSpecies<Integer> PIXELS = IntVector.SPECIES_PREFERRED;
+    // the coverage has a quarter of the bits per lane, but vectors have at least 64 bits
+    private static final VectorSpecies<Byte> COVERAGE = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, PIXELS.vectorBitSize() / 4)));
+    private static final int STEP = PIXELS.length();
+    // the coverage vector may be longer than the pixel vector, and must not be loaded past the end
+    private static final int LOADED = Math.max(PIXELS.length(), COVERAGE.length());
+
+    private VectorizedMasking() {
+    }
+
+    /**
+     * Scales the alpha of the ARGB pixels by the coverage, see {@link AlphaMask#applyScalar}.
+     *
+     * @param pixels the pixels
+     * @param coverage the coverage of every pixel
+     * @param offset the index of the first pixel
+     * @param length the number of pixels
+     */
+    static void apply(int[] pixels, byte[] coverage, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i <= end - LOADED; i += STEP) {
+            var pixel = IntVector.fromArray(PIXELS, pixels, i);
+            var cover = ((IntVector) ByteVector.fromArray(COVERAGE, coverage, i).convertShape(VectorOperators.B2I, PIXELS, 0)).and(0xFF);
+
+            // a * b / 255 rounded, the same as AlphaMask.multiply
+            var product = pixel.lanewise(VectorOperators.LSHR, 24).mul(cover).add(128);
+            var alpha = product.add(product.lanewise(VectorOperators.LSHR, 8)).lanewise(VectorOperators.LSHR, 8);
+
+            pixel.and(0xFFFFFF)
+                    .or(alpha.lanewise(VectorOperators.LSHL, 24))
+                    .blend(0, alpha.eq(0))
+                    .intoArray(pixels, i);
+        }
+
+        AlphaMask.applyScalar(pixels, coverage, i, end - i);
+    }
+}